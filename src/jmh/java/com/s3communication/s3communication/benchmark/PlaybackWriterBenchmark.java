@@ -0,0 +1,119 @@
+package com.s3communication.s3communication.benchmark;
+
+import ai.replay.io.protobuf.DataChunk;
+import ai.replay.io.session.RecordingSession;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.s3communication.s3communication.config.PlaybackProperties;
+import com.s3communication.s3communication.enums.DurabilityMode;
+import com.s3communication.s3communication.service.S3PlaybackWriter;
+import com.s3communication.s3communication.service.StorageMetrics;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Multi-producer chunk ingest into one session, end to end: producers offer CHUNKS chunks of
+// chunkBytes each, then finishAndCloseStreams drains the queue into the segment file and uploads it.
+// ops/s is chunks per second landed in a finished segment; multiply by chunkBytes for bytes per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaybackWriterBenchmark {
+
+    private static final int CHUNKS = 8192;
+    // a field number DataChunk does not use, so the payload parses as an unknown field of any size
+    private static final int PAYLOAD_FIELD = 10_000;
+
+    @Param({"1", "4"})
+    public int producers;
+
+    @Param({"512", "16384"})
+    public int chunkBytes;
+
+    @Param({"NONE", "GROUP_COMMIT"})
+    public DurabilityMode durability;
+
+    private DataChunk chunk;
+    private ExecutorService producerPool;
+    private Path spoolDir;
+    private S3PlaybackWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] payload = new byte[chunkBytes];
+        new Random(42).nextBytes(payload);
+        byte[] encoded = new byte[CodedOutputStream.computeByteArraySize(PAYLOAD_FIELD, payload)];
+        CodedOutputStream out = CodedOutputStream.newInstance(encoded);
+        out.writeByteArray(PAYLOAD_FIELD, payload);
+        out.checkNoSpaceLeft();
+        chunk = DataChunk.parseFrom(ByteString.copyFrom(encoded));
+
+        producerPool = Executors.newFixedThreadPool(producers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producerPool.shutdownNow();
+    }
+
+    // a fresh session and spool directory per invocation, so every run starts from an empty segment
+    @Setup(Level.Invocation)
+    public void startSession() throws IOException {
+        RecordingSession session = Mockito.mock(RecordingSession.class);
+        Mockito.when(session.getSessionId()).thenReturn("bench-" + System.nanoTime());
+        Mockito.when(session.getStartTime()).thenReturn(Instant.now());
+
+        PlaybackProperties.Durability durabilityPolicy = new PlaybackProperties.Durability();
+        durabilityPolicy.setMode(durability);
+
+        spoolDir = Files.createTempDirectory("playback-bench");
+        writer = new S3PlaybackWriter(session, new InMemoryStorageBackend(),
+                Duration.ofMillis(100), Duration.ofHours(1), 65_536, spoolDir, durabilityPolicy,
+                new StorageMetrics(new SimpleMeterRegistry()));
+        writer.startRecordingSession();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteSpoolDir() throws IOException {
+        Files.deleteIfExists(spoolDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void ingestAndFinish() throws Exception {
+        List<Future<?>> running = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            running.add(producerPool.submit(() -> {
+                try {
+                    for (int i = 0; i < CHUNKS / producers; i++) {
+                        writer.write(chunk);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        for (Future<?> producer : running) {
+            producer.get();
+        }
+        writer.finishAndCloseStreams();
+    }
+}
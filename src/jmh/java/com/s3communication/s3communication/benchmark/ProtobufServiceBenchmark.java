@@ -0,0 +1,45 @@
+package com.s3communication.s3communication.benchmark;
+
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.service.ProtobufService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// serializeFile / deserializeFile across payload sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtobufServiceBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    public int payloadSize;
+
+    private final ProtobufService protobufService = new ProtobufService();
+    private MockMultipartFile file;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] content = new byte[payloadSize];
+        new Random(42).nextBytes(content);
+        file = new MockMultipartFile("file", "0915-sensor.bin", "application/octet-stream", content);
+        serialized = protobufService.serializeFile(file);
+    }
+
+    @Benchmark
+    public byte[] serializeFile() throws IOException {
+        return protobufService.serializeFile(file);
+    }
+
+    @Benchmark
+    public FileProto.FileData deserializeFile() throws IOException {
+        return protobufService.deserializeFile(serialized);
+    }
+}
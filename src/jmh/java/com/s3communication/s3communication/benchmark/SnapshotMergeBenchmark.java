@@ -0,0 +1,72 @@
+package com.s3communication.s3communication.benchmark;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.service.DeltaPatcher;
+import com.s3communication.s3communication.service.NameIndex;
+import com.s3communication.s3communication.service.InMemoryLockStore;
+import com.s3communication.s3communication.service.ListingCache;
+import com.s3communication.s3communication.service.ProtobufService;
+import com.s3communication.s3communication.service.StorageIoExecutor;
+import com.s3communication.s3communication.service.SnapshotBuilderService;
+import com.s3communication.s3communication.service.StorageMetrics;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// Previous snapshot plus one hour of deltas (10% of the files changed), merged and written back.
+// Every invocation starts from a freshly seeded backend, so no run sees the previous run's output.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnapshotMergeBenchmark {
+
+    private static final LocalDate DATE = LocalDate.of(2025, 1, 1);
+
+    @Param({"1000", "10000", "100000"})
+    public int fileCount;
+
+    private SnapshotBuilderService snapshotBuilderService;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+        ProtobufService protobufService = new ProtobufService();
+        StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+        snapshotBuilderService = new SnapshotBuilderService(storageBackend, protobufService, storageMetrics,
+                new StorageIoExecutor(new StorageProperties(), true),
+                new InMemoryLockStore(), new SnapshotProperties(),
+                new DeltaPatcher(storageBackend, protobufService, storageMetrics, new StorageProperties()),
+                new NameIndex(storageBackend, storageMetrics),
+                new ListingCache(new StorageProperties()));
+
+        ByteString content = ByteString.copyFrom(new byte[1024]);
+        for (int i = 0; i < fileCount; i++) {
+            String name = "file-" + i + ".bin";
+            storageBackend.put("2025/01/01/snapshots/09/" + name, fileData(name, content), "application/x-protobuf");
+        }
+        for (int i = 0; i < fileCount; i += 10) {
+            String name = "file-" + i + ".bin";
+            storageBackend.put(String.format("2025/01/01/delta/10/%02d/%s", (i / 10 % 4) * 15, name),
+                    fileData(name, content), "application/x-protobuf");
+        }
+    }
+
+    private static byte[] fileData(String name, ByteString content) {
+        return FileProto.FileData.newBuilder().setFileName(name).setContent(content).build().toByteArray();
+    }
+
+    @Benchmark
+    public void buildSnapshot() throws IOException {
+        snapshotBuilderService.buildSnapshot(DATE, 10);
+    }
+}
@@ -0,0 +1,77 @@
+package com.s3communication.s3communication.benchmark;
+
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.service.BufferPool;
+import com.s3communication.s3communication.service.DeltaPacker;
+import com.s3communication.s3communication.service.DeltaPatcher;
+import com.s3communication.s3communication.service.ListingCache;
+import com.s3communication.s3communication.service.NameIndex;
+import com.s3communication.s3communication.service.ProtobufService;
+import com.s3communication.s3communication.service.StorageIoExecutor;
+import com.s3communication.s3communication.service.StorageMetrics;
+import com.s3communication.s3communication.service.StorageService;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// downloadAndZipFiles against an in-memory object source, so only decode and zip cost is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipBenchmark {
+
+    @Param({"10", "100"})
+    public int fileCount;
+
+    @Param({"4096", "262144"})
+    public int fileSize;
+
+    private StorageService storageService;
+    private List<String> keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+        ProtobufService protobufService = new ProtobufService();
+        StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+        BufferPool bufferPool = new BufferPool();
+        StorageIoExecutor storageIoExecutor = new StorageIoExecutor(new StorageProperties(), true);
+        storageService = new StorageService(storageBackend, protobufService, storageMetrics,
+                new DeltaPacker(storageBackend, protobufService, storageMetrics, bufferPool, storageIoExecutor, new StorageProperties()),
+                storageIoExecutor,
+                new DeltaPatcher(storageBackend, protobufService, storageMetrics, new StorageProperties()),
+                new NameIndex(storageBackend, storageMetrics),
+                bufferPool,
+                new StorageProperties(),
+                new ListingCache(new StorageProperties()),
+                new SnapshotProperties());
+
+        Random random = new Random(42);
+        keys = new ArrayList<>();
+        for (int i = 0; i < fileCount; i++) {
+            byte[] content = new byte[fileSize];
+            random.nextBytes(content);
+            String name = "file-" + i + ".bin";
+            String key = "2025/01/01/snapshots/10/" + name;
+            storageBackend.put(key, protobufService.serializeFile(
+                    new MockMultipartFile("file", name, "application/octet-stream", content)), "application/x-protobuf");
+            keys.add(key);
+        }
+    }
+
+    @Benchmark
+    public byte[] downloadAndZipFiles() {
+        return storageService.downloadAndZipFiles(keys);
+    }
+}
@@ -0,0 +1,298 @@
+package com.s3communication.s3communication.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.s3communication.s3communication.S3communicationApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Closed-loop HTTP load test: starts the application against an in-process S3 stand-in with injected latency,
+// seeds delta files, then keeps loadtest.concurrency requests in flight over a weighted mix of endpoints.
+// Throughput and latency percentiles per endpoint are printed and written to loadtest.result as JSON,
+// so runs of different releases under the same settings can be compared. Needs no network access.
+//
+// Settings are system properties (see the loadtest profile in pom.xml); program arguments are passed to
+// the application, e.g. --storage.delta-packing.enabled=true.
+public class LoadTest {
+
+    enum Operation {
+        UPLOAD, DOWNLOAD, TIMESTAMP_MAP, REPLAY_RANGE
+    }
+
+    public static void main(String[] args) throws Exception {
+        Duration warmup = Duration.parse(System.getProperty("loadtest.warmup", "PT10S"));
+        Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT60S"));
+        int concurrency = Integer.getInteger("loadtest.concurrency", 32);
+        int seedFiles = Integer.getInteger("loadtest.files", 200);
+        int fileSize = Integer.getInteger("loadtest.file-size", 16384);
+        Map<Operation, Integer> mix = parseMix(System.getProperty("loadtest.mix",
+                "upload=20,download=50,timestamp-map=15,replay-range=15"));
+        S3StandIn.Latency latency = new S3StandIn.Latency(
+                Duration.parse(System.getProperty("loadtest.s3-latency", "PT0.02S")),
+                Duration.parse(System.getProperty("loadtest.s3-jitter", "PT0.01S")),
+                Double.parseDouble(System.getProperty("loadtest.s3-tail-chance", "0.01")),
+                Duration.parse(System.getProperty("loadtest.s3-tail", "PT0.2S")));
+        Path result = Path.of(System.getProperty("loadtest.result", "target/loadtest-result.json"));
+
+        // the SDK's default credentials chain has to resolve something, the stand-in ignores signatures
+        System.setProperty("aws.accessKeyId", "loadtest");
+        System.setProperty("aws.secretAccessKey", "loadtest");
+
+        try (S3StandIn s3 = new S3StandIn(0, latency);
+             ConfigurableApplicationContext application = new SpringApplicationBuilder(S3communicationApplication.class)
+                     .properties(
+                             "server.port=0",
+                             "aws.endpoint=" + s3.endpoint(),
+                             "aws.s3.bucket-name=loadtest",
+                             "storage.backend=s3",
+                             "snapshot.backfill.on-startup=false")
+                     .run(args)) {
+            int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+            LoadTest loadTest = new LoadTest(URI.create("http://localhost:" + port), fileSize, mix);
+
+            loadTest.seed(seedFiles);
+            System.out.printf("Seeded %d files, warming up for %s%n", seedFiles, warmup);
+            loadTest.run(concurrency, warmup);
+
+            long s3Requests = s3.requestCount();
+            System.out.printf("Measuring %d concurrent clients for %s%n", concurrency, duration);
+            Map<Operation, Samples> samples = loadTest.run(concurrency, duration);
+            report(samples, duration, s3.requestCount() - s3Requests, concurrency, latency, result);
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final URI baseUri;
+    private final int fileSize;
+    private final Map<Operation, Integer> mix;
+    private final int totalWeight;
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> fileNames = new ArrayList<>();
+
+    private LoadTest(URI baseUri, int fileSize, Map<Operation, Integer> mix) {
+        this.baseUri = baseUri;
+        this.fileSize = fileSize;
+        this.mix = mix;
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    // downloads and replays need objects that exist, uploads later overwrite the same names with new versions
+    private void seed(int files) throws IOException, InterruptedException {
+        Random random = new Random(42);
+        for (int i = 0; i < files; i++) {
+            String fileName = String.format("load-%04d.bin", i);
+            HttpResponse<String> response = client.send(uploadRequest(fileName, random), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("Seeding " + fileName + " failed: " + response.statusCode() + " " + response.body());
+            }
+            for (JsonNode uploaded : objectMapper.readTree(response.body())) {
+                keys.add(uploaded.get("key").asText());
+            }
+            fileNames.add(fileName);
+        }
+    }
+
+    private Map<Operation, Samples> run(int concurrency, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Map<Operation, Samples>>> workers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            for (int i = 0; i < concurrency; i++) {
+                long seed = i;
+                workers.add(executor.submit(() -> work(new Random(seed), deadline)));
+            }
+
+            Map<Operation, Samples> merged = new EnumMap<>(Operation.class);
+            for (Future<Map<Operation, Samples>> worker : workers) {
+                worker.get().forEach((operation, samples) ->
+                        merged.computeIfAbsent(operation, o -> new Samples()).addAll(samples));
+            }
+            return merged;
+        }
+    }
+
+    // samples are kept per worker and merged afterwards, so recording never contends
+    private Map<Operation, Samples> work(Random random, long deadline) {
+        Map<Operation, Samples> samples = new EnumMap<>(Operation.class);
+        while (System.nanoTime() < deadline) {
+            Operation operation = pick(random);
+            HttpRequest request = request(operation, random);
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                ok = response.statusCode() < 300;
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            samples.computeIfAbsent(operation, o -> new Samples()).add(System.nanoTime() - start, ok);
+        }
+        return samples;
+    }
+
+    private Operation pick(Random random) {
+        int ticket = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) return entry.getKey();
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+
+    // replays cover the current hour, which is where seeded and uploaded deltas land
+    private HttpRequest request(Operation operation, Random random) {
+        LocalDateTime now = LocalDateTime.now();
+        return switch (operation) {
+            case UPLOAD -> uploadRequest(fileNames.get(random.nextInt(fileNames.size())), random);
+            case DOWNLOAD -> get("/files/download/" + keys.get(random.nextInt(keys.size())));
+            case TIMESTAMP_MAP -> get(String.format("/files/timestamp-map?date=%s&startHour=%d&endHour=%d",
+                    now.toLocalDate(), now.getHour(), now.getHour()));
+            case REPLAY_RANGE -> get(String.format(
+                    "/files/replay-range?date=%s&startHour=%d&startMinute=0&endHour=%d&endMinute=%d&files=%s",
+                    now.toLocalDate(), now.getHour(), now.getHour(), now.getMinute(),
+                    URLEncoder.encode(fileNames.get(random.nextInt(fileNames.size())), StandardCharsets.UTF_8)));
+        };
+    }
+
+    private HttpRequest get(String pathAndQuery) {
+        return HttpRequest.newBuilder(baseUri.resolve(pathAndQuery)).GET().build();
+    }
+
+    private HttpRequest uploadRequest(String fileName, Random random) {
+        byte[] content = new byte[fileSize];
+        random.nextBytes(content);
+        String boundary = "loadtest-" + Long.toHexString(random.nextLong());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(fileSize + 256);
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        return HttpRequest.newBuilder(baseUri.resolve("/files/upload?type=delta"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split("=");
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                mix.put(Operation.valueOf(parts[0].trim().toUpperCase().replace('-', '_')), weight);
+            }
+        }
+        if (mix.isEmpty()) throw new IllegalArgumentException("loadtest.mix has no positive weight: " + value);
+        return mix;
+    }
+
+    private static void report(Map<Operation, Samples> samples, Duration duration, long s3Requests, int concurrency,
+                               S3StandIn.Latency latency, Path result) throws IOException {
+        double seconds = duration.toNanos() / 1e9;
+        Map<String, Object> operations = new LinkedHashMap<>();
+
+        System.out.printf("%n%-14s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Operation, Samples> entry : samples.entrySet()) {
+            Samples s = entry.getValue();
+            long[] sorted = s.sorted();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("requests", s.size);
+            row.put("errors", s.errors);
+            row.put("throughput", s.size / seconds);
+            row.put("p50Ms", percentileMs(sorted, 50));
+            row.put("p90Ms", percentileMs(sorted, 90));
+            row.put("p99Ms", percentileMs(sorted, 99));
+            row.put("p999Ms", percentileMs(sorted, 99.9));
+            row.put("maxMs", percentileMs(sorted, 100));
+            operations.put(entry.getKey().name().toLowerCase().replace('_', '-'), row);
+
+            System.out.printf("%-14s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey().name().toLowerCase().replace('_', '-'), s.size, s.errors, s.size / seconds,
+                    row.get("p50Ms"), row.get("p90Ms"), row.get("p99Ms"), row.get("p999Ms"), row.get("maxMs"));
+        }
+        System.out.printf("S3 stand-in requests: %d (%.1f/s)%n", s3Requests, s3Requests / seconds);
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("duration", duration.toString());
+        settings.put("concurrency", concurrency);
+        settings.put("s3Latency", latency.base().toString());
+        settings.put("s3Jitter", latency.jitter().toString());
+        settings.put("s3TailChance", latency.tailChance());
+        settings.put("s3Tail", latency.tail().toString());
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("settings", settings);
+        json.put("operations", operations);
+        json.put("s3Requests", s3Requests);
+        if (result.getParent() != null) Files.createDirectories(result.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(result.toFile(), json);
+        System.out.println("Results written to " + result);
+    }
+
+    // nearest-rank percentile
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e6;
+    }
+
+    private static final class Samples {
+        private long[] nanos = new long[1024];
+        private int size;
+        private int errors;
+
+        void add(long latencyNanos, boolean ok) {
+            if (size == nanos.length) nanos = Arrays.copyOf(nanos, size * 2);
+            nanos[size++] = latencyNanos;
+            if (!ok) errors++;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.nanos[i], true);
+            }
+            errors += other.errors;
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.s3communication.s3communication.loadtest;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// In-process S3-compatible endpoint for load tests: one in-memory bucket behind the JDK HTTP server.
+// Covers the calls the application makes (object PUT/GET/HEAD/DELETE with ranges and conditional writes,
+// CopyObject, ListObjectsV2 and multipart uploads) and delays every response by a configurable latency,
+// so results depend on the application rather than on the network to AWS.
+// Signatures are not checked; aws-chunked request bodies are decoded.
+public class S3StandIn implements AutoCloseable {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+    private static final int MAX_KEYS = 1000;
+
+    private record StoredObject(byte[] data, String eTag, String contentType, Instant lastModified) {
+    }
+
+    private final HttpServer server;
+    private final Latency latency;
+    private final ConcurrentSkipListMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    // base + uniform jitter on every response, plus tail on tailChance of them
+    public record Latency(Duration base, Duration jitter, double tailChance, Duration tail) {
+
+        long sampleNanos() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long nanos = base.toNanos();
+            if (!jitter.isZero()) {
+                nanos += random.nextLong(jitter.toNanos() + 1);
+            }
+            if (tailChance > 0 && random.nextDouble() < tailChance) {
+                nanos += tail.toNanos();
+            }
+            return nanos;
+        }
+    }
+
+    public S3StandIn(int port, Latency latency) throws IOException {
+        this.latency = latency;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        // injected latency is a sleep, so every request gets its own thread rather than a pool slot
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String endpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            byte[] body = readBody(exchange);
+            sleep(latency.sampleNanos());
+
+            // path-style addressing: /{bucket}/{key}
+            String path = decode(exchange.getRequestURI().getRawPath());
+            int slash = path.indexOf('/', 1);
+            String key = slash < 0 ? "" : path.substring(slash + 1);
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> {
+                    if (key.isEmpty()) listObjects(exchange, query);
+                    else getObject(exchange, key, true);
+                }
+                case "HEAD" -> getObject(exchange, key, false);
+                case "PUT" -> {
+                    if (query.containsKey("uploadId")) uploadPart(exchange, query, body);
+                    else if (exchange.getRequestHeaders().containsKey("x-amz-copy-source")) copyObject(exchange, key);
+                    else putObject(exchange, key, body);
+                }
+                case "POST" -> {
+                    if (query.containsKey("uploads")) createMultipartUpload(exchange, key);
+                    else completeMultipartUpload(exchange, key, query, body);
+                }
+                case "DELETE" -> {
+                    if (query.containsKey("uploadId")) uploads.remove(query.get("uploadId"));
+                    else objects.remove(key);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> error(exchange, 405, "MethodNotAllowed", exchange.getRequestMethod());
+            }
+        } catch (RuntimeException e) {
+            error(exchange, 500, "InternalError", e.toString());
+        }
+    }
+
+    private void getObject(HttpExchange exchange, String key, boolean withBody) throws IOException {
+        StoredObject object = objects.get(key);
+        if (object == null) {
+            error(exchange, 404, "NoSuchKey", key);
+            return;
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", object.eTag());
+        headers.set("Last-Modified", HTTP_DATE.format(object.lastModified()));
+        headers.set("Content-Type", object.contentType());
+        headers.set("Accept-Ranges", "bytes");
+
+        int start = 0;
+        int end = object.data().length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches() && object.data().length > 0) {
+            if (matcher.group(1).isEmpty()) {
+                start = Math.max(0, object.data().length - Integer.parseInt(matcher.group(2)));
+            } else {
+                start = Integer.parseInt(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) end = Math.min(end, Integer.parseInt(matcher.group(2)));
+            }
+            if (start > end) {
+                headers.set("Content-Range", "bytes */" + object.data().length);
+                error(exchange, 416, "InvalidRange", range);
+                return;
+            }
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + object.data().length);
+            status = 206;
+        }
+
+        int length = end - start + 1;
+        if (!withBody) {
+            headers.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(object.data(), start, length);
+        }
+    }
+
+    // If-None-Match: * and If-Match are honoured, the lease store relies on them
+    private void putObject(HttpExchange exchange, String key, byte[] body) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        String contentType = request.getFirst("Content-Type");
+        StoredObject stored = new StoredObject(body, eTag(body), contentType == null ? "binary/octet-stream" : contentType,
+                Instant.now());
+
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        String ifMatch = request.getFirst("If-Match");
+        boolean written;
+        if ("*".equals(ifNoneMatch)) {
+            written = objects.putIfAbsent(key, stored) == null;
+        } else if (ifMatch != null) {
+            StoredObject current = objects.get(key);
+            written = current != null && current.eTag().equals(ifMatch) && objects.replace(key, current, stored);
+        } else {
+            objects.put(key, stored);
+            written = true;
+        }
+        if (!written) {
+            error(exchange, 412, "PreconditionFailed", key);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("ETag", stored.eTag());
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void copyObject(HttpExchange exchange, String key) throws IOException {
+        String source = decode(exchange.getRequestHeaders().getFirst("x-amz-copy-source"));
+        source = source.startsWith("/") ? source.substring(1) : source;
+        StoredObject object = objects.get(source.substring(source.indexOf('/') + 1));
+        if (object == null) {
+            error(exchange, 404, "NoSuchKey", source);
+            return;
+        }
+
+        StoredObject copy = new StoredObject(object.data(), object.eTag(), object.contentType(), Instant.now());
+        objects.put(key, copy);
+        xml(exchange, 200, "<CopyObjectResult><LastModified>" + ISO_DATE.format(copy.lastModified())
+                + "</LastModified><ETag>" + escape(copy.eTag()) + "</ETag></CopyObjectResult>");
+    }
+
+    private void listObjects(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        int maxKeys = Math.min(MAX_KEYS, Integer.parseInt(query.getOrDefault("max-keys", String.valueOf(MAX_KEYS))));
+        boolean urlEncoded = "url".equals(query.get("encoding-type"));
+        String token = query.get("continuation-token");
+        String startAfter = token != null ? token : query.getOrDefault("start-after", "");
+
+        StringBuilder contents = new StringBuilder();
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        NavigableMap<String, StoredObject> from = startAfter.compareTo(prefix) >= 0
+                ? objects.tailMap(startAfter, false)
+                : objects.tailMap(prefix, true);
+        for (Map.Entry<String, StoredObject> entry : from.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            StoredObject object = entry.getValue();
+            contents.append("<Contents><Key>").append(listedKey(entry.getKey(), urlEncoded)).append("</Key>")
+                    .append("<LastModified>").append(ISO_DATE.format(object.lastModified())).append("</LastModified>")
+                    .append("<ETag>").append(escape(object.eTag())).append("</ETag>")
+                    .append("<Size>").append(object.data().length).append("</Size>")
+                    .append("<StorageClass>STANDARD</StorageClass></Contents>");
+            last = entry.getKey();
+            count++;
+        }
+
+        StringBuilder result = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Prefix>").append(listedKey(prefix, urlEncoded)).append("</Prefix>")
+                .append("<KeyCount>").append(count).append("</KeyCount>")
+                .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+                .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (urlEncoded) result.append("<EncodingType>url</EncodingType>");
+        if (truncated) result.append("<NextContinuationToken>").append(escape(last)).append("</NextContinuationToken>");
+        result.append(contents).append("</ListBucketResult>");
+        xml(exchange, 200, result.toString());
+    }
+
+    private void createMultipartUpload(HttpExchange exchange, String key) throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        xml(exchange, 200, "<InitiateMultipartUploadResult><Key>" + escape(key) + "</Key><UploadId>" + uploadId
+                + "</UploadId></InitiateMultipartUploadResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, Map<String, String> query, byte[] body) throws IOException {
+        NavigableMap<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+        if (parts == null) {
+            error(exchange, 404, "NoSuchUpload", query.get("uploadId"));
+            return;
+        }
+        parts.put(Integer.parseInt(query.get("partNumber")), body);
+        exchange.getResponseHeaders().set("ETag", eTag(body));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void completeMultipartUpload(HttpExchange exchange, String key, Map<String, String> query, byte[] body)
+            throws IOException {
+        NavigableMap<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+        if (parts == null) {
+            error(exchange, 404, "NoSuchUpload", query.get("uploadId"));
+            return;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Matcher partNumbers = PART_NUMBER.matcher(new String(body, StandardCharsets.UTF_8));
+        while (partNumbers.find()) {
+            byte[] part = parts.get(Integer.parseInt(partNumbers.group(1)));
+            if (part == null) {
+                error(exchange, 400, "InvalidPart", partNumbers.group(1));
+                return;
+            }
+            data.write(part);
+        }
+
+        byte[] bytes = data.toByteArray();
+        String eTag = eTag(bytes).replace("\"", "");
+        StoredObject stored = new StoredObject(bytes, "\"" + eTag + "-" + parts.size() + "\"", "binary/octet-stream",
+                Instant.now());
+        objects.put(key, stored);
+        xml(exchange, 200, "<CompleteMultipartUploadResult><Key>" + escape(key) + "</Key><ETag>"
+                + escape(stored.eTag()) + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    // Payload-signed requests over plain HTTP arrive as aws-chunked: "<hex size>;chunk-signature=...\r\n<data>\r\n"
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        byte[] raw;
+        try (InputStream in = exchange.getRequestBody()) {
+            raw = in.readAllBytes();
+        }
+        String sha = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        boolean chunked = (sha != null && sha.startsWith("STREAMING-"))
+                || (encoding != null && encoding.contains("aws-chunked"));
+        if (!chunked) return raw;
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(raw.length);
+        int position = 0;
+        while (position < raw.length) {
+            int lineEnd = indexOfCrlf(raw, position);
+            String header = new String(raw, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int size = Integer.parseInt(header.split(";", 2)[0].trim(), 16);
+            if (size == 0) break; // trailing checksums follow, nothing else to keep
+            decoded.write(raw, lineEnd + 2, size);
+            position = lineEnd + 2 + size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length - 1; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n') return i;
+        }
+        throw new IllegalArgumentException("Malformed aws-chunked body");
+    }
+
+    private static void error(HttpExchange exchange, int status, String code, String message) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        xml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message></Error>");
+    }
+
+    private static void xml(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return query;
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) query.put(decode(pair), "");
+            else query.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+        }
+        return query;
+    }
+
+    // percent-decoding only, a '+' in a key stays a '+'
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private static String listedKey(String key, boolean urlEncoded) {
+        return urlEncoded ? URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20") : escape(key);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String eTag(byte[] data) {
+        try {
+            return "\"" + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
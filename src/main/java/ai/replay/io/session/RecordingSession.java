@@ -0,0 +1,11 @@
+package ai.replay.io.session;
+
+import java.time.Instant;
+
+// A recording whose chunks are written by a PlaybackStreamWriter
+public interface RecordingSession {
+
+    String getSessionId();
+
+    Instant getStartTime();
+}
@@ -0,0 +1,17 @@
+package ai.replay.io.util;
+
+import com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class ProtobufUtils {
+
+    private ProtobufUtils() {
+    }
+
+    // Length-delimited, the same framing as the chunks in a segment, so readers use parseDelimitedFrom
+    public static void writeToStream(MessageLite message, OutputStream out) throws IOException {
+        message.writeDelimitedTo(out);
+    }
+}
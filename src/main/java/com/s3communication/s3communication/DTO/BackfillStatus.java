@@ -0,0 +1,30 @@
+package com.s3communication.s3communication.DTO;
+
+import com.s3communication.s3communication.enums.BackfillState;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+public class BackfillStatus {
+    private BackfillState state;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private int hoursPlanned;         // hours with deltas from the first gap onward
+    private int hoursBuilt;
+    private LocalDateTime lastBuiltHour;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;             // null unless state is FAILED
+
+    public static BackfillStatus idle() {
+        return new BackfillStatus(BackfillState.IDLE, null, null, 0, 0, null, null, null, null);
+    }
+
+    public BackfillStatus copy() {
+        return new BackfillStatus(state, from, to, hoursPlanned, hoursBuilt, lastBuiltHour, startedAt, finishedAt, error);
+    }
+}
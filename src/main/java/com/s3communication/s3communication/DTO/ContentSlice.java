@@ -0,0 +1,15 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.InputStream;
+
+@Data
+@AllArgsConstructor
+public class ContentSlice {
+    private InputStream body;   // only the requested bytes, caller closes it
+    private long start;
+    private long end;           // inclusive
+    private long totalLength;   // length of the whole content
+}
@@ -0,0 +1,29 @@
+package com.s3communication.s3communication.DTO;
+
+import com.s3communication.s3communication.enums.ExportState;
+import com.s3communication.s3communication.enums.ExportType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class ExportJob {
+    private String id;
+    private ExportType type;
+    private String description;       // what is exported, e.g. the prefix or the replayed instant
+    private ExportState state;
+    private String objectKey;         // where the archive is written
+    private long bytesWritten;
+    private String downloadUrl;       // presigned, null until COMPLETED
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;             // null unless state is FAILED
+
+    public ExportJob copy() {
+        return new ExportJob(id, type, description, state, objectKey, bytesWritten, downloadUrl,
+                submittedAt, startedAt, finishedAt, error);
+    }
+}
@@ -0,0 +1,16 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class Lease {
+    private String name;
+    private String owner;
+    private Instant expiresAt;
+    // store specific token (S3 ETag) proving this holder still owns the lease
+    private String version;
+}
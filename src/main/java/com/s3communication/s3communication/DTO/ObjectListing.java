@@ -0,0 +1,13 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class ObjectListing {
+    private List<StoredObject> objects;
+    private String nextContinuationToken; // null on the last page
+}
@@ -0,0 +1,13 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.InputStream;
+
+@Data
+@AllArgsConstructor
+public class ObjectStream {
+    private InputStream body;   // the whole object, caller closes it
+    private long length;        // -1 when the backend does not know it before reading
+}
@@ -0,0 +1,15 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class StoredObject {
+    private String key;
+    private long size;
+    private Instant lastModified;
+    private String eTag;
+}
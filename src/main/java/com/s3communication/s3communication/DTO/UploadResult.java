@@ -0,0 +1,13 @@
+package com.s3communication.s3communication.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class UploadResult {
+    private String fileName;
+    private String key;     // null when the upload failed
+    private boolean success;
+    private String error;   // null when the upload succeeded
+}
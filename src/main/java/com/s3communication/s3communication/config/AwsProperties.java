@@ -11,10 +11,20 @@ import org.springframework.context.annotation.Configuration;
 public class AwsProperties {
 
     private String region;
+    private String endpoint; // S3-compatible endpoint instead of AWS, e.g. a local stand-in; uses path-style addressing
     private S3 s3; // create instance of s3
+    private Transfer transfer = new Transfer();
 
     @Data
     public static class S3{
         private String bucketName;
     }
+
+    // Object reads go through the CRT client, which splits large GETs into parallel byte ranges
+    @Data
+    public static class Transfer {
+        private long partSizeBytes = 8 * 1024 * 1024;
+        private int maxConcurrency = 16;
+        private double targetThroughputGbps = 10.0;
+    }
 }
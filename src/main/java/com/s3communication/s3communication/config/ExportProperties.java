@@ -0,0 +1,24 @@
+package com.s3communication.s3communication.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+//Background zip and replay exports from application.yml
+@Configuration
+@ConfigurationProperties(prefix = "export")
+@Data
+public class ExportProperties {
+
+    // exports running at once, kept small so they leave storage I/O to interactive requests
+    private int workers = 2;
+    // exports waiting for a worker; submitting beyond this is rejected with 503
+    private int queueCapacity = 16;
+    // archives are written under this key prefix
+    private String keyPrefix = "exports/";
+    private Duration urlExpiry = Duration.ofHours(24);
+    // finished jobs are forgotten after this, their archives stay in the bucket
+    private Duration retention = Duration.ofHours(24);
+}
@@ -0,0 +1,32 @@
+package com.s3communication.s3communication.config;
+
+import com.s3communication.s3communication.enums.DurabilityMode;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+//Playback recording properties from application.yml
+@Configuration
+@ConfigurationProperties(prefix = "playback")
+@Data
+public class PlaybackProperties {
+
+    // directory holding segments until they are uploaded, scanned on startup for leftovers
+    private String spoolDir = System.getProperty("java.io.tmpdir") + "/playback-spool";
+    private Duration flushInterval = Duration.ofSeconds(1);
+    private Duration maxDuration = Duration.ofMinutes(5);
+    // chunks a session buffers ahead of its writer thread before write() blocks the producer
+    private int queueCapacity = 65_536;
+    private boolean recoverOnStartup = true;
+    private Durability durability = new Durability();
+
+    @Data
+    public static class Durability {
+        private DurabilityMode mode = DurabilityMode.NONE;
+        // group commit fires on whichever limit is reached first
+        private Duration groupCommitInterval = Duration.ofMillis(200);
+        private long groupCommitBytes = 4 * 1024 * 1024;
+    }
+}
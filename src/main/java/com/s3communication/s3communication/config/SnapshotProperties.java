@@ -0,0 +1,53 @@
+package com.s3communication.s3communication.config;
+
+import com.s3communication.s3communication.enums.LockStoreType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+//Snapshot builder coordination from application.yml
+@Configuration
+@ConfigurationProperties(prefix = "snapshot")
+@Data
+public class SnapshotProperties {
+
+    // null follows storage.backend, see StorageConfig.lockStore
+    private LockStoreType lockStore;
+    // must outlast one shard build, an expired lease lets another node rebuild the shard
+    private Duration leaseTtl = Duration.ofMinutes(15);
+    // file names are split into this many hash shards, each built under its own lease
+    private int shards = 1;
+    // lease owner written to the lock store, unique per running instance
+    private String nodeId = defaultNodeId();
+    // how far a build walks back over hours without a snapshot to find its base
+    private Duration chainLookback = Duration.ofHours(48);
+    // when the builder looks for hours to build, see SnapshotBuilderService.runScheduledBuilds
+    private String schedule = "0 */5 * * * *";
+    // uncommitted hours this far back are retried on every scheduled run; older gaps need a backfill
+    private Duration retryWindow = Duration.ofHours(6);
+    private Backfill backfill = new Backfill();
+
+    @Data
+    public static class Backfill {
+        private boolean onStartup = false;
+        // window scanned for missing snapshots, ending at the previous hour
+        private Duration lookback = Duration.ofHours(48);
+        // hours whose deltas are downloaded ahead of the hour being merged
+        private int prefetchHours = 3;
+        private Duration leaseTtl = Duration.ofHours(2);
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown-host";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
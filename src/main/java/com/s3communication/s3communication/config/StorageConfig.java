@@ -1,34 +1,124 @@
 package com.s3communication.s3communication.config;
 
+import com.s3communication.s3communication.interfaces.LockStore;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import com.s3communication.s3communication.service.InMemoryLockStore;
+import com.s3communication.s3communication.service.LocalStorageBackend;
+import com.s3communication.s3communication.service.S3LockStore;
+import com.s3communication.s3communication.service.S3StorageBackend;
+import com.s3communication.s3communication.service.TieredStorageBackend;
+import com.s3communication.s3communication.enums.LockStoreType;
+import com.s3communication.s3communication.enums.StorageBackendType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.checksums.RequestChecksumCalculation;
+import software.amazon.awssdk.core.checksums.ResponseChecksumValidation;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.S3CrtAsyncClientBuilder;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.net.URI;
+import java.nio.file.Path;
+
 @Configuration
 @RequiredArgsConstructor
 public class StorageConfig {
 
     // inject AwsProperties
     private final AwsProperties awsProperties;
+    private final StorageProperties storageProperties;
+    private final SnapshotProperties snapshotProperties;
+
+    // The S3 clients are lazy: only the backends and lock store that talk to S3 ask for them,
+    // so a local-only setup starts without AWS credentials, a region or CRT native threads
 
     // create a bean for S3Client
     @Bean
+    @Lazy
     public S3Client s3Client(){
-        return S3Client.builder()
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(awsProperties.getRegion()))
+                .credentialsProvider(DefaultCredentialsProvider.create());
+        // S3-compatible endpoints get path-style requests and only the checksums S3 requires
+        if (awsProperties.getEndpoint() != null) {
+            builder.endpointOverride(URI.create(awsProperties.getEndpoint()))
+                    .forcePathStyle(true)
+                    .requestChecksumCalculation(RequestChecksumCalculation.WHEN_REQUIRED)
+                    .responseChecksumValidation(ResponseChecksumValidation.WHEN_REQUIRED);
+        }
+        return builder.build();
+    }
+
+    // CRT based client used for reads: objects larger than one part are fetched as concurrent ranged GETs
+    @Bean
+    @Lazy
+    public S3AsyncClient s3AsyncClient() {
+        AwsProperties.Transfer transfer = awsProperties.getTransfer();
+        S3CrtAsyncClientBuilder builder = S3AsyncClient.crtBuilder()
                 .region(Region.of(awsProperties.getRegion()))
                 .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+                .minimumPartSizeInBytes(transfer.getPartSizeBytes())
+                .maxConcurrency(transfer.getMaxConcurrency())
+                .targetThroughputInGbps(transfer.getTargetThroughputGbps());
+        if (awsProperties.getEndpoint() != null) {
+            builder.endpointOverride(URI.create(awsProperties.getEndpoint()))
+                    .forcePathStyle(true)
+                    .requestChecksumCalculation(RequestChecksumCalculation.WHEN_REQUIRED)
+                    .responseChecksumValidation(ResponseChecksumValidation.WHEN_REQUIRED);
+        }
+        return builder.build();
     }
 
     @Bean
+    @Lazy
     public S3Presigner s3Presigner() {
-        return S3Presigner.builder()
+        S3Presigner.Builder builder = S3Presigner.builder()
                 .region(Region.of(awsProperties.getRegion()))
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+                .credentialsProvider(DefaultCredentialsProvider.create());
+        if (awsProperties.getEndpoint() != null) {
+            builder.endpointOverride(URI.create(awsProperties.getEndpoint()))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    // storage.backend selects where objects live: s3 (default), local, or tiered (local hot tier over s3,
+    // single node only since unspilled objects are invisible to other nodes)
+    @Bean
+    public StorageBackend storageBackend(ObjectProvider<S3Client> s3Client, ObjectProvider<S3AsyncClient> s3AsyncClient,
+                                         ObjectProvider<S3Presigner> s3Presigner) {
+        return switch (storageProperties.getBackend()) {
+            case S3 -> new S3StorageBackend(s3Client.getObject(), s3AsyncClient.getObject(), s3Presigner.getObject(),
+                    awsProperties.getS3().getBucketName());
+            case LOCAL -> new LocalStorageBackend(Path.of(storageProperties.getLocal().getRoot()));
+            // spill state sits next to the hot root, not in it, so it never shows up as an object
+            case TIERED -> new TieredStorageBackend(
+                    new LocalStorageBackend(Path.of(storageProperties.getHotTier().getRoot())),
+                    new S3StorageBackend(s3Client.getObject(), s3AsyncClient.getObject(), s3Presigner.getObject(),
+                            awsProperties.getS3().getBucketName()),
+                    storageProperties.getHotTier().getMaxAge(),
+                    Path.of(storageProperties.getHotTier().getRoot() + ".spilled"));
+        };
+    }
+
+    // snapshot.lock-store: s3 coordinates every node sharing the bucket, memory only this process.
+    // Unset, it follows the backend: memory for local (nothing else can see the files), s3 otherwise.
+    @Bean
+    public LockStore lockStore(ObjectProvider<S3Client> s3Client) {
+        LockStoreType type = snapshotProperties.getLockStore() != null
+                ? snapshotProperties.getLockStore()
+                : storageProperties.getBackend() == StorageBackendType.LOCAL ? LockStoreType.MEMORY : LockStoreType.S3;
+        return switch (type) {
+            case S3 -> new S3LockStore(s3Client.getObject(), awsProperties.getS3().getBucketName());
+            case MEMORY -> new InMemoryLockStore();
+        };
     }
 }
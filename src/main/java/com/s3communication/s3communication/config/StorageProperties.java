@@ -0,0 +1,82 @@
+package com.s3communication.s3communication.config;
+
+import com.s3communication.s3communication.enums.StorageBackendType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+//Storage backend selection from application.yml
+@Configuration
+@ConfigurationProperties(prefix = "storage")
+@Data
+public class StorageProperties {
+
+    private StorageBackendType backend = StorageBackendType.S3;
+    private Local local = new Local();
+    private HotTier hotTier = new HotTier();
+    private DeltaPacking deltaPacking = new DeltaPacking();
+    private DeltaPatching deltaPatching = new DeltaPatching();
+    private Io io = new Io();
+    private HttpCaching httpCaching = new HttpCaching();
+    private ListingCache listingCache = new ListingCache();
+
+    @Data
+    public static class Local {
+        // root directory, object keys map to relative paths below it
+        private String root = System.getProperty("java.io.tmpdir") + "/s3communication-store";
+    }
+
+    @Data
+    public static class HotTier {
+        private String root = System.getProperty("java.io.tmpdir") + "/s3communication-hot";
+        // objects stay on the hot tier this long after their last write, then only live in S3
+        private Duration maxAge = Duration.ofHours(6);
+        private Duration migrateInterval = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class DeltaPacking {
+        private boolean enabled = false;
+        // a pack is written when its oldest file has waited maxDelay or it holds maxBytes
+        private Duration maxDelay = Duration.ofMillis(500);
+        private long maxBytes = 8 * 1024 * 1024;
+    }
+
+    @Data
+    public static class DeltaPatching {
+        private boolean enabled = false;
+        // smaller deltas are stored whole (and packed when delta packing is on)
+        private long minFileBytes = 1024 * 1024;
+        private int blockSize = 4096;
+        // full copies kept in memory as patch bases
+        private long baseCacheBytes = 256L * 1024 * 1024;
+    }
+
+    @Data
+    public static class Io {
+        // storage calls in flight at once across all fan-outs
+        private int maxConcurrency = 64;
+    }
+
+    @Data
+    public static class HttpCaching {
+        // delta files are immutable this long after their window ends, once their hour's snapshot is committed
+        private Duration closedAfter = Duration.ofHours(2);
+        // Cache-Control max-age for immutable files
+        private Duration closedMaxAge = Duration.ofDays(7);
+    }
+
+    @Data
+    public static class ListingCache {
+        // 0 turns the cache off
+        private int maxEntries = 4096;
+        // listings of windows still being written, and of empty ones, are reused this long
+        private Duration openTtl = Duration.ofSeconds(5);
+        // after this a window's listing is reused for closedTtl, unless evicted or invalidated by a local write
+        private Duration closedAfter = Duration.ofHours(2);
+        // bounds how long a rebuild or delete on another node stays invisible for closed windows
+        private Duration closedTtl = Duration.ofMinutes(10);
+    }
+}
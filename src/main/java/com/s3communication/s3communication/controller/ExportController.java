@@ -0,0 +1,44 @@
+package com.s3communication.s3communication.controller;
+
+import com.s3communication.s3communication.DTO.ExportJob;
+import com.s3communication.s3communication.enums.ArchiveFormat;
+import com.s3communication.s3communication.service.ExportService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/exports")
+@RequiredArgsConstructor
+public class ExportController {
+
+    private final ExportService exportService;
+
+    // 202 with the queued job, 503 when the export queue is full; poll GET /exports/{id} for the download URL
+    @PostMapping("/prefix-zip")
+    public ResponseEntity<ExportJob> exportPrefixZip(@RequestParam String prefix) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(exportService.submitPrefixZip(prefix));
+    }
+
+    @PostMapping("/replay")
+    public ResponseEntity<ExportJob> exportReplay(
+            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam("hour") int hour,
+            @RequestParam("minute") int minute,
+            @RequestParam(value = "format", defaultValue = "zip") String format,
+            @RequestParam(value = "files", required = false) List<String> fileNames
+    ) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(exportService.submitReplay(date, hour, minute, ArchiveFormat.from(format), fileNames));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ExportJob> exportStatus(@PathVariable String id) {
+        return ResponseEntity.ok(exportService.getJob(id));
+    }
+}
@@ -0,0 +1,33 @@
+package com.s3communication.s3communication.controller;
+
+import com.s3communication.s3communication.DTO.BackfillStatus;
+import com.s3communication.s3communication.service.SnapshotBackfillService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/admin/snapshots")
+@RequiredArgsConstructor
+public class SnapshotAdminController {
+
+    private final SnapshotBackfillService snapshotBackfillService;
+
+    // 202 with the initial status, 409 while another backfill runs; poll GET for progress
+    @PostMapping("/backfill")
+    public ResponseEntity<BackfillStatus> startBackfill(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to
+    ) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(snapshotBackfillService.start(from, to));
+    }
+
+    @GetMapping("/backfill")
+    public ResponseEntity<BackfillStatus> backfillStatus() {
+        return ResponseEntity.ok(snapshotBackfillService.getStatus());
+    }
+}
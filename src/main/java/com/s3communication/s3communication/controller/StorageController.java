@@ -1,17 +1,28 @@
 package com.s3communication.s3communication.controller;
 
 import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.DTO.ContentSlice;
 import com.s3communication.s3communication.DTO.ReplayDataResponse;
+import com.s3communication.s3communication.DTO.UploadResult;
+import com.s3communication.s3communication.enums.ArchiveFormat;
 import com.s3communication.s3communication.enums.FileType;
+import com.s3communication.s3communication.exceptions.RangeNotSatisfiableException;
+import com.s3communication.s3communication.service.PooledContent;
 import com.s3communication.s3communication.service.StorageService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.nio.charset.StandardCharsets;
@@ -35,23 +46,65 @@ public class StorageController {
 //        return ResponseEntity.ok("Uploaded: " + key);
 //    }
 
+    // 200 when every file was stored, 207 with per-file results when some failed
     @PostMapping("/upload")
-    public ResponseEntity<List<String>> upload(@RequestParam("file") List<MultipartFile> files,
-                                               @RequestParam String type) {
+    public ResponseEntity<List<UploadResult>> upload(@RequestParam("file") List<MultipartFile> files,
+                                                     @RequestParam String type) {
         FileType fileType = FileType.from(type);
-        List<String> uploadedKeys = storageService.uploadFiles(files, fileType);
-        return ResponseEntity.ok(uploadedKeys);
+        List<UploadResult> results = storageService.uploadFiles(files, fileType);
+        boolean allUploaded = results.stream().allMatch(UploadResult::isSuccess);
+        return ResponseEntity.status(allUploaded ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(results);
     }
 
+    // A single Range gets 206 with just those content bytes read from storage; no Range gets the whole file.
+    // A matching If-None-Match is answered with 304 after a HEAD (or a cached ETag), without reading the file.
+    // Without If-None-Match the HEAD is skipped, except for immutable files whose ETag is cached after the first.
     @GetMapping("/download/**")
-    public ResponseEntity<ByteArrayResource> download(HttpServletRequest request) {
+    public ResponseEntity<?> download(HttpServletRequest request,
+                                      @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader) {
         String key = decodeKey(request, "/files/download/");
-        byte[] data = storageService.downloadFile(key);
+
+        CacheControl cacheControl = storageService.cacheControl(key);
+        boolean validating = request.getHeader(HttpHeaders.IF_NONE_MATCH) != null;
+        String eTag = validating || storageService.isImmutable(key) ? storageService.eTag(key) : null;
+        if (validating && new ServletWebRequest(request).checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+        }
+
+        List<HttpRange> ranges = parseRanges(rangeHeader);
+        if (ranges.size() == 1) {
+            try {
+                ContentSlice slice = storageService.downloadRange(key, ranges.get(0));
+                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .eTag(eTag)
+                        .cacheControl(cacheControl)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + key + "\"")
+                        .header(HttpHeaders.CONTENT_RANGE,
+                                "bytes " + slice.getStart() + "-" + slice.getEnd() + "/" + slice.getTotalLength())
+                        .contentLength(slice.getEnd() - slice.getStart() + 1)
+                        .body(new InputStreamResource(slice.getBody()));
+            } catch (RangeNotSatisfiableException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + e.getTotalLength())
+                        .build();
+            }
+        }
+
+        // written straight from the pooled read buffer, which goes back to the pool once the body is sent
+        PooledContent content = storageService.openContent(key);
+        StreamingResponseBody body = out -> {
+            try (content) {
+                content.writeTo(out);
+            }
+        };
         return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(cacheControl)
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + key + "\"")
-                .contentLength(data.length)
-                .body(new ByteArrayResource(data));
+                .contentLength(content.length())
+                .body(body);
     }
 
     @DeleteMapping("/delete/**")
@@ -69,10 +122,19 @@ public class StorageController {
                 .body(new ByteArrayResource(zip));
     }
 
+    // The ETag covers every object under the prefix, so a 304 only needs a listing
     @GetMapping("/download-zip-by-prefix")
-    public ResponseEntity<ByteArrayResource> downloadByPrefix(@RequestParam String prefix) {
+    public ResponseEntity<ByteArrayResource> downloadByPrefix(@RequestParam String prefix, HttpServletRequest request) {
+        String eTag = storageService.prefixETag(prefix);
+        CacheControl cacheControl = storageService.cacheControl(prefix);
+        if (new ServletWebRequest(request).checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+        }
+
         byte[] zip = storageService.downloadFilesByPrefixAsZip(prefix);
         return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(cacheControl)
                 .contentType(MediaType.APPLICATION_OCTET_STREAM)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"download.zip\"")
                 .body(new ByteArrayResource(zip));
@@ -92,15 +154,38 @@ public class StorageController {
         return ResponseEntity.ok(storageService.getReplayData(date, startHour, endHour));
     }
 
+    // The state at one instant as a single zip or tar, instead of a replay-range call plus one download per file.
+    // Only where each file lives is worked out up front; contents are streamed in file name order after that.
+    @GetMapping("/replay-archive")
+    public ResponseEntity<StreamingResponseBody> getReplayArchive(
+            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam("hour") int hour,
+            @RequestParam("minute") int minute,
+            @RequestParam(value = "format", defaultValue = "zip") String format,
+            @RequestParam(value = "files", required = false) List<String> fileNames
+    ) {
+        ArchiveFormat archiveFormat = ArchiveFormat.from(format);
+        Map<String, String> files = storageService.locateReplay(date, hour, minute, fileNames);
+        LocalDateTime instant = date.atTime(hour, (minute / 15) * 15);
+
+        StreamingResponseBody body = out -> storageService.writeArchive(files, archiveFormat, instant, out);
+        String archiveName = String.format("replay-%s-%02d%02d.%s", date, hour, minute, archiveFormat.extension());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archiveName + "\"")
+                .body(body);
+    }
+
     @GetMapping("/replay-range")
     public ResponseEntity<List<Map<String, Object>>> getReplayForRange(
             @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
             @RequestParam("startHour") int startHour,
             @RequestParam("startMinute") int startMinute,
             @RequestParam("endHour") int endHour,
-            @RequestParam("endMinute") int endMinute
+            @RequestParam("endMinute") int endMinute,
+            @RequestParam(value = "files", required = false) List<String> fileNames // exact names or globs, e.g. files=a.json&files=*.log
     ) {
-        Map<String, FileProto.FileData> files = storageService.getReplay(date, startHour, startMinute, endHour, endMinute);
+        Map<String, FileProto.FileData> files = storageService.getReplay(date, startHour, startMinute, endHour, endMinute, fileNames);
         List<Map<String, Object>> response = files.values().stream()
                 .map(f -> {
                     Map<String, Object> map = new HashMap<>();
@@ -113,6 +198,15 @@ public class StorageController {
     }
 
 
+    private List<HttpRange> parseRanges(String rangeHeader) {
+        if (rangeHeader == null) return List.of();
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return List.of(); // malformed ranges are ignored and the full body is served
+        }
+    }
+
     private String decodeKey(HttpServletRequest request, String prefix) {
         return java.net.URLDecoder.decode(request.getRequestURI().substring(prefix.length()), StandardCharsets.UTF_8);
     }
@@ -0,0 +1,14 @@
+package com.s3communication.s3communication.enums;
+
+public enum ArchiveFormat {
+    ZIP,
+    TAR; // uncompressed ustar, cheapest to write when the files are already compressed
+
+    public static ArchiveFormat from(String value) {
+        return ArchiveFormat.valueOf(value.toUpperCase());
+    }
+
+    public String extension() {
+        return name().toLowerCase();
+    }
+}
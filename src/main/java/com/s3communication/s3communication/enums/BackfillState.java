@@ -0,0 +1,8 @@
+package com.s3communication.s3communication.enums;
+
+public enum BackfillState {
+    IDLE,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,12 @@
+package com.s3communication.s3communication.enums;
+
+// How hard S3PlaybackWriter pushes segment bytes to disk before they are uploaded
+public enum DurabilityMode {
+    NONE,          // rely on the OS page cache, a crash can lose everything not yet uploaded
+    GROUP_COMMIT,  // fsync every N ms or N bytes, whichever comes first
+    PER_FLUSH;     // fsync on every flush interval
+
+    public static DurabilityMode from(String value) {
+        return DurabilityMode.valueOf(value.toUpperCase());
+    }
+}
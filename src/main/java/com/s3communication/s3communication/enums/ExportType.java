@@ -0,0 +1,6 @@
+package com.s3communication.s3communication.enums;
+
+public enum ExportType {
+    PREFIX_ZIP,
+    REPLAY
+}
@@ -0,0 +1,10 @@
+package com.s3communication.s3communication.enums;
+
+public enum LockStoreType {
+    S3,
+    MEMORY; // single process only, for local runs and tests
+
+    public static LockStoreType from(String value) {
+        return LockStoreType.valueOf(value.toUpperCase());
+    }
+}
@@ -0,0 +1,11 @@
+package com.s3communication.s3communication.enums;
+
+public enum StorageBackendType {
+    S3,
+    LOCAL,
+    TIERED; // local hot tier in front of S3, single node only: other nodes cannot see unspilled objects
+
+    public static StorageBackendType from(String value) {
+        return StorageBackendType.valueOf(value.toUpperCase());
+    }
+}
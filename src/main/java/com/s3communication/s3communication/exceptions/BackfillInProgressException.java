@@ -0,0 +1,12 @@
+package com.s3communication.s3communication.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class BackfillInProgressException extends RuntimeException {
+
+    public BackfillInProgressException(String message) {
+        super(message);
+    }
+}
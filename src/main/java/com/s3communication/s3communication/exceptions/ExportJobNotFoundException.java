@@ -0,0 +1,12 @@
+package com.s3communication.s3communication.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ExportJobNotFoundException extends RuntimeException {
+
+    public ExportJobNotFoundException(String id) {
+        super("Export job not found: " + id);
+    }
+}
@@ -0,0 +1,12 @@
+package com.s3communication.s3communication.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ObjectNotFoundException extends RuntimeException {
+
+    public ObjectNotFoundException(String key, Throwable cause) {
+        super("Object not found: " + key, cause);
+    }
+}
@@ -0,0 +1,17 @@
+package com.s3communication.s3communication.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+@Getter
+public class RangeNotSatisfiableException extends RuntimeException {
+
+    private final long totalLength;
+
+    public RangeNotSatisfiableException(long totalLength) {
+        super("Requested range not satisfiable, content length is " + totalLength);
+        this.totalLength = totalLength;
+    }
+}
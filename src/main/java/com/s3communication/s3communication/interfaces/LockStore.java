@@ -0,0 +1,17 @@
+package com.s3communication.s3communication.interfaces;
+
+import com.s3communication.s3communication.DTO.Lease;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// Named, expiring leases so a job runs on one node at a time
+public interface LockStore {
+
+    // Takes the lease when it is free or its last holder let it expire,
+    // empty when another owner holds it
+    Optional<Lease> tryAcquire(String name, String owner, Duration ttl);
+
+    // Gives the lease up before it expires; does nothing if it was already taken over
+    void release(Lease lease);
+}
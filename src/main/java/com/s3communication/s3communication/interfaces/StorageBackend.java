@@ -0,0 +1,79 @@
+package com.s3communication.s3communication.interfaces;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.ObjectStream;
+import com.s3communication.s3communication.DTO.StoredObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Object store used by the services; keys are "/" separated like S3 keys.
+// Reads of a missing key throw ObjectNotFoundException.
+public interface StorageBackend {
+
+    int DEFAULT_PAGE_SIZE = 1000;
+
+    void put(String key, byte[] data, String contentType);
+
+    void put(String key, Path file, String contentType);
+
+    // Stores data from its position to its limit without copying it first; data may be a direct buffer
+    // and must not change until put returns
+    void put(String key, ByteBuffer data, String contentType);
+
+    void put(String key, InputStream data, long contentLength, String contentType);
+
+    // Stores whatever writer produces, for objects whose length is not known up front.
+    // The object only appears if writer returns normally; a failed write leaves nothing behind.
+    void upload(String key, String contentType, ContentWriter writer);
+
+    // caller closes the stream
+    InputStream get(String key);
+
+    // get together with the object's length, taken from the same response, so a reader can size its buffer once
+    default ObjectStream getWithLength(String key) {
+        return new ObjectStream(get(key), -1);
+    }
+
+    // Size, last modified time and ETag of one object without reading it
+    StoredObject head(String key);
+
+    // endInclusive follows HTTP Range semantics
+    InputStream getRange(String key, long start, long endInclusive);
+
+    // Writes count bytes starting at position straight into target, returns the bytes written
+    long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException;
+
+    // One page of keys under prefix in lexicographic order; pass the previous page's token to continue
+    ObjectListing list(String prefix, String continuationToken, int maxKeys);
+
+    void delete(String key);
+
+    void copy(String sourceKey, String targetKey);
+
+    String presignGet(String key, Duration expiry);
+
+    @FunctionalInterface
+    interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Follows continuation tokens until the whole prefix is listed
+    default List<StoredObject> listAll(String prefix) {
+        List<StoredObject> objects = new ArrayList<>();
+        String token = null;
+        do {
+            ObjectListing page = list(prefix, token, DEFAULT_PAGE_SIZE);
+            objects.addAll(page.getObjects());
+            token = page.getNextContinuationToken();
+        } while (token != null);
+        return objects;
+    }
+}
@@ -0,0 +1,120 @@
+package com.s3communication.s3communication.service;
+
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reusable heap read buffers and direct write buffers in power-of-two size classes from 64 KB to 16 MB.
+// Larger requests get a plain heap buffer that is left to the GC. A buffer must not be touched after release.
+@Service
+public class BufferPool {
+
+    private static final int MIN_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_IDLE_PER_SIZE = 8;
+
+    private final Shelf<byte[]> arrays = new Shelf<>();
+    private final Shelf<ByteBuffer> directBuffers = new Shelf<>();
+
+    // A buffer of at least minCapacity bytes
+    public byte[] acquire(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        if (sizeClass < 0) return new byte[minCapacity];
+
+        byte[] buffer = arrays.take(sizeClass);
+        return buffer != null ? buffer : new byte[MIN_SIZE << sizeClass];
+    }
+
+    public void release(byte[] buffer) {
+        int sizeClass = sizeClass(buffer.length);
+        if (sizeClass < 0 || buffer.length != MIN_SIZE << sizeClass) return; // not one of ours
+        arrays.put(sizeClass, buffer);
+    }
+
+    // An empty direct buffer with room for at least minCapacity bytes, for writing messages off-heap.
+    // Sizes above the largest class get a heap buffer so one huge upload cannot exhaust direct memory.
+    public ByteBuffer acquireDirect(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        if (sizeClass < 0) return ByteBuffer.allocate(minCapacity);
+
+        ByteBuffer buffer = directBuffers.take(sizeClass);
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+    }
+
+    public void releaseDirect(ByteBuffer buffer) {
+        int sizeClass = sizeClass(buffer.capacity());
+        if (!buffer.isDirect() || sizeClass < 0 || buffer.capacity() != MIN_SIZE << sizeClass) return;
+        directBuffers.put(sizeClass, buffer);
+    }
+
+    // Reads the whole stream into a pooled buffer; with the exact length as sizeHint it takes one buffer
+    // and never regrows, even when the length fills it exactly
+    public PooledBuffer readFully(InputStream in, int sizeHint) throws IOException {
+        byte[] buffer = acquire(Math.max(sizeHint, 1));
+        int length = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    int next = in.read();
+                    if (next == -1) break;
+                    byte[] larger = acquire(buffer.length * 2);
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    release(buffer);
+                    buffer = larger;
+                    buffer[length++] = (byte) next;
+                }
+            }
+            return new PooledBuffer(buffer, length);
+        } catch (IOException | RuntimeException e) {
+            release(buffer);
+            throw e;
+        }
+    }
+
+    // -1 when the size is not pooled
+    private static int sizeClass(int capacity) {
+        if (capacity > MAX_POOLED_SIZE) return -1;
+        int size = Math.max(MIN_SIZE, Integer.highestOneBit(capacity - 1) << 1);
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    public record PooledBuffer(byte[] array, int length) {
+    }
+
+    // idle buffers per size class, at most MAX_IDLE_PER_SIZE each
+    private static final class Shelf<T> {
+        private final List<ConcurrentLinkedQueue<T>> idle = new ArrayList<>();
+        private final List<AtomicInteger> idleCounts = new ArrayList<>();
+
+        private Shelf() {
+            for (int size = MIN_SIZE; size <= MAX_POOLED_SIZE; size <<= 1) {
+                idle.add(new ConcurrentLinkedQueue<>());
+                idleCounts.add(new AtomicInteger());
+            }
+        }
+
+        private T take(int sizeClass) {
+            T buffer = idle.get(sizeClass).poll();
+            if (buffer != null) {
+                idleCounts.get(sizeClass).decrementAndGet();
+            }
+            return buffer;
+        }
+
+        private void put(int sizeClass, T buffer) {
+            if (idleCounts.get(sizeClass).incrementAndGet() <= MAX_IDLE_PER_SIZE) {
+                idle.get(sizeClass).offer(buffer);
+            } else {
+                idleCounts.get(sizeClass).decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces delta uploads for the same 15-minute window into one packed object.
+// A pack is written when its first file has waited maxDelay or when it reaches maxBytes;
+// every file gets the logical key {packKey}!/{fileName} once the pack is stored.
+// The flusher thread only times packs out; their PUTs run on the storage I/O executor, so a slow
+// upload of one window never holds back the packs of other windows.
+@Service
+@Slf4j
+public class DeltaPacker {
+
+    public static final String PACK_SUFFIX = ".pack";
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    private final StorageBackend storageBackend;
+    private final ProtobufService protobufService;
+    private final StorageMetrics storageMetrics;
+    private final BufferPool bufferPool;
+    private final StorageIoExecutor storageIoExecutor;
+    private final StorageProperties.DeltaPacking settings;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "delta-pack-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // window prefix -> pack being filled, guarded by this
+    private final Map<String, PendingPack> pending = new HashMap<>();
+
+    public DeltaPacker(StorageBackend storageBackend, ProtobufService protobufService,
+                       StorageMetrics storageMetrics, BufferPool bufferPool, StorageIoExecutor storageIoExecutor,
+                       StorageProperties storageProperties) {
+        this.storageBackend = storageBackend;
+        this.protobufService = protobufService;
+        this.storageMetrics = storageMetrics;
+        this.bufferPool = bufferPool;
+        this.storageIoExecutor = storageIoExecutor;
+        this.settings = storageProperties.getDeltaPacking();
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    // windowPrefix is the delta folder, e.g. 2025/01/01/delta/10/15/
+    public CompletableFuture<String> add(String windowPrefix, FileProto.FileData file) {
+        PendingPack full = null;
+        CompletableFuture<String> key = new CompletableFuture<>();
+
+        synchronized (this) {
+            PendingPack pack = pending.get(windowPrefix);
+            if (pack == null) {
+                pack = new PendingPack(windowPrefix);
+                pending.put(windowPrefix, pack);
+                PendingPack scheduled = pack;
+                flusher.schedule(() -> flushIfPending(scheduled),
+                        settings.getMaxDelay().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            pack.add(file, key);
+            if (pack.bytes >= settings.getMaxBytes()) {
+                pending.remove(windowPrefix);
+                full = pack;
+            }
+        }
+
+        // a full pack is written by the caller that filled it
+        if (full != null) {
+            write(full);
+        }
+        return key;
+    }
+
+    private void flushIfPending(PendingPack pack) {
+        synchronized (this) {
+            if (!pending.remove(pack.windowPrefix, pack)) return; // already flushed for size
+        }
+        storageIoExecutor.submit(() -> {
+            write(pack);
+            return null;
+        });
+    }
+
+    private void write(PendingPack pack) {
+        String packKey = pack.windowPrefix + System.currentTimeMillis() + "-"
+                + UUID.randomUUID().toString().substring(0, 8) + PACK_SUFFIX;
+        try {
+            // the pack size is known from its index, so the pack is written once into an off-heap buffer
+            FileProto.PackIndex index = protobufService.packIndex(pack.files);
+            int size = protobufService.packSize(index);
+            ByteBuffer body = bufferPool.acquireDirect(size);
+            try {
+                protobufService.writePack(index, pack.files, body);
+                body.flip();
+                storageMetrics.record("put", packKey, () -> storageBackend.put(packKey, body, "application/x-protobuf"));
+            } finally {
+                bufferPool.releaseDirect(body);
+            }
+            storageMetrics.bytesOut("put", packKey, size);
+
+            for (int i = 0; i < pack.files.size(); i++) {
+                pack.keys.get(i).complete(packKey + ENTRY_SEPARATOR + pack.files.get(i).getFileName());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write delta pack {}", packKey, e);
+            pack.keys.forEach(k -> k.completeExceptionally(e));
+        }
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        List<PendingPack> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        remaining.forEach(this::write);
+        flusher.shutdown();
+    }
+
+    private static final class PendingPack {
+        private final String windowPrefix;
+        private final List<FileProto.FileData> files = new ArrayList<>();
+        private final List<CompletableFuture<String>> keys = new ArrayList<>();
+        private long bytes;
+
+        private PendingPack(String windowPrefix) {
+            this.windowPrefix = windowPrefix;
+        }
+
+        private void add(FileProto.FileData file, CompletableFuture<String> key) {
+            files.add(file);
+            keys.add(key);
+            bytes += file.getSerializedSize();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Stores new versions of large delta files as rsync-style binary patches.
+// A patch always refers to a full copy by key and SHA-256, so any reader can rebuild it: from the
+// version it already holds when the hash matches, otherwise with one GET of the base.
+// Bases are the full copies this instance uploaded recently; without one the file is stored whole.
+// The first patch against a base stores it under _meta/patch-bases/{sha256}: a key named after its
+// content that no upload can overwrite and /files/delete refuses, so a patch never loses its base.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DeltaPatcher {
+
+    // patched versions get their own key so presigned URLs never hand a patch to a client
+    public static final String PATCH_SUFFIX = ".patch";
+    public static final String BASE_PREFIX = MetaKeys.ROOT + "patch-bases/";
+
+    private final StorageBackend storageBackend;
+    private final ProtobufService protobufService;
+    private final StorageMetrics storageMetrics;
+    private final StorageProperties storageProperties;
+
+    // file name -> latest full copy, least recently used first
+    private final LinkedHashMap<String, Base> bases = new LinkedHashMap<>(16, 0.75f, true);
+    private long baseBytes;
+
+    // stored: whether the immutable copy under BASE_PREFIX has been written
+    private record Base(byte[] content, byte[] sha256, AtomicBoolean stored) {
+    }
+
+    public boolean isEligible(long size) {
+        StorageProperties.DeltaPatching patching = storageProperties.getDeltaPatching();
+        return patching.isEnabled() && size >= patching.getMinFileBytes();
+    }
+
+    // The patch against the last full copy of the same file name, or the file itself
+    // when there is no base or the patch would not be smaller
+    public FileProto.FileData encode(FileProto.FileData file) {
+        Base base;
+        synchronized (this) {
+            base = bases.get(file.getFileName());
+        }
+        if (base == null) return file;
+
+        byte[] target = file.getContent().toByteArray();
+        String baseKey = baseKey(base.sha256());
+        FileProto.FilePatch.Builder patch = FileProto.FilePatch.newBuilder()
+                .setBaseKey(baseKey)
+                .setBaseSha256(ByteString.copyFrom(base.sha256()))
+                .setTargetLength(target.length)
+                .addAllOps(diff(base.content(), target, storageProperties.getDeltaPatching().getBlockSize()));
+
+        FileProto.FileData patched = FileProto.FileData.newBuilder()
+                .setFileName(file.getFileName())
+                .setPatch(patch)
+                .setUploadSequence(file.getUploadSequence())
+                .build();
+        if (patched.getSerializedSize() >= file.getSerializedSize()) return file;
+
+        // before the patch is stored, so a reader never sees a patch without its base
+        if (!base.stored().get()) {
+            storeBase(baseKey, file.getFileName(), base.content());
+            base.stored().set(true);
+        }
+        return patched;
+    }
+
+    // Remembers the full copy of file just uploaded, later versions are patched against it
+    public synchronized void rememberBase(FileProto.FileData file) {
+        byte[] content = file.getContent().toByteArray();
+        Base previous = bases.put(file.getFileName(), new Base(content, sha256(content), new AtomicBoolean()));
+        baseBytes += content.length - (previous != null ? previous.content().length : 0);
+
+        long limit = storageProperties.getDeltaPatching().getBaseCacheBytes();
+        Iterator<Base> oldest = bases.values().iterator();
+        while (baseBytes > limit && oldest.hasNext()) {
+            baseBytes -= oldest.next().content().length;
+            oldest.remove();
+        }
+    }
+
+    // Applies one batch of deltas onto state in order, rebuilding patched files.
+    // A patch whose base cannot be found leaves the previous version in place.
+    public void applyAll(Map<String, FileProto.FileData> state, Map<String, FileProto.FileData> deltas) {
+        for (Map.Entry<String, FileProto.FileData> entry : deltas.entrySet()) {
+            try {
+                state.put(entry.getKey(), resolve(entry.getValue(), state.get(entry.getKey())));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to apply patch for {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    // Full version of file; current is the version the caller already holds, may be null
+    public FileProto.FileData resolve(FileProto.FileData file, FileProto.FileData current) throws IOException {
+        if (!file.hasPatch()) return file;
+
+        FileProto.FilePatch patch = file.getPatch();
+        byte[] expected = patch.getBaseSha256().toByteArray();
+
+        byte[] base = current != null && !current.hasPatch() ? current.getContent().toByteArray() : null;
+        if (base == null || !MessageDigest.isEqual(sha256(base), expected)) {
+            base = readBase(patch.getBaseKey());
+            if (!MessageDigest.isEqual(sha256(base), expected)) {
+                throw new IOException("Patch base changed since the patch was written: " + patch.getBaseKey());
+            }
+        }
+
+        return FileProto.FileData.newBuilder()
+                .setFileName(file.getFileName())
+                .setContent(apply(base, patch))
+                .setUploadSequence(file.getUploadSequence())
+                .build();
+    }
+
+    static String baseKey(byte[] sha256) {
+        return BASE_PREFIX + HexFormat.of().formatHex(sha256);
+    }
+
+    // Same content always lands on the same key, so concurrent or repeated writes are harmless
+    private void storeBase(String key, String fileName, byte[] content) {
+        byte[] body = FileProto.FileData.newBuilder()
+                .setFileName(fileName)
+                .setContent(ByteString.copyFrom(content))
+                .build()
+                .toByteArray();
+        storageMetrics.record("put", key, () -> storageBackend.put(key, body, "application/x-protobuf"));
+        storageMetrics.bytesOut("put", key, body.length);
+    }
+
+    private byte[] readBase(String key) throws IOException {
+        byte[] body = storageMetrics.recordIo("get", key, () -> {
+            try (InputStream in = storageBackend.get(key)) {
+                return in.readAllBytes();
+            }
+        });
+        storageMetrics.bytesIn("get", key, body.length);
+        return protobufService.deserializeFile(body).getContent().toByteArray();
+    }
+
+    static ByteString apply(byte[] base, FileProto.FilePatch patch) throws IOException {
+        ByteString.Output out = ByteString.newOutput((int) patch.getTargetLength());
+        for (FileProto.PatchOp op : patch.getOpsList()) {
+            if (!op.getLiteral().isEmpty()) {
+                op.getLiteral().writeTo(out);
+            } else {
+                out.write(base, (int) op.getCopyOffset(), (int) op.getCopyLength());
+            }
+        }
+        if (out.size() != patch.getTargetLength()) {
+            throw new IOException("Patch produced " + out.size() + " bytes, expected " + patch.getTargetLength());
+        }
+        return out.toByteString();
+    }
+
+    // rsync-style diff: base is indexed by a weak rolling checksum of each block, the target is scanned
+    // byte by byte and every checksum hit that really matches becomes a copy, extended as far as the bytes agree
+    static List<FileProto.PatchOp> diff(byte[] base, byte[] target, int blockSize) {
+        List<FileProto.PatchOp> ops = new ArrayList<>();
+        if (base.length < blockSize || target.length < blockSize) {
+            addLiteral(ops, target, 0, target.length);
+            return ops;
+        }
+
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int block = 0; (block + 1) * blockSize <= base.length; block++) {
+            blocks.putIfAbsent(checksum(base, block * blockSize, blockSize), block);
+        }
+
+        int literalStart = 0;
+        int i = 0;
+        int a = 0;
+        int b = 0;
+        for (int k = 0; k < blockSize; k++) {
+            a += target[k] & 0xff;
+            b += (blockSize - k) * (target[k] & 0xff);
+        }
+
+        while (i + blockSize <= target.length) {
+            Integer block = blocks.get(((b & 0xffff) << 16) | (a & 0xffff));
+            if (block != null) {
+                int baseStart = block * blockSize;
+                if (Arrays.equals(base, baseStart, baseStart + blockSize, target, i, i + blockSize)) {
+                    int length = blockSize;
+                    while (baseStart + length < base.length && i + length < target.length
+                            && base[baseStart + length] == target[i + length]) {
+                        length++;
+                    }
+                    addLiteral(ops, target, literalStart, i);
+                    addCopy(ops, baseStart, length);
+
+                    i += length;
+                    literalStart = i;
+                    if (i + blockSize <= target.length) {
+                        a = 0;
+                        b = 0;
+                        for (int k = 0; k < blockSize; k++) {
+                            a += target[i + k] & 0xff;
+                            b += (blockSize - k) * (target[i + k] & 0xff);
+                        }
+                    }
+                    continue;
+                }
+            }
+
+            // roll the window one byte forward
+            if (i + blockSize < target.length) {
+                int out = target[i] & 0xff;
+                int in = target[i + blockSize] & 0xff;
+                a += in - out;
+                b += a - blockSize * out;
+            }
+            i++;
+        }
+
+        addLiteral(ops, target, literalStart, target.length);
+        return ops;
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int k = 0; k < length; k++) {
+            a += data[offset + k] & 0xff;
+            b += (length - k) * (data[offset + k] & 0xff);
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static void addLiteral(List<FileProto.PatchOp> ops, byte[] target, int from, int to) {
+        if (from >= to) return;
+        ops.add(FileProto.PatchOp.newBuilder()
+                .setLiteral(ByteString.copyFrom(target, from, to - from))
+                .build());
+    }
+
+    // adjacent copies from consecutive base ranges collapse into one op
+    private static void addCopy(List<FileProto.PatchOp> ops, long offset, long length) {
+        if (!ops.isEmpty()) {
+            FileProto.PatchOp last = ops.get(ops.size() - 1);
+            if (last.getLiteral().isEmpty() && last.getCopyOffset() + last.getCopyLength() == offset) {
+                ops.set(ops.size() - 1, last.toBuilder().setCopyLength(last.getCopyLength() + length).build());
+                return;
+            }
+        }
+        ops.add(FileProto.PatchOp.newBuilder()
+                .setCopyOffset(offset)
+                .setCopyLength(length)
+                .build());
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
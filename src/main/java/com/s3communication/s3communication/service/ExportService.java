@@ -0,0 +1,158 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ExportJob;
+import com.s3communication.s3communication.config.ExportProperties;
+import com.s3communication.s3communication.enums.ArchiveFormat;
+import com.s3communication.s3communication.enums.ExportState;
+import com.s3communication.s3communication.enums.ExportType;
+import com.s3communication.s3communication.exceptions.ExportJobNotFoundException;
+import com.s3communication.s3communication.exceptions.ExportQueueFullException;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs large zip and replay exports in the background instead of on an HTTP thread.
+// Each archive is streamed into the bucket (multipart on S3) and the job ends with a presigned URL to it.
+// Jobs run on a small fixed pool with a bounded queue; status is kept in memory on the node that ran the job.
+@Service
+@Slf4j
+public class ExportService {
+
+    private final StorageService storageService;
+    private final StorageBackend storageBackend;
+    private final ExportProperties exportProperties;
+    private final ThreadPoolExecutor workers;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    public ExportService(StorageService storageService, StorageBackend storageBackend, ExportProperties exportProperties) {
+        this.storageService = storageService;
+        this.storageBackend = storageBackend;
+        this.exportProperties = exportProperties;
+        this.workers = new ThreadPoolExecutor(exportProperties.getWorkers(), exportProperties.getWorkers(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(exportProperties.getQueueCapacity()),
+                Thread.ofPlatform().name("export-", 0).daemon().factory());
+    }
+
+    public ExportJob submitPrefixZip(String prefix) {
+        return submit(ExportType.PREFIX_ZIP, prefix, ArchiveFormat.ZIP,
+                out -> storageService.writePrefixZip(prefix, out));
+    }
+
+    // state at date hour:minute, like /files/replay-archive
+    public ExportJob submitReplay(LocalDate date, int hour, int minute, ArchiveFormat format, List<String> files) {
+        LocalDateTime instant = date.atTime(hour, (minute / 15) * 15);
+        String description = instant + (files == null || files.isEmpty() ? "" : " " + files);
+        return submit(ExportType.REPLAY, description, format, out -> {
+            // only locations are held, contents stream through pooled buffers as entries are written
+            Map<String, String> sources = storageService.locateReplay(date, hour, minute, files);
+            storageService.writeArchive(sources, format, instant, out);
+        });
+    }
+
+    public ExportJob getJob(String id) {
+        ExportJob job = jobs.get(id);
+        if (job == null) throw new ExportJobNotFoundException(id);
+        synchronized (job) {
+            return job.copy();
+        }
+    }
+
+    private ExportJob submit(ExportType type, String description, ArchiveFormat format, StorageBackend.ContentWriter writer) {
+        forgetExpiredJobs();
+
+        String id = UUID.randomUUID().toString();
+        String objectKey = exportProperties.getKeyPrefix() + id + "." + format.extension();
+        ExportJob job = new ExportJob(id, type, description, ExportState.QUEUED, objectKey, 0, null,
+                Instant.now(), null, null, null);
+        jobs.put(id, job);
+        try {
+            workers.execute(() -> run(job, format, writer));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            throw new ExportQueueFullException("Export queue is full (" + exportProperties.getQueueCapacity() + " waiting), retry later");
+        }
+        return getJob(id);
+    }
+
+    private void run(ExportJob job, ArchiveFormat format, StorageBackend.ContentWriter writer) {
+        synchronized (job) {
+            job.setState(ExportState.RUNNING);
+            job.setStartedAt(Instant.now());
+        }
+        AtomicLong written = new AtomicLong();
+        try {
+            storageBackend.upload(job.getObjectKey(), contentType(format), out -> writer.writeTo(counting(out, written)));
+            String url = storageBackend.presignGet(job.getObjectKey(), exportProperties.getUrlExpiry());
+            synchronized (job) {
+                job.setState(ExportState.COMPLETED);
+                job.setBytesWritten(written.get());
+                job.setDownloadUrl(url);
+                job.setFinishedAt(Instant.now());
+            }
+            log.info("Export {} ({} {}) wrote {} bytes to {}", job.getId(), job.getType(), job.getDescription(),
+                    written.get(), job.getObjectKey());
+        } catch (Throwable e) {
+            // any failure, an Error included, ends the job; otherwise it would report RUNNING forever
+            log.error("Export {} ({} {}) failed", job.getId(), job.getType(), job.getDescription(), e);
+            synchronized (job) {
+                job.setState(ExportState.FAILED);
+                job.setBytesWritten(written.get());
+                job.setFinishedAt(Instant.now());
+                job.setError(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    private void forgetExpiredJobs() {
+        Instant cutoff = Instant.now().minus(exportProperties.getRetention());
+        jobs.values().removeIf(job -> {
+            synchronized (job) {
+                return job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff);
+            }
+        });
+    }
+
+    private static String contentType(ArchiveFormat format) {
+        return switch (format) {
+            case ZIP -> "application/zip";
+            case TAR -> "application/x-tar";
+        };
+    }
+
+    // bytes pass straight through, only their count is kept for the job status
+    private static OutputStream counting(OutputStream out, AtomicLong written) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written.addAndGet(len);
+            }
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.s3communication.s3communication.service;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+// File names a replay consumer asked for: exact names and globs (* any run of characters, ? one character).
+// A pattern matches a file name or its last path segment, since object keys only keep the last segment.
+public class FileNameFilter {
+
+    private final List<String> patterns;
+    private final List<Pattern> regexes;
+    private final Set<String> exactNames = new HashSet<>();
+
+    private FileNameFilter(List<String> patterns) {
+        this.patterns = List.copyOf(patterns);
+        this.regexes = patterns.stream().map(FileNameFilter::globToRegex).toList();
+        for (String pattern : patterns) {
+            if (!isGlob(pattern)) exactNames.add(pattern);
+        }
+    }
+
+    // null when there is nothing to filter on
+    public static FileNameFilter of(List<String> patterns) {
+        if (patterns == null) return null;
+        List<String> cleaned = patterns.stream()
+                .filter(Objects::nonNull)
+                .map(String::trim)
+                .filter(p -> !p.isEmpty())
+                .toList();
+        return cleaned.isEmpty() ? null : new FileNameFilter(cleaned);
+    }
+
+    public boolean matches(String fileName) {
+        String lastSegment = lastSegment(fileName);
+        return regexes.stream().anyMatch(r -> r.matcher(fileName).matches() || r.matcher(lastSegment).matches());
+    }
+
+    // Whether an object stored under this last key segment may hold a matching file
+    public boolean mayMatchStoredName(String storedName) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).contains("/")) return true; // keys drop directories, cannot tell
+            if (regexes.get(i).matcher(storedName).matches()) return true;
+        }
+        return false;
+    }
+
+    // Bloom filters can only answer for exact names
+    public boolean hasGlobs() {
+        return exactNames.size() < patterns.size();
+    }
+
+    public Set<String> exactNames() {
+        return Collections.unmodifiableSet(exactNames);
+    }
+
+    public List<String> patterns() {
+        return patterns;
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0;
+    }
+
+    private static String lastSegment(String name) {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    private static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (!literal.isEmpty()) regex.append(Pattern.quote(literal.toString()));
+        return Pattern.compile(regex.toString());
+    }
+}
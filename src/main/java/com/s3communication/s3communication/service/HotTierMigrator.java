@@ -0,0 +1,26 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+// Drives TieredStorageBackend migration; does nothing for the other backends
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HotTierMigrator {
+
+    private final StorageBackend storageBackend;
+
+    @Scheduled(fixedDelayString = "${storage.hot-tier.migrate-interval:PT1M}")
+    public void migrateHotTier() {
+        if (!(storageBackend instanceof TieredStorageBackend tiered)) return;
+
+        int spilled = tiered.migrate();
+        if (spilled > 0) {
+            log.info("Spilled {} objects from the hot tier to S3", spilled);
+        }
+    }
+}
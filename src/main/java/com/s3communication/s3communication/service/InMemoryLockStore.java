@@ -0,0 +1,32 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.Lease;
+import com.s3communication.s3communication.interfaces.LockStore;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// LockStore for a single process: leases only exclude callers sharing this instance
+public class InMemoryLockStore implements LockStore {
+
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<Lease> tryAcquire(String name, String owner, Duration ttl) {
+        Instant now = Instant.now();
+        Lease candidate = new Lease(name, owner, now.plus(ttl), UUID.randomUUID().toString());
+
+        Lease held = leases.compute(name, (k, current) ->
+                current == null || !current.getExpiresAt().isAfter(now) ? candidate : current);
+
+        return held == candidate ? Optional.of(candidate) : Optional.empty();
+    }
+
+    @Override
+    public void release(Lease lease) {
+        leases.remove(lease.getName(), lease);
+    }
+}
@@ -0,0 +1,41 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.protobuf.FileProto;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The latest version of each file name among files read from a listing, added in listing order.
+// Windows sort in time order, but keys inside one window do not: name.patch sorts after name and
+// packs sort by their flush time. So within a window the upload sequence decides, and a later
+// window always wins. Files stored before the sequence existed carry 0 and keep listing order.
+final class LatestVersions {
+
+    private final Map<String, FileProto.FileData> files = new HashMap<>();
+    // file name -> folder of the object its current version came from
+    private final Map<String, String> windows = new HashMap<>();
+    // file name -> key its current version can be read from, pack!/name for pack entries
+    private final Map<String, String> sources = new HashMap<>();
+
+    // key is the object file was read from, the pack itself for pack entries
+    void add(String key, FileProto.FileData file) {
+        String window = key.substring(0, key.lastIndexOf('/') + 1);
+        FileProto.FileData current = files.get(file.getFileName());
+        if (current != null && window.equals(windows.get(file.getFileName()))
+                && file.getUploadSequence() < current.getUploadSequence()) {
+            return;
+        }
+        files.put(file.getFileName(), file);
+        windows.put(file.getFileName(), window);
+        sources.put(file.getFileName(), key.endsWith(DeltaPacker.PACK_SUFFIX)
+                ? key + DeltaPacker.ENTRY_SEPARATOR + file.getFileName() : key);
+    }
+
+    Map<String, FileProto.FileData> files() {
+        return files;
+    }
+
+    Map<String, String> sources() {
+        return sources;
+    }
+}
@@ -0,0 +1,121 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.config.StorageProperties;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+// Prefix listings kept between requests. A prefix whose time window has closed keeps its listing for
+// closedTtl, so a backfill or delete on another node shows up within that; open windows, and closed ones
+// that were still empty, only for openTtl.
+// Writes made through this node invalidate every cached prefix of the written key straight away.
+// Each prefix has its own generation, so a write only affects reads whose prefix overlaps the written key.
+@Service
+public class ListingCache {
+
+    // folders remembered for generations; past this the oldest half is dropped
+    private static final int MAX_WRITTEN_FOLDERS = 4096;
+
+    private final StorageProperties.ListingCache settings;
+
+    // prefix -> listing, least recently used first; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // folder -> sequence of the latest invalidation in it; guarded by this
+    private final TreeMap<String, Long> writtenFolders = new TreeMap<>();
+    private long sequence;
+    // latest sequence dropped from writtenFolders: a prefix whose folders were dropped counts as written then
+    private long forgotten;
+
+    public ListingCache(StorageProperties storageProperties) {
+        this.settings = storageProperties.getListingCache();
+    }
+
+    public List<StoredObject> get(String prefix, Supplier<List<StoredObject>> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Entry cached = entries.get(prefix);
+            if (cached != null && cached.expiresAt().isAfter(Instant.now())) {
+                return cached.objects();
+            }
+            loadGeneration = generation(prefix);
+        }
+
+        List<StoredObject> objects = List.copyOf(loader.get());
+        if (settings.getMaxEntries() <= 0) return objects;
+
+        TimeWindow window = TimeWindow.of(prefix);
+        // a missing snapshot hour may still be built or backfilled, so empty listings never stay for long
+        Instant expiresAt = window != null && window.isClosed(settings.getClosedAfter()) && !objects.isEmpty()
+                ? Instant.now().plus(settings.getClosedTtl())
+                : Instant.now().plus(settings.getOpenTtl());
+
+        synchronized (this) {
+            // a write under prefix while it loaded may be missing from the listing, so it is not kept
+            if (generation(prefix) == loadGeneration) {
+                entries.put(prefix, new Entry(objects, expiresAt));
+                if (entries.size() > settings.getMaxEntries()) {
+                    entries.remove(entries.keySet().iterator().next());
+                }
+            }
+        }
+        return objects;
+    }
+
+    // Changes with every invalidation of a key that starts with keyOrPrefix or that keyOrPrefix starts with;
+    // a read of keyOrPrefix started under an older generation may have missed that write.
+    // Writes are tracked per folder, so a write to a sibling in the same folder changes it too.
+    public synchronized long generation(String keyOrPrefix) {
+        long latest = forgotten;
+        // folders holding keyOrPrefix
+        latest = Math.max(latest, writtenFolders.getOrDefault("", 0L));
+        for (int slash = keyOrPrefix.indexOf('/'); slash >= 0; slash = keyOrPrefix.indexOf('/', slash + 1)) {
+            latest = Math.max(latest, writtenFolders.getOrDefault(keyOrPrefix.substring(0, slash + 1), 0L));
+        }
+        // folders below it
+        for (long written : writtenFolders.subMap(keyOrPrefix, keyOrPrefix + Character.MAX_VALUE).values()) {
+            latest = Math.max(latest, written);
+        }
+        return latest;
+    }
+
+    // The latest generation of any of the prefixes, for reads that span several
+    public synchronized long generation(Collection<String> prefixes) {
+        long latest = forgotten;
+        for (String prefix : prefixes) {
+            latest = Math.max(latest, generation(prefix));
+        }
+        return latest;
+    }
+
+    // Drops the listings that contain keyOrPrefix and those below it
+    public synchronized void invalidate(String keyOrPrefix) {
+        writtenFolders.put(keyOrPrefix.substring(0, keyOrPrefix.lastIndexOf('/') + 1), ++sequence);
+        if (writtenFolders.size() > MAX_WRITTEN_FOLDERS) {
+            forgetOldestFolders();
+        }
+        entries.keySet().removeIf(prefix -> keyOrPrefix.startsWith(prefix) || prefix.startsWith(keyOrPrefix));
+    }
+
+    // Every generation moves once when this runs, which is rare since writes land in few, recent folders
+    private void forgetOldestFolders() {
+        // copied out, TreeMap entries may change under removal
+        List<Map.Entry<String, Long>> byAge = new ArrayList<>();
+        writtenFolders.forEach((folder, written) -> byAge.add(Map.entry(folder, written)));
+        byAge.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> folder : byAge.subList(0, byAge.size() / 2)) {
+            writtenFolders.remove(folder.getKey());
+            forgotten = Math.max(forgotten, folder.getValue());
+        }
+    }
+
+    private record Entry(List<StoredObject> objects, Instant expiresAt) {
+    }
+}
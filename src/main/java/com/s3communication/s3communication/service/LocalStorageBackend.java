@@ -0,0 +1,423 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.ObjectStream;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+// StorageBackend on the local filesystem: key "a/b/c" is the file {root}/a/b/c.
+// Writes go to a temp file and are renamed into place, so readers never see partial objects.
+// The MD5 of every write is taken while it is written and kept in an extended attribute of the file,
+// which makes the strong ETag; where the filesystem has no user attributes the ETag is a weak one.
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final String TEMP_PREFIX = ".tmp-";
+    // user.s3communication.md5 on Linux
+    private static final String MD5_ATTRIBUTE = "s3communication.md5";
+
+    private final Path root;
+
+    public LocalStorageBackend(Path root) {
+        try {
+            this.root = Files.createDirectories(root).toRealPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create storage root " + root, e);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) {
+        writeAtomically(key, tmp -> {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return md5(ByteBuffer.wrap(data));
+        });
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) {
+        writeAtomically(key, tmp -> {
+            MessageDigest md5 = md5();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), md5)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return md5.digest();
+        });
+    }
+
+    @Override
+    public void put(String key, ByteBuffer data, String contentType) {
+        writeAtomically(key, tmp -> {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = data.duplicate();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return md5(data.duplicate());
+        });
+    }
+
+    @Override
+    public void put(String key, InputStream data, long contentLength, String contentType) {
+        writeAtomically(key, tmp -> {
+            MessageDigest md5 = md5();
+            Files.copy(new DigestInputStream(data, md5), tmp, StandardCopyOption.REPLACE_EXISTING);
+            return md5.digest();
+        });
+    }
+
+    @Override
+    public void upload(String key, String contentType, ContentWriter writer) {
+        writeAtomically(key, tmp -> {
+            MessageDigest md5 = md5();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), md5)) {
+                writer.writeTo(out);
+            }
+            return md5.digest();
+        });
+    }
+
+    @Override
+    public InputStream get(String key) {
+        try {
+            return Files.newInputStream(resolve(key));
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+    }
+
+    @Override
+    public ObjectStream getWithLength(String key) {
+        try {
+            FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+            // the size of the open file, a rename replacing it afterwards does not change what is read
+            return new ObjectStream(Channels.newInputStream(channel), channel.size());
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+    }
+
+    @Override
+    public StoredObject head(String key) {
+        if (!Files.isRegularFile(resolve(key))) {
+            throw new ObjectNotFoundException(key, null);
+        }
+        return describe(key);
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long endInclusive) {
+        try {
+            FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+            channel.position(start);
+            long length = Math.max(0, Math.min(endInclusive, channel.size() - 1) - start + 1);
+            return new RangeInputStream(Channels.newInputStream(channel), length);
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + key, e);
+        }
+    }
+
+    // FileChannel.transferTo lets the kernel move the bytes (sendfile) when target is a socket or file
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+            long end = Math.min(channel.size(), position + count);
+            long transferred = 0;
+            while (position + transferred < end) {
+                long n = channel.transferTo(position + transferred, end - position - transferred, target);
+                if (n <= 0) break;
+                transferred += n;
+            }
+            return transferred;
+        } catch (NoSuchFileException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    // Walks from the deepest directory the prefix names, visiting entries in key order and skipping
+    // directories that cannot hold a key under the prefix or after the token, so a page costs
+    // roughly the directories on its path plus its own keys rather than a walk of the whole subtree
+    @Override
+    public ObjectListing list(String prefix, String continuationToken, int maxKeys) {
+        int lastSlash = prefix.lastIndexOf('/');
+        String startKey = prefix.substring(0, lastSlash + 1);
+        Path start = startKey.isEmpty() ? root : resolve(startKey);
+        if (!Files.isDirectory(start)) {
+            return new ObjectListing(List.of(), null);
+        }
+
+        List<String> keys = new ArrayList<>();
+        try {
+            collectKeys(start, startKey, prefix, continuationToken, maxKeys + 1, keys);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list " + prefix, e);
+        }
+
+        List<StoredObject> page = keys.stream().limit(maxKeys).map(this::describe).toList();
+        return new ObjectListing(page, keys.size() > maxKeys ? page.get(maxKeys - 1).getKey() : null);
+    }
+
+    private record ListEntry(Path path, String key, boolean directory) {
+    }
+
+    private void collectKeys(Path dir, String dirKey, String prefix, String after, int limit,
+                             List<String> keys) throws IOException {
+        List<ListEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                if (name.startsWith(TEMP_PREFIX)) continue;
+                // every key below a directory starts with "name/", which is where it sorts among its siblings
+                boolean directory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                if (directory || Files.isRegularFile(child)) {
+                    entries.add(new ListEntry(child, dirKey + name + (directory ? "/" : ""), directory));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return; // removed while listing
+        }
+        entries.sort(Comparator.comparing(ListEntry::key));
+
+        for (ListEntry entry : entries) {
+            if (keys.size() >= limit) return;
+            String key = entry.key();
+            if (!entry.directory()) {
+                if (key.startsWith(prefix) && (after == null || key.compareTo(after) > 0)) {
+                    keys.add(key);
+                }
+            } else if ((key.startsWith(prefix) || prefix.startsWith(key))
+                    && (after == null || key.compareTo(after) > 0 || after.startsWith(key))) {
+                collectKeys(entry.path(), key, prefix, after, limit, keys);
+            }
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        try {
+            Files.deleteIfExists(resolve(key));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + key, e);
+        }
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) {
+        Path source = resolve(sourceKey);
+        writeAtomically(targetKey, tmp -> {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long copied = 0;
+                while (copied < size) {
+                    copied += in.transferTo(copied, size - copied, out);
+                }
+            } catch (NoSuchFileException e) {
+                throw new ObjectNotFoundException(sourceKey, e);
+            }
+            // the same bytes, so the same digest; a source written before digests were kept has none
+            String md5 = storedMd5(source);
+            return md5 == null ? null : HexFormat.of().parseHex(md5);
+        });
+    }
+
+    // Deletes key only while its file still has the given last modified time. The file is renamed
+    // aside first, which is atomic against a concurrent put: if a newer version had already landed
+    // it is linked back, unless yet another put has taken its place in the meantime.
+    public boolean deleteIfUnchanged(String key, Instant lastModified) {
+        Path target = resolve(key);
+        Path claimed = target.resolveSibling(TEMP_PREFIX + "evict-" + UUID.randomUUID());
+        try {
+            Files.move(target, claimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + key, e);
+        }
+
+        try {
+            if (Files.getLastModifiedTime(claimed).toInstant().equals(lastModified)) {
+                return true;
+            }
+            try {
+                Files.createLink(target, claimed);
+            } catch (FileAlreadyExistsException e) {
+                // an even newer put replaced it while it was aside
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to restore " + key + " after a skipped delete", e);
+        } finally {
+            try {
+                Files.deleteIfExists(claimed);
+            } catch (IOException ignored) {
+                // best effort cleanup, listings skip temp files
+            }
+        }
+    }
+
+    public boolean exists(String key) {
+        return Files.isRegularFile(resolve(key));
+    }
+
+    // Local objects are served by this application, so the "presigned" URL is the download endpoint
+    @Override
+    public String presignGet(String key, Duration expiry) {
+        return "/files/download/" + key;
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Key escapes storage root: " + key);
+        }
+        return path;
+    }
+
+    private StoredObject describe(String key) {
+        try {
+            Path path = resolve(key);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            String md5 = storedMd5(path);
+            // mtime and size can repeat for two writes within the mtime granularity, so they only make a weak ETag
+            String eTag = md5 != null ? "\"" + md5 + "\""
+                    : "W/\"" + Long.toHexString(attributes.lastModifiedTime().toMillis()) + "-"
+                    + Long.toHexString(attributes.size()) + "\"";
+            return new StoredObject(key, attributes.size(), attributes.lastModifiedTime().toInstant(), eTag);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to stat " + key, e);
+        }
+    }
+
+    // null when the file has none, or the filesystem keeps no user attributes
+    private static String storedMd5(Path path) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (view == null) return null;
+        try {
+            ByteBuffer value = ByteBuffer.allocate(view.size(MD5_ATTRIBUTE));
+            view.read(MD5_ATTRIBUTE, value);
+            return new String(value.array(), 0, value.position(), StandardCharsets.US_ASCII);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static void storeMd5(Path path, byte[] md5) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (view == null) return;
+        try {
+            view.write(MD5_ATTRIBUTE, ByteBuffer.wrap(HexFormat.of().formatHex(md5).getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException | UnsupportedOperationException e) {
+            // no user attributes here, the file gets a weak ETag
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] md5(ByteBuffer data) {
+        MessageDigest md5 = md5();
+        md5.update(data);
+        return md5.digest();
+    }
+
+    // Writes tmp and returns the MD5 of what it wrote, or null when that is not known
+    @FunctionalInterface
+    private interface TempWriter {
+        byte[] write(Path tmp) throws IOException;
+    }
+
+    // The digest is set on tmp before the rename, so a file is never visible without the ETag of its content
+    private void writeAtomically(String key, TempWriter writer) {
+        Path target = resolve(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(target.getParent());
+            tmp = Files.createTempFile(target.getParent(), TEMP_PREFIX, null);
+            byte[] md5 = writer.write(tmp);
+            if (md5 != null) {
+                storeMd5(tmp, md5);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + key, e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // best effort cleanup of the temp file
+                }
+            }
+        }
+    }
+
+    // Stops after length bytes so a ranged read never runs past endInclusive
+    private static final class RangeInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+    }
+}
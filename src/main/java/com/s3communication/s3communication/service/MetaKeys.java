@@ -0,0 +1,23 @@
+package com.s3communication.s3communication.service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+// Objects the services keep for themselves (snapshot markers, leases, checkpoints, name indexes)
+// live under _meta/ rather than under {date}/, so no user-facing prefix listing or zip ever sees them
+public final class MetaKeys {
+
+    public static final String ROOT = "_meta/";
+
+    private MetaKeys() {
+    }
+
+    // _meta/{yyyy/MM/dd}/
+    public static String datePrefix(LocalDate date) {
+        return ROOT + date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) + "/";
+    }
+
+    public static boolean isInternal(String key) {
+        return key.startsWith(ROOT);
+    }
+}
@@ -0,0 +1,174 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Bloom filters of the file names under each delta window, snapshot and checkpoint, kept in
+// _meta/{date}/name-index/... with one filter per shard. The snapshot builder writes them; replay reads them
+// to skip whole windows and checkpoint packs that cannot hold a requested name.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class NameIndex {
+
+    public static final String BLOOM_SUFFIX = ".bloom";
+
+    // ~1% false positives
+    private static final int BITS_PER_NAME = 10;
+    private static final int HASH_COUNT = 7;
+    private static final Pattern SHARD_FILE = Pattern.compile("shard-(\\d+)-of-(\\d+)\\.bloom");
+
+    private final StorageBackend storageBackend;
+    private final StorageMetrics storageMetrics;
+
+    public static String deltaWindowPrefix(LocalDate date, int hour, int minute) {
+        return MetaKeys.datePrefix(date) + String.format("name-index/delta/%02d/%02d/", hour, minute);
+    }
+
+    public static String snapshotPrefix(LocalDate date, int hour) {
+        return MetaKeys.datePrefix(date) + String.format("name-index/snapshots/%02d/", hour);
+    }
+
+    public static String hourlyCheckpointPrefix(LocalDate date, int hour) {
+        return MetaKeys.datePrefix(date) + String.format("name-index/checkpoints/hourly/%02d/", hour);
+    }
+
+    public static String dailyCheckpointPrefix(LocalDate date) {
+        return MetaKeys.datePrefix(date) + "name-index/checkpoints/daily/";
+    }
+
+    public void write(String indexPrefix, int shard, int shards, Collection<String> names) {
+        // filters may name a file by its last path segment, so both forms go in
+        Set<String> indexed = new HashSet<>();
+        for (String name : names) {
+            indexed.add(name);
+            indexed.add(name.substring(name.lastIndexOf('/') + 1));
+        }
+
+        long bitCount = Math.max(64, (long) indexed.size() * BITS_PER_NAME);
+        long[] words = new long[(int) ((bitCount + 63) / 64)];
+        for (String name : indexed) {
+            for (long bit : bitPositions(name, bitCount)) {
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        byte[] bits = new byte[words.length * 8];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+        }
+        byte[] body = FileProto.NameBloom.newBuilder()
+                .setHashCount(HASH_COUNT)
+                .setBitCount(bitCount)
+                .setBits(ByteString.copyFrom(bits))
+                .build()
+                .toByteArray();
+
+        String key = String.format("%sshard-%d-of-%d%s", indexPrefix, shard, shards, BLOOM_SUFFIX);
+        storageMetrics.record("put", key, () -> storageBackend.put(key, body, "application/x-protobuf"));
+        storageMetrics.bytesOut("put", key, body.length);
+    }
+
+    // False only when the indexes prove none of the filter's names are there.
+    // Globs and missing or partial indexes answer true, the caller then lists and filters keys.
+    // An hour rebuilt with a different shard count can leave the old layout next to the new one, and
+    // either may be the stale one, so a name is only ruled out when every layout rules it out,
+    // and not at all while some layout is still partial (a rebuild in progress).
+    public boolean mightContain(String indexPrefix, FileNameFilter filter) {
+        if (filter.hasGlobs()) return true;
+
+        Map<Integer, List<String>> layouts = layouts(indexPrefix);
+        if (layouts.isEmpty()) return true;
+        for (Map.Entry<Integer, List<String>> layout : layouts.entrySet()) {
+            if (layout.getValue().size() != layout.getKey()) return true;
+        }
+
+        try {
+            for (List<String> keys : layouts.values()) {
+                for (String key : keys) {
+                    FileProto.NameBloom bloom = readBloom(key);
+                    for (String name : filter.exactNames()) {
+                        if (mightContain(bloom, name)) return true;
+                    }
+                }
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unreadable name index under {}, not skipping", indexPrefix, e);
+            return true;
+        }
+    }
+
+    // Removes the filters other shard counts left under indexPrefix
+    public void deleteOtherLayouts(String indexPrefix, int shards) {
+        layouts(indexPrefix).forEach((layoutShards, keys) -> {
+            if (layoutShards != shards) {
+                keys.forEach(key -> storageMetrics.record("delete", key, () -> storageBackend.delete(key)));
+            }
+        });
+    }
+
+    // shard count -> keys of the filters written for that layout
+    private Map<Integer, List<String>> layouts(String indexPrefix) {
+        Map<Integer, List<String>> layouts = new HashMap<>();
+        List<StoredObject> objects = storageMetrics.record("list", indexPrefix, () -> storageBackend.listAll(indexPrefix));
+        for (StoredObject object : objects) {
+            Matcher matcher = SHARD_FILE.matcher(object.getKey().substring(indexPrefix.length()));
+            if (matcher.matches()) {
+                layouts.computeIfAbsent(Integer.parseInt(matcher.group(2)), n -> new ArrayList<>()).add(object.getKey());
+            }
+        }
+        return layouts;
+    }
+
+    private FileProto.NameBloom readBloom(String key) throws IOException {
+        byte[] body = storageMetrics.recordIo("get", key, () -> {
+            try (InputStream in = storageBackend.get(key)) {
+                return in.readAllBytes();
+            }
+        });
+        storageMetrics.bytesIn("get", key, body.length);
+        return FileProto.NameBloom.parseFrom(body);
+    }
+
+    private static boolean mightContain(FileProto.NameBloom bloom, String name) {
+        ByteString bits = bloom.getBits();
+        for (long bit : bitPositions(name, bloom.getBitCount(), bloom.getHashCount())) {
+            if ((bits.byteAt((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long[] bitPositions(String name, long bitCount) {
+        return bitPositions(name, bitCount, HASH_COUNT);
+    }
+
+    // double hashing: String.hashCode and FNV-1a over the UTF-8 bytes
+    private static long[] bitPositions(String name, long bitCount, int hashCount) {
+        int h1 = name.hashCode();
+        int h2 = 0x811c9dc5;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h2 = (h2 ^ (b & 0xff)) * 0x01000193;
+        }
+        h2 |= 1;
+
+        long[] positions = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            positions[i] = Math.floorMod((long) h1 + (long) i * h2, bitCount);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,85 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.CodedInputStream;
+import com.s3communication.s3communication.config.PlaybackProperties;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// On startup, uploads segments that a crashed writer left in the spool directory
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PlaybackSegmentRecovery implements ApplicationRunner {
+
+    private final StorageBackend storageBackend;
+    private final PlaybackProperties playbackProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!playbackProperties.isRecoverOnStartup()) return;
+
+        Path spoolDir = Path.of(playbackProperties.getSpoolDir());
+        if (!Files.isDirectory(spoolDir)) return;
+
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(spoolDir, "*.rec")) {
+            for (Path segment : segments) {
+                recoverSegment(segment);
+            }
+        } catch (IOException e) {
+            log.error("Failed to scan playback spool directory {}", spoolDir, e);
+        }
+    }
+
+    private void recoverSegment(Path segment) {
+        try {
+            long validLength = truncateToLastCompleteChunk(segment);
+            if (validLength > 0) {
+                String objectKey = "recordings/" + segment.getFileName();
+                storageBackend.put(objectKey, segment, "application/octet-stream");
+                log.info("Recovered playback segment {} ({} bytes)", objectKey, validLength);
+            }
+            Files.deleteIfExists(segment);
+        } catch (Exception e) {
+            log.warn("Failed to recover playback segment {}, leaving it for the next startup", segment, e);
+        }
+    }
+
+    // A crash can leave a half-written chunk at the tail; walk the length-delimited
+    // records and cut the file after the last one that is complete
+    private long truncateToLastCompleteChunk(Path segment) throws IOException {
+        long fileSize = Files.size(segment);
+        long validLength = 0;
+
+        try (InputStream in = Files.newInputStream(segment)) {
+            CodedInputStream input = CodedInputStream.newInstance(in);
+            input.setSizeLimit(Integer.MAX_VALUE);
+            while (!input.isAtEnd()) {
+                int length = input.readRawVarint32();
+                if (length < 0 || input.getTotalBytesRead() + (long) length > fileSize) break;
+                input.skipRawBytes(length);
+                validLength = input.getTotalBytesRead();
+            }
+        } catch (IOException e) {
+            // truncated varint at the tail, keep what was valid so far
+        }
+
+        if (validLength < fileSize) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return validLength;
+    }
+}
@@ -0,0 +1,50 @@
+package com.s3communication.s3communication.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// File content that may be a view into a pooled read buffer.
+// The buffer goes back to the pool on close, so content() must not be used after that.
+public class PooledContent implements Closeable {
+
+    private final ByteBuffer content;
+    private final BufferPool bufferPool;
+    private final byte[] buffer; // null when the content does not live in a pooled buffer
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PooledContent(ByteBuffer content, BufferPool bufferPool, byte[] buffer) {
+        this.content = content;
+        this.bufferPool = bufferPool;
+        this.buffer = buffer;
+    }
+
+    // read-only view, position 0 to limit
+    public ByteBuffer content() {
+        return content.duplicate();
+    }
+
+    public int length() {
+        return content.remaining();
+    }
+
+    // out is left open
+    public void writeTo(OutputStream out) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer bytes = content();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null && released.compareAndSet(false, true)) {
+            bufferPool.release(buffer);
+        }
+    }
+}
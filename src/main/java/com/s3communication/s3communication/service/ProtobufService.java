@@ -1,26 +1,198 @@
 package com.s3communication.s3communication.service;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 import com.s3communication.protobuf.FileProto;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @RequiredArgsConstructor
 public class ProtobufService {
 
+    private final AtomicLong lastUploadSequence = new AtomicLong();
+
     public byte[] serializeFile(MultipartFile file) throws IOException {
-        FileProto.FileData protoData = FileProto.FileData.newBuilder()
+        return toFileData(file).toByteArray();
+    }
+
+    // Writes file at target's position; target needs file.getSerializedSize() bytes remaining
+    public void writeFile(FileProto.FileData file, ByteBuffer target) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(target);
+        file.writeTo(out);
+        out.flush();
+    }
+
+    public FileProto.FileData toFileData(MultipartFile file) throws IOException {
+        return FileProto.FileData.newBuilder()
                 .setFileName(file.getOriginalFilename())
                 .setContent(ByteString.readFrom(file.getInputStream()))
+                .setUploadSequence(nextUploadSequence())
                 .build();
-        return protoData.toByteArray();
     }
 
+    // The clock in microseconds, bumped past the last value handed out so two uploads never share one
+    public long nextUploadSequence() {
+        long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        return lastUploadSequence.accumulateAndGet(now, (last, clock) -> Math.max(last + 1, clock));
+    }
+
+    // Bytes that precede the content in a serialized FileData, so the content can be streamed after them.
+    // Header, content and envelopeTrailer together are the same encoding as FileData.toByteArray().
+    public byte[] envelopeHeader(String fileName, long contentLength) throws IOException {
+        int size = (fileName.isEmpty() ? 0 : CodedOutputStream.computeStringSize(FileProto.FileData.FILENAME_FIELD_NUMBER, fileName))
+                + CodedOutputStream.computeTagSize(FileProto.FileData.CONTENT_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt64SizeNoTag(contentLength);
+        byte[] header = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(header);
+        if (!fileName.isEmpty()) {
+            out.writeString(FileProto.FileData.FILENAME_FIELD_NUMBER, fileName);
+        }
+        out.writeTag(FileProto.FileData.CONTENT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt64NoTag(contentLength);
+        out.checkNoSpaceLeft();
+        return header;
+    }
+
+    // Bytes that follow the streamed content: the fields numbered after it
+    public byte[] envelopeTrailer(long uploadSequence) throws IOException {
+        byte[] trailer = new byte[CodedOutputStream.computeInt64Size(FileProto.FileData.UPLOADSEQUENCE_FIELD_NUMBER, uploadSequence)];
+        CodedOutputStream out = CodedOutputStream.newInstance(trailer);
+        out.writeInt64(FileProto.FileData.UPLOADSEQUENCE_FIELD_NUMBER, uploadSequence);
+        out.checkNoSpaceLeft();
+        return trailer;
+    }
+
+    // Where the content bytes sit inside a serialized FileData, read from its first bytes.
+    // Null when head ends before the content field starts or the file is stored as a patch.
+    public ContentPosition readContentPosition(byte[] head) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(head);
+        try {
+            while (!input.isAtEnd()) {
+                int tag = input.readTag();
+                int field = WireFormat.getTagFieldNumber(tag);
+                if (field == FileProto.FileData.CONTENT_FIELD_NUMBER) {
+                    long length = input.readUInt64();
+                    return new ContentPosition(input.getTotalBytesRead(), length);
+                }
+                if (field == FileProto.FileData.PATCH_FIELD_NUMBER || !input.skipField(tag)) {
+                    return null;
+                }
+            }
+        } catch (InvalidProtocolBufferException truncated) {
+            return null;
+        }
+        return null;
+    }
+
+    // The content aliases data instead of being copied out of it, so data must not change afterwards
     public FileProto.FileData deserializeFile(byte[] data) throws IOException {
-        return FileProto.FileData.parseFrom(data);
+        return deserializeFile(data, 0, data.length);
+    }
+
+    public FileProto.FileData deserializeFile(byte[] data, int offset, int length) throws IOException {
+        return FileProto.FileData.parseFrom(aliasing(data, offset, length));
+    }
+
+    private static CodedInputStream aliasing(byte[] data, int offset, int length) {
+        CodedInputStream input = CodedInputStream.newInstance(data, offset, length);
+        input.enableAliasing(true);
+        return input;
+    }
+
+    // Pack layout: delimited PackIndex followed by the serialized files
+    public byte[] serializePack(List<FileProto.FileData> files) throws IOException {
+        FileProto.PackIndex index = packIndex(files);
+        ByteBuffer out = ByteBuffer.allocate(packSize(index));
+        writePack(index, files, out);
+        return out.array();
+    }
+
+    public FileProto.PackIndex packIndex(List<FileProto.FileData> files) {
+        FileProto.PackIndex.Builder index = FileProto.PackIndex.newBuilder();
+        long offset = 0;
+        for (FileProto.FileData file : files) {
+            int length = file.getSerializedSize();
+            index.addEntries(FileProto.PackEntry.newBuilder()
+                    .setFileName(file.getFileName())
+                    .setOffset(offset)
+                    .setLength(length));
+            offset += length;
+        }
+        return index.build();
+    }
+
+    // Serialized size of a pack with this index, known before anything is written
+    public int packSize(FileProto.PackIndex index) {
+        long dataLength = 0;
+        for (FileProto.PackEntry entry : index.getEntriesList()) {
+            dataLength += entry.getLength();
+        }
+        return Math.toIntExact(CodedOutputStream.computeUInt32SizeNoTag(index.getSerializedSize())
+                + index.getSerializedSize() + dataLength);
+    }
+
+    // Writes the pack at target's position; target needs packSize(index) bytes remaining
+    public void writePack(FileProto.PackIndex index, List<FileProto.FileData> files, ByteBuffer target) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(target);
+        out.writeUInt32NoTag(index.getSerializedSize());
+        index.writeTo(out);
+        for (FileProto.FileData file : files) {
+            file.writeTo(out);
+        }
+        out.flush();
+    }
+
+    public List<FileProto.FileData> deserializePack(byte[] data) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(data);
+        int indexLength = input.readRawVarint32();
+        int dataStart = input.getTotalBytesRead() + indexLength;
+        FileProto.PackIndex index = FileProto.PackIndex.parseFrom(
+                CodedInputStream.newInstance(data, input.getTotalBytesRead(), indexLength));
+
+        // entries alias data like deserializeFile
+        List<FileProto.FileData> files = new ArrayList<>(index.getEntriesCount());
+        for (FileProto.PackEntry entry : index.getEntriesList()) {
+            files.add(FileProto.FileData.parseFrom(
+                    aliasing(data, dataStart + (int) entry.getOffset(), (int) entry.getLength())));
+        }
+        return files;
+    }
+
+    // Reads the index from the head of a pack; returns null when head does not hold all of it yet
+    public PackHeader readPackHeader(byte[] head) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(head);
+        int indexLength = input.readRawVarint32();
+        int indexStart = input.getTotalBytesRead();
+        if (indexStart + indexLength > head.length) {
+            return null;
+        }
+        FileProto.PackIndex index = FileProto.PackIndex.parseFrom(
+                CodedInputStream.newInstance(head, indexStart, indexLength));
+        return new PackHeader(index, indexStart + indexLength);
+    }
+
+    // Bytes needed to hold the whole index, given a head that holds at least its length prefix
+    public int packHeaderSize(byte[] head) throws IOException {
+        int indexLength = CodedInputStream.newInstance(head).readRawVarint32();
+        return CodedOutputStream.computeUInt32SizeNoTag(indexLength) + indexLength;
+    }
+
+    public record PackHeader(FileProto.PackIndex index, long dataStart) {
+    }
+
+    public record ContentPosition(long offset, long length) {
     }
 }
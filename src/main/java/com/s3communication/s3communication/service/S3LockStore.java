@@ -0,0 +1,99 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.Lease;
+import com.s3communication.s3communication.interfaces.LockStore;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+// LockStore backed by S3 conditional writes.
+// A lease is a small object holding "owner\nexpiresAtMillis". It is created with If-None-Match: *
+// and only taken over or released with If-Match on the ETag we read, so two nodes can never both win.
+// Expiry is compared against the local clock, keep the TTL well above expected clock skew.
+@Slf4j
+public class S3LockStore implements LockStore {
+
+    private final S3Client s3Client;
+    private final String bucketName;
+
+    public S3LockStore(S3Client s3Client, String bucketName) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public Optional<Lease> tryAcquire(String name, String owner, Duration ttl) {
+        Instant expiresAt = Instant.now().plus(ttl);
+
+        // 1. Lease object does not exist yet
+        Optional<Lease> created = conditionalPut(name, owner, expiresAt, null);
+        if (created.isPresent()) {
+            return created;
+        }
+
+        // 2. It exists, take it over only if the holder let it expire
+        ResponseBytes<GetObjectResponse> current;
+        try {
+            current = s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(name)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            return Optional.empty(); // deleted between our two calls, next attempt will create it
+        }
+
+        String[] holder = current.asUtf8String().split("\n");
+        Instant heldUntil = Instant.ofEpochMilli(Long.parseLong(holder[1].trim()));
+        if (heldUntil.isAfter(Instant.now())) {
+            log.debug("Lease {} held by {} until {}", name, holder[0], heldUntil);
+            return Optional.empty();
+        }
+
+        return conditionalPut(name, owner, expiresAt, current.response().eTag());
+    }
+
+    @Override
+    public void release(Lease lease) {
+        // overwrite with an already expired lease rather than delete, so the If-Match still guards us
+        Optional<Lease> released = conditionalPut(lease.getName(), lease.getOwner(), Instant.EPOCH, lease.getVersion());
+        if (released.isEmpty()) {
+            log.warn("Lease {} was taken over before {} released it", lease.getName(), lease.getOwner());
+        }
+    }
+
+    // ifMatchETag null means create only
+    private Optional<Lease> conditionalPut(String name, String owner, Instant expiresAt, String ifMatchETag) {
+        PutObjectRequest.Builder request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(name)
+                .contentType("text/plain");
+        if (ifMatchETag == null) {
+            request.ifNoneMatch("*");
+        } else {
+            request.ifMatch(ifMatchETag);
+        }
+
+        byte[] body = (owner + "\n" + expiresAt.toEpochMilli()).getBytes(StandardCharsets.UTF_8);
+        try {
+            String eTag = s3Client.putObject(request.build(), RequestBody.fromBytes(body)).eTag();
+            return Optional.of(new Lease(name, owner, expiresAt, eTag));
+        } catch (S3Exception e) {
+            // 412 the condition failed, 409 a concurrent conditional write won the race
+            if (e.statusCode() == 412 || e.statusCode() == 409) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+}
@@ -1,123 +1,300 @@
 package com.s3communication.s3communication.service;
 
-//package ai.replay.io.writer;
-//
-//import ai.replay.io.protobuf.DataChunk;
-//import ai.replay.io.protobuf.RecordingMetadata;
-//import ai.replay.io.session.RecordingSession;
-//import ai.replay.io.util.ProtobufUtils;
-//import software.amazon.awssdk.services.s3.S3Client;
-//import software.amazon.awssdk.services.s3.model.*;
-
+import ai.replay.io.protobuf.DataChunk;
+import ai.replay.io.protobuf.RecordingMetadata;
+import ai.replay.io.session.RecordingSession;
+import ai.replay.io.util.ProtobufUtils;
+import com.google.protobuf.CodedOutputStream;
+import com.s3communication.s3communication.config.PlaybackProperties;
+import com.s3communication.s3communication.enums.DurabilityMode;
 import com.s3communication.s3communication.interfaces.PlaybackStreamWriter;
+import com.s3communication.s3communication.interfaces.StorageBackend;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Any number of producer threads may call write() for the same session.
+// Chunks go through a lock-free queue and a single writer thread owns the temp file,
+// so chunks from one producer are written in the order that producer offered them.
+// The queue is bounded by permits: with none left, producers block until the writer thread catches up.
+// A write that returns normally is always in an uploaded segment; writes after close fail.
+// Segments live in the spool directory as {sessionId}_{startMillis}.rec until uploaded,
+// so PlaybackSegmentRecovery can find and upload them after a crash.
 public class S3PlaybackWriter implements PlaybackStreamWriter {
 
+    // how long the writer thread parks when the queue is empty
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    // how long a blocked producer waits before checking again whether the writer thread is still alive
+    private static final long OFFER_WAIT_MILLIS = 100;
+
     private final RecordingSession session;
-    private final S3Client s3Client;
-    private final String bucketName;
+    private final StorageBackend storageBackend;
     private final Duration flushInterval;
     private final Duration maxDuration;
+    private final Path spoolDir;
+    private final PlaybackProperties.Durability durability;
+    private final StorageMetrics storageMetrics;
 
     private final Map<Instant, String> uploadedFiles = new ConcurrentHashMap<>();
 
+    // MPSC queue: many producers offer, only the writer thread polls
+    private final Queue<DataChunk> pending = new ConcurrentLinkedQueue<>();
+    // free slots in pending: a producer takes one per chunk, the writer thread returns it once the chunk is written
+    private final Semaphore capacity;
+    // producers hold the read side from the closed check until their chunk is queued, close takes the write side,
+    // so every chunk is either queued before the final drain or rejected
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    // owned by the writer thread once the session is started
     private OutputStream tempOutputStream;
+    private FileChannel tempChannel;
     private File tempFile;
-
-    private final List<DataChunk> buffer = new ArrayList<>();
     private Instant lastFlushTime;
     private Instant startTime;
 
-    public S3PlaybackWriter(RecordingSession session, S3Client s3Client, String bucketName,
-                            Duration flushInterval, Duration maxDuration) {
+    // group commit bookkeeping, also owned by the writer thread
+    private long bytesSinceSync;
+    private Instant lastSyncTime;
+
+    private Thread writerThread;
+    private volatile boolean running;
+    private volatile Throwable writerFailure;
+
+    public S3PlaybackWriter(RecordingSession session, StorageBackend storageBackend,
+                            Duration flushInterval, Duration maxDuration, int queueCapacity,
+                            Path spoolDir, PlaybackProperties.Durability durability,
+                            StorageMetrics storageMetrics) {
         this.session = session;
-        this.s3Client = s3Client;
-        this.bucketName = bucketName;
+        this.storageBackend = storageBackend;
         this.flushInterval = flushInterval;
         this.maxDuration = maxDuration;
+        this.capacity = new Semaphore(queueCapacity);
+        this.spoolDir = spoolDir;
+        this.durability = durability;
+        this.storageMetrics = storageMetrics;
     }
 
     @Override
     public void startRecordingSession() throws IOException {
-        this.startTime = Instant.now();
-        this.lastFlushTime = Instant.now();
+        Files.createDirectories(spoolDir);
+        openNewSegment();
 
-        this.tempFile = File.createTempFile("recording_", ".rec");
-        this.tempOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        this.running = true;
+        this.writerThread = new Thread(this::drainLoop, "playback-writer-" + session.getSessionId());
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
 
     @Override
     public void write(DataChunk chunk) throws IOException {
-        buffer.add(chunk);
-        if (Duration.between(lastFlushTime, Instant.now()).compareTo(flushInterval) >= 0) {
-            flush();
+        try {
+            do {
+                throwIfWriterFailed();
+                throwIfClosed();
+                if (!running) {
+                    throw new IllegalStateException("Recording session is not running");
+                }
+            } while (!capacity.tryAcquire(OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for playback writer queue space");
         }
 
-        if (Duration.between(startTime, Instant.now()).compareTo(maxDuration) >= 0) {
-            finishRecordingAndStartNewOne();
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                capacity.release();
+                throwIfClosed();
+            }
+            pending.add(chunk);
+        } finally {
+            closeLock.readLock().unlock();
         }
     }
 
-    private void flush() throws IOException {
-        if (buffer.isEmpty()) return;
+    // Single consumer: drains the queue into the temp file and handles flush/rotation timing
+    private void drainLoop() {
+        try {
+            while (running) {
+                int drained = drainPending();
+
+                if (Duration.between(lastFlushTime, Instant.now()).compareTo(flushInterval) >= 0) {
+                    flush();
+                }
+
+                if (Duration.between(startTime, Instant.now()).compareTo(maxDuration) >= 0) {
+                    finishRecordingAndStartNewOne();
+                }
+
+                if (drained == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (Throwable t) {
+            // anything escaping here ends the writer thread, producers see it on their next write
+            writerFailure = t;
+            running = false;
+        }
+    }
 
-        for (DataChunk chunk : buffer) {
+    private int drainPending() throws IOException {
+        int drained = 0;
+        DataChunk chunk;
+        while ((chunk = pending.poll()) != null) {
             chunk.writeDelimitedTo(tempOutputStream);
+            int size = chunk.getSerializedSize();
+            bytesSinceSync += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+            capacity.release();
+            drained++;
         }
 
-        tempOutputStream.flush();
-        buffer.clear();
+        if (durability.getMode() == DurabilityMode.GROUP_COMMIT && groupCommitDue()) {
+            sync();
+        }
+        return drained;
+    }
+
+    private boolean groupCommitDue() {
+        if (bytesSinceSync == 0) return false;
+        return bytesSinceSync >= durability.getGroupCommitBytes()
+                || Duration.between(lastSyncTime, Instant.now()).compareTo(durability.getGroupCommitInterval()) >= 0;
+    }
+
+    private void flush() throws IOException {
+        long started = System.nanoTime();
+        if (durability.getMode() == DurabilityMode.PER_FLUSH) {
+            sync();
+        } else {
+            tempOutputStream.flush();
+        }
         lastFlushTime = Instant.now();
+        storageMetrics.playbackWriter("flush", System.nanoTime() - started);
     }
 
-    private void finishRecordingAndStartNewOne() throws IOException {
-        flush();
+    // Push buffered bytes to the file and fsync them; metadata is not needed to read the segment back
+    private void sync() throws IOException {
+        tempOutputStream.flush();
+        tempChannel.force(false);
+        bytesSinceSync = 0;
+        lastSyncTime = Instant.now();
+    }
+
+    private void openNewSegment() throws IOException {
+        // segment names carry millis, so two rotations in the same millisecond (or a leftover
+        // segment recovery has not uploaded yet) must not end up with the same start
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        if (startTime != null && !start.isAfter(startTime)) {
+            start = startTime.plusMillis(1);
+        }
+        while (Files.exists(segmentPath(start))) {
+            start = start.plusMillis(1);
+        }
+
+        this.startTime = start;
+        this.lastFlushTime = startTime;
+        this.lastSyncTime = startTime;
+        this.bytesSinceSync = 0;
+
+        this.tempFile = segmentPath(startTime).toFile();
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        this.tempChannel = fileOut.getChannel();
+        this.tempOutputStream = new BufferedOutputStream(fileOut);
+    }
+
+    private Path segmentPath(Instant start) {
+        return spoolDir.resolve(session.getSessionId() + "_" + start.toEpochMilli() + ".rec");
+    }
+
+    // Close the current segment and upload it under the same name it had in the spool directory
+    private void closeAndUploadSegment() throws IOException {
+        if (durability.getMode() == DurabilityMode.NONE) {
+            flush();
+        } else {
+            sync();
+        }
 
         tempOutputStream.close();
 
-        String objectKey = "recordings/" + session.getSessionId() + "_" + System.currentTimeMillis() + ".rec";
-        putFileToS3(bucketName, objectKey, tempFile);
+        String objectKey = "recordings/" + tempFile.getName();
+        putFileToS3(objectKey, tempFile);
         uploadedFiles.put(startTime, objectKey);
-
-        // Start a new temp file
-        this.tempFile = File.createTempFile("recording_", ".rec");
-        this.tempOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
-        this.startTime = Instant.now();
-        this.lastFlushTime = Instant.now();
+        Files.deleteIfExists(tempFile.toPath());
     }
 
-    private void putFileToS3(String bucketName, String objectKey, File file) throws IOException {
-        PutObjectRequest putRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(objectKey)
-                .contentType("application/octet-stream")
-                .build();
+    private void finishRecordingAndStartNewOne() throws IOException {
+        long started = System.nanoTime();
+        closeAndUploadSegment();
 
-        s3Client.putObject(putRequest, file.toPath());
+        // Start a new segment
+        openNewSegment();
+        storageMetrics.playbackWriter("rotation", System.nanoTime() - started);
+    }
+
+    private void putFileToS3(String objectKey, File file) throws IOException {
+        try {
+            storageBackend.put(objectKey, file.toPath(), "application/octet-stream");
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to upload " + objectKey, e);
+        }
     }
 
     @Override
     public void finishAndCloseStreams() throws IOException {
-        flush();
-
-        tempOutputStream.close();
+        // waits for producers between their closed check and their offer, later writes fail
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        stopWriterThread();
+        throwIfWriterFailed();
 
-        String objectKey = "recordings/" + session.getSessionId() + "_" + System.currentTimeMillis() + ".rec";
-        putFileToS3(bucketName, objectKey, tempFile);
-        uploadedFiles.put(startTime, objectKey);
+        // the writer thread has exited, drain every chunk queued before the close
+        drainPending();
+        closeAndUploadSegment();
 
         // Write metadata (optional)
         writeMetadataToS3();
+    }
 
-        Files.deleteIfExists(tempFile.toPath());
+    private void stopWriterThread() throws IOException {
+        running = false;
+        if (writerThread == null) return;
+
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping playback writer");
+        }
+    }
+
+    private void throwIfWriterFailed() throws IOException {
+        Throwable failure = writerFailure;
+        if (failure != null) {
+            throw new IOException("Playback writer failed for session " + session.getSessionId(), failure);
+        }
+    }
+
+    private void throwIfClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Recording session " + session.getSessionId() + " is closed");
+        }
     }
 
     private void writeMetadataToS3() throws IOException {
@@ -132,7 +309,7 @@ public class S3PlaybackWriter implements PlaybackStreamWriter {
         }
 
         String metadataKey = "recordings/" + session.getSessionId() + ".meta";
-        putFileToS3(bucketName, metadataKey, metadataFile);
+        putFileToS3(metadataKey, metadataFile);
 
         Files.deleteIfExists(metadataFile.toPath());
     }
@@ -0,0 +1,29 @@
+package com.s3communication.s3communication.service;
+
+import ai.replay.io.session.RecordingSession;
+import com.s3communication.s3communication.config.PlaybackProperties;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+
+// Creates playback writers wired with the configured spool directory and durability policy
+@Service
+@RequiredArgsConstructor
+public class S3PlaybackWriterFactory {
+
+    private final StorageBackend storageBackend;
+    private final PlaybackProperties playbackProperties;
+    private final StorageMetrics storageMetrics;
+
+    public S3PlaybackWriter create(RecordingSession session) {
+        return new S3PlaybackWriter(session, storageBackend,
+                playbackProperties.getFlushInterval(),
+                playbackProperties.getMaxDuration(),
+                playbackProperties.getQueueCapacity(),
+                Path.of(playbackProperties.getSpoolDir()),
+                playbackProperties.getDurability(),
+                storageMetrics);
+    }
+}
@@ -0,0 +1,300 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.ObjectStream;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+// StorageBackend over a single S3 bucket.
+// Whole-object reads use the CRT async client: it fetches parts of a large object over
+// parallel connections and hands them back as one in-order stream.
+// Buffer puts go through it too: the sync RequestBody always copies a ByteBuffer, the async one can send it as is.
+public class S3StorageBackend implements StorageBackend {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // above the 5 MB S3 minimum for every part but the last
+    private static final int MULTIPART_PART_SIZE = 8 * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final S3AsyncClient s3AsyncClient;
+    private final S3Presigner s3Presigner;
+    private final String bucketName;
+
+    public S3StorageBackend(S3Client s3Client, S3AsyncClient s3AsyncClient, S3Presigner s3Presigner, String bucketName) {
+        this.s3Client = s3Client;
+        this.s3AsyncClient = s3AsyncClient;
+        this.s3Presigner = s3Presigner;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) {
+        s3Client.putObject(putRequest(key, contentType), RequestBody.fromBytes(data));
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) {
+        s3Client.putObject(putRequest(key, contentType), RequestBody.fromFile(file));
+    }
+
+    @Override
+    public void put(String key, ByteBuffer data, String contentType) {
+        // unsafe: data is read in place, so it must not change until the put completes, which join waits for
+        try {
+            s3AsyncClient.putObject(putRequest(key, contentType), AsyncRequestBody.fromRemainingByteBufferUnsafe(data)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void put(String key, InputStream data, long contentLength, String contentType) {
+        s3Client.putObject(putRequest(key, contentType), RequestBody.fromInputStream(data, contentLength));
+    }
+
+    // Sent as a multipart upload so only one part is held in memory; a failed writer aborts it
+    @Override
+    public void upload(String key, String contentType, ContentWriter writer) {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build()).uploadId();
+        try {
+            PartOutputStream out = new PartOutputStream(key, uploadId);
+            writer.writeTo(out);
+            out.complete();
+        } catch (Throwable e) {
+            // any failure, Errors included, or the parts stay billed under an upload nobody completes
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (RuntimeException abortFailure) {
+                e.addSuppressed(abortFailure);
+            }
+            if (e instanceof IOException io) throw new UncheckedIOException("Failed to upload " + key, io);
+            if (e instanceof Error error) throw error;
+            throw (RuntimeException) e;
+        }
+    }
+
+    @Override
+    public InputStream get(String key) {
+        return getObjectAsync(key);
+    }
+
+    @Override
+    public ObjectStream getWithLength(String key) {
+        ResponseInputStream<GetObjectResponse> in = getObjectAsync(key);
+        Long length = in.response().contentLength();
+        return new ObjectStream(in, length != null ? length : -1);
+    }
+
+    private ResponseInputStream<GetObjectResponse> getObjectAsync(String key) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+        try {
+            return s3AsyncClient.getObject(request, AsyncResponseTransformer.toBlockingInputStream()).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof NoSuchKeyException notFound) {
+                throw new ObjectNotFoundException(key, notFound);
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public StoredObject head(String key) {
+        HeadObjectRequest request = HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+        try {
+            HeadObjectResponse response = s3Client.headObject(request);
+            return new StoredObject(key, response.contentLength(), response.lastModified(), response.eTag());
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(key, e);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long endInclusive) {
+        return getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .range("bytes=" + start + "-" + endInclusive)
+                .build());
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        if (count <= 0) return 0;
+
+        long written = 0;
+        try (InputStream in = getRange(key, position, position + count - 1)) {
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                while (buffer.hasRemaining()) {
+                    written += target.write(buffer);
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public ObjectListing list(String prefix, String continuationToken, int maxKeys) {
+        ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .continuationToken(continuationToken)
+                .maxKeys(maxKeys)
+                .build());
+
+        List<StoredObject> objects = response.contents().stream()
+                .filter(o -> !o.key().endsWith("/")) // Ignore folder placeholders
+                .map(o -> new StoredObject(o.key(), o.size(), o.lastModified(), o.eTag()))
+                .toList();
+
+        return new ObjectListing(objects, Boolean.TRUE.equals(response.isTruncated())
+                ? response.nextContinuationToken() : null);
+    }
+
+    @Override
+    public void delete(String key) {
+        s3Client.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build());
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) {
+        s3Client.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(sourceKey)
+                .destinationBucket(bucketName)
+                .destinationKey(targetKey)
+                .build());
+    }
+
+    @Override
+    public String presignGet(String key, Duration expiry) {
+        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(expiry)
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .build())
+                .build();
+
+        return s3Presigner.presignGetObject(presignRequest).url().toString();
+    }
+
+    // Buffers one part at a time and uploads it when full; complete() sends the last part
+    private final class PartOutputStream extends OutputStream {
+
+        private final String key;
+        private final String uploadId;
+        private final byte[] part = new byte[MULTIPART_PART_SIZE];
+        private final List<CompletedPart> completed = new ArrayList<>();
+        private int length;
+
+        private PartOutputStream(String key, String uploadId) {
+            this.key = key;
+            this.uploadId = uploadId;
+        }
+
+        @Override
+        public void write(int b) {
+            if (length == part.length) uploadPart();
+            part[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (length == part.length) uploadPart();
+                int n = Math.min(len, part.length - length);
+                System.arraycopy(b, off, part, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void uploadPart() {
+            int partNumber = completed.size() + 1;
+            UploadPartResponse response = s3Client.uploadPart(UploadPartRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .build(), RequestBody.fromByteBuffer(ByteBuffer.wrap(part, 0, length)));
+            completed.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+            length = 0;
+        }
+
+        // the last part may be smaller than the minimum part size, or empty for an empty object
+        private void complete() {
+            if (length > 0 || completed.isEmpty()) uploadPart();
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                    .build());
+        }
+    }
+
+    private PutObjectRequest putRequest(String key, String contentType) {
+        return PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+    }
+
+    private ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+        try {
+            return s3Client.getObject(request);
+        } catch (NoSuchKeyException e) {
+            throw new ObjectNotFoundException(request.key(), e);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.DTO.BackfillStatus;
+import com.s3communication.s3communication.DTO.Lease;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.enums.BackfillState;
+import com.s3communication.s3communication.exceptions.BackfillInProgressException;
+import com.s3communication.s3communication.interfaces.LockStore;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Rebuilds snapshot hours the hourly schedule missed (outage, failed build) and every later hour
+// that was built on top of the gap.
+// Hours run as a pipeline: deltas of the next prefetchHours hours download while the current hour
+// merges, and each merged hour uploads while the next one merges. Merging stays in chain order.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SnapshotBackfillService implements ApplicationRunner {
+
+    private static final String BACKFILL_LEASE = MetaKeys.ROOT + "backfill.lease";
+
+    private final SnapshotBuilderService snapshotBuilderService;
+    private final SnapshotProperties snapshotProperties;
+    private final LockStore lockStore;
+    private final DeltaPatcher deltaPatcher;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("snapshot-backfill").daemon().factory());
+    private BackfillStatus status = BackfillStatus.idle();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!snapshotProperties.getBackfill().isOnStartup()) return;
+        try {
+            start(null, null);
+        } catch (BackfillInProgressException e) {
+            log.info("Startup backfill skipped: {}", e.getMessage());
+        }
+    }
+
+    // Starts a backfill over [from, to] in the background, defaults to the configured lookback
+    // window ending at the previous hour
+    public synchronized BackfillStatus start(LocalDateTime from, LocalDateTime to) {
+        if (status.getState() == BackfillState.RUNNING) {
+            throw new BackfillInProgressException("Backfill already running since " + status.getStartedAt());
+        }
+
+        LocalDateTime end = (to != null ? to : LocalDateTime.now(ZoneId.systemDefault()).minusHours(1))
+                .truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime start = (from != null ? from : end.minus(snapshotProperties.getBackfill().getLookback()))
+                .truncatedTo(ChronoUnit.HOURS);
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("Backfill range starts after it ends: " + start + " > " + end);
+        }
+
+        status = new BackfillStatus(BackfillState.RUNNING, start, end, 0, 0, null, Instant.now(), null, null);
+        runner.execute(() -> runLeased(start, end));
+        return status.copy();
+    }
+
+    public synchronized BackfillStatus getStatus() {
+        return status.copy();
+    }
+
+    private void runLeased(LocalDateTime from, LocalDateTime to) {
+        Optional<Lease> lease = lockStore.tryAcquire(BACKFILL_LEASE, snapshotProperties.getNodeId(),
+                snapshotProperties.getBackfill().getLeaseTtl());
+        if (lease.isEmpty()) {
+            finish(BackfillState.FAILED, "Another node holds the backfill lease");
+            return;
+        }
+        try {
+            backfill(from, to);
+            finish(BackfillState.COMPLETED, null);
+        } catch (Exception e) {
+            log.error("Snapshot backfill {} .. {} failed", from, to, e);
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            finish(BackfillState.FAILED, cause.getMessage());
+        } finally {
+            lockStore.release(lease.get());
+        }
+    }
+
+    private void backfill(LocalDateTime from, LocalDateTime to) {
+        // 1. Find the first hour that has deltas but no snapshot, everything after it with deltas is suspect,
+        // and so is every hour 23 after it, whose daily checkpoint carries the state into the next day
+        List<LocalDateTime> hours = new ArrayList<>();
+        for (LocalDateTime hour = from; !hour.isAfter(to); hour = hour.plusHours(1)) {
+            boolean hasDeltas = snapshotBuilderService.hasDeltas(hour.toLocalDate(), hour.getHour());
+            if (hours.isEmpty() && hasDeltas && !snapshotBuilderService.hasSnapshot(hour.toLocalDate(), hour.getHour())) {
+                hours.add(hour);
+            } else if (!hours.isEmpty() && (hasDeltas || hour.getHour() == 23)) {
+                hours.add(hour);
+            }
+        }
+        planned(hours.size());
+        if (hours.isEmpty()) {
+            log.info("No snapshot gaps between {} and {}", from, to);
+            return;
+        }
+        log.info("Backfilling {} snapshot hours from {} to {}", hours.size(), hours.get(0), to);
+
+        // 2. Chain base is the latest snapshot before the first gap
+        Map<String, FileProto.FileData> state = new HashMap<>();
+        snapshotBuilderService.previousSnapshotHour(hours.get(0))
+                .ifPresent(base -> state.putAll(snapshotBuilderService.loadSnapshot(base.toLocalDate(), base.getHour())));
+
+        // 3. Pipeline: prefetch deltas -> merge in order -> upload in the background
+        int prefetch = Math.max(0, snapshotProperties.getBackfill().getPrefetchHours());
+        ExecutorService stages = Executors.newFixedThreadPool(prefetch + 2,
+                Thread.ofPlatform().name("snapshot-backfill-stage-", 0).daemon().factory());
+        try {
+            List<CompletableFuture<Map<String, FileProto.FileData>>> deltas = new ArrayList<>();
+            CompletableFuture<Void> upload = CompletableFuture.completedFuture(null);
+
+            for (int i = 0; i < hours.size(); i++) {
+                while (deltas.size() < Math.min(hours.size(), i + prefetch + 1)) {
+                    LocalDateTime next = hours.get(deltas.size());
+                    deltas.add(CompletableFuture.supplyAsync(
+                            () -> snapshotBuilderService.loadDeltas(next.toLocalDate(), next.getHour()), stages));
+                }
+
+                Map<String, FileProto.FileData> hourDeltas = deltas.get(i).join();
+                boolean hasDeltas = !hourDeltas.isEmpty();
+                deltaPatcher.applyAll(state, hourDeltas);
+                deltas.set(i, null); // release the hour's deltas once merged
+                Map<String, FileProto.FileData> merged = Map.copyOf(state);
+
+                // at most one hour uploading while the next one merges
+                upload.join();
+                LocalDateTime hour = hours.get(i);
+                upload = CompletableFuture.runAsync(() -> {
+                    uploadShards(hour, merged, hasDeltas);
+                    built(hour);
+                }, stages);
+            }
+            upload.join();
+        } finally {
+            stages.shutdownNow();
+        }
+    }
+
+    // Writes the hour in the configured shard layout, the same objects leased builds write, then
+    // removes whatever the build it replaces left behind before marking it committed.
+    // An hour without deltas gets checkpoints only; like a leased build it holds no snapshot files.
+    private void uploadShards(LocalDateTime hour, Map<String, FileProto.FileData> merged, boolean hasDeltas) {
+        LocalDate date = hour.toLocalDate();
+        int shards = Math.max(1, snapshotProperties.getShards());
+        for (int shard = 0; shard < shards; shard++) {
+            int current = shard;
+            Map<String, FileProto.FileData> shardFiles = new HashMap<>(merged);
+            shardFiles.keySet().removeIf(fileName -> !SnapshotBuilderService.inShard(fileName, current, shards));
+
+            if (hasDeltas) {
+                snapshotBuilderService.uploadSnapshot(date, hour.getHour(), shard, shards, shardFiles);
+            }
+            try {
+                snapshotBuilderService.writeCheckpoints(date, hour.getHour(), shard, shards, shardFiles);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        snapshotBuilderService.removeStaleSnapshotFiles(date, hour.getHour(), hasDeltas ? merged.keySet() : Set.of());
+        snapshotBuilderService.removeOtherLayouts(date, hour.getHour(), shards);
+        snapshotBuilderService.markCommitted(date, hour.getHour());
+    }
+
+    private synchronized void planned(int hours) {
+        status.setHoursPlanned(hours);
+    }
+
+    private synchronized void built(LocalDateTime hour) {
+        status.setHoursBuilt(status.getHoursBuilt() + 1);
+        status.setLastBuiltHour(hour);
+        log.info("Backfilled snapshot {} ({}/{})", hour, status.getHoursBuilt(), status.getHoursPlanned());
+    }
+
+    private synchronized void finish(BackfillState state, String error) {
+        status.setState(state);
+        status.setError(error);
+        status.setFinishedAt(Instant.now());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+}
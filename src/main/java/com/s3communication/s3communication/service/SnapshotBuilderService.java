@@ -2,21 +2,30 @@ package com.s3communication.s3communication.service;
 
 import com.google.protobuf.ByteString;
 import com.s3communication.protobuf.FileProto;
-import com.s3communication.s3communication.config.AwsProperties;
+import com.s3communication.s3communication.DTO.Lease;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.interfaces.LockStore;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -24,132 +33,575 @@ import java.util.stream.Collectors;
 @Slf4j
 public class SnapshotBuilderService {
 
-    private final S3Client s3Client;
-    private final AwsProperties awsProperties;
+    // written under _meta/{date}/snapshot-meta/{hour}/ once every shard of that hour is uploaded
+    public static final String COMMIT_MARKER = "committed";
+    // written before a shard starts uploading, so a half-built hour never looks like a legacy one
+    private static final String STARTED_SUFFIX = ".started";
+
+    private final StorageBackend storageBackend;
     private final ProtobufService protobufService;
+    private final StorageMetrics storageMetrics;
+    private final StorageIoExecutor storageIoExecutor;
+    private final LockStore lockStore;
+    private final SnapshotProperties snapshotProperties;
+    private final DeltaPatcher deltaPatcher;
+    private final NameIndex nameIndex;
+    private final ListingCache listingCache;
 
-     // Runs hourly to build a new snapshot from deltas and previous snapshot
-    @Scheduled(cron = "0 0 * * * *") // Runs at top of every hour
-    public void runHourlySnapshotBuilder() {
-//        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC).minusHours(1); // Process previous hour
-        ZoneId systemZone = ZoneId.systemDefault();
-        LocalDateTime now = LocalDateTime.now(systemZone).minusHours(1);
+    // hours of the retry window already seen committed, so later runs skip them without a LIST
+    private final Set<LocalDateTime> committedHours = ConcurrentHashMap.newKeySet();
 
-        LocalDate date = now.toLocalDate();
-        int hour = now.getHour();
-        System.out.println("time(hour) for snapshot:"+hour);
+    // Walks the finished hours of the retry window oldest first and builds each one that has deltas but
+    // no committed snapshot: the previous hour once it ends, a build that failed, or shards whose node
+    // died holding the lease once the lease expires. Every hour builds on the one before, so the walk
+    // stops at the first hour that cannot commit yet and picks it up again on the next run.
+    // Hour 23 is built even without deltas, it writes the next day's daily checkpoint.
+    @Scheduled(cron = "${snapshot.schedule:0 */5 * * * *}")
+    public void runScheduledBuilds() {
+        LocalDateTime last = LocalDateTime.now(ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS).minusHours(1);
+        LocalDateTime first = last.minus(snapshotProperties.getRetryWindow()).truncatedTo(ChronoUnit.HOURS);
+        committedHours.removeIf(hour -> hour.isBefore(first));
 
-        try {
-            buildSnapshot(date, hour);
-            log.info("Snapshot built for {} hour {}", date, hour);
-        } catch (Exception e) {
-            log.error("Failed to build snapshot for {} hour {}", date, hour, e);
+        for (LocalDateTime hour = first; !hour.isAfter(last); hour = hour.plusHours(1)) {
+            if (committedHours.contains(hour)) continue;
+            LocalDate date = hour.toLocalDate();
+            try {
+                if (!isCommitted(date, hour.getHour()) && (hour.getHour() == 23 || hasDeltas(date, hour.getHour()))) {
+                    buildLeasedSnapshot(date, hour.getHour());
+                    if (!isCommitted(date, hour.getHour())) {
+                        log.info("Snapshot for {} hour {} not committed yet, later hours wait for it", date, hour.getHour());
+                        return;
+                    }
+                    log.info("Snapshot built for {} hour {}", date, hour.getHour());
+                }
+                if (isCommitted(date, hour.getHour())) {
+                    committedHours.add(hour);
+                }
+            } catch (Exception e) {
+                log.error("Failed to build snapshot for {} hour {}", date, hour.getHour(), e);
+                return;
+            }
         }
     }
 
+    // Every node runs the schedule. Each shard of the hour is built by whichever node leases it first,
+    // others skip it, and the hour is committed once all shards have their done marker.
+    public void buildLeasedSnapshot(LocalDate date, int hour) throws IOException {
+        int shards = Math.max(1, snapshotProperties.getShards());
+        String metaPrefix = snapshotMetaPrefix(date, hour);
+
+        Set<String> markers = listMarkers(metaPrefix);
+        if (markers.contains(COMMIT_MARKER)) {
+            log.info("Snapshot for {} hour {} already committed", date, hour);
+            return;
+        }
+
+        for (int shard = 0; shard < shards; shard++) {
+            String doneMarker = String.format("shard-%d-of-%d.done", shard, shards);
+            if (markers.contains(doneMarker)) continue;
+            String leaseName = String.format("%sshard-%d-of-%d.lease", metaPrefix, shard, shards);
+
+            Optional<Lease> lease = lockStore.tryAcquire(leaseName, snapshotProperties.getNodeId(), snapshotProperties.getLeaseTtl());
+            if (lease.isEmpty()) {
+                log.info("Shard {}/{} of {} hour {} is leased by another node", shard, shards, date, hour);
+                continue;
+            }
+            try {
+                // another node may have finished the shard before we got the lease
+                if (listMarkers(metaPrefix).contains(doneMarker)) continue;
+
+                putMarker(String.format("%sshard-%d-of-%d%s", metaPrefix, shard, shards, STARTED_SUFFIX),
+                        snapshotProperties.getNodeId());
+                buildSnapshot(date, hour, shard, shards);
+                putMarker(metaPrefix + doneMarker, snapshotProperties.getNodeId());
+            } finally {
+                lockStore.release(lease.get());
+            }
+        }
+
+        commitIfComplete(date, hour, shards);
+    }
+
+    // Unsharded build of one hour, without leasing
     public void buildSnapshot(LocalDate date, int hour) throws IOException {
+        buildSnapshot(date, hour, 0, 1);
+    }
+
+    public void buildSnapshot(LocalDate date, int hour, int shard, int shards) throws IOException {
+        Timer.Sample buildSample = storageMetrics.startSnapshotBuild();
+        int filesWritten = 0;
+        String outcome = "error";
+        try {
+            filesWritten = buildAndUploadSnapshot(date, hour, shard, shards);
+            outcome = filesWritten > 0 ? "success" : "skipped";
+        } finally {
+            storageMetrics.snapshotBuilt(buildSample, filesWritten, outcome);
+        }
+    }
+
+    private void commitIfComplete(LocalDate date, int hour, int shards) {
+        String metaPrefix = snapshotMetaPrefix(date, hour);
+        Set<String> markers = listMarkers(metaPrefix);
+        if (markers.contains(COMMIT_MARKER)) return;
+
+        for (int shard = 0; shard < shards; shard++) {
+            if (!markers.contains(String.format("shard-%d-of-%d.done", shard, shards))) {
+                return; // the node finishing the last shard commits
+            }
+        }
+
+        Optional<Lease> lease = lockStore.tryAcquire(metaPrefix + "commit.lease",
+                snapshotProperties.getNodeId(), snapshotProperties.getLeaseTtl());
+        if (lease.isEmpty()) return;
+        try {
+            if (!listMarkers(metaPrefix).contains(COMMIT_MARKER)) {
+                putMarker(metaPrefix + COMMIT_MARKER, String.valueOf(shards));
+                log.info("Committed snapshot for {} hour {} ({} shards)", date, hour, shards);
+                removeOtherLayouts(date, hour, shards);
+            }
+        } finally {
+            lockStore.release(lease.get());
+        }
+    }
+
+    // parent of every hour's markers and leases
+    public static String snapshotMetaRoot(LocalDate date) {
+        return MetaKeys.datePrefix(date) + "snapshot-meta/";
+    }
+
+    private static String snapshotMetaPrefix(LocalDate date, int hour) {
+        return snapshotMetaRoot(date) + String.format("%02d/", hour);
+    }
+
+    // Names of the done and commit markers present for one hour
+    private Set<String> listMarkers(String metaPrefix) {
+        return listObjects(metaPrefix).stream()
+                .map(o -> o.getKey().substring(metaPrefix.length()))
+                .collect(Collectors.toSet());
+    }
+
+    // String.hashCode is specified, so every node assigns a file name to the same shard
+    static boolean inShard(String fileName, int shard, int shards) {
+        return shards <= 1 || Math.floorMod(fileName.hashCode(), shards) == shard;
+    }
 
-        if (loadDeltas(date, hour).isEmpty()) {
+    // Returns the number of snapshot files written, 0 when the build was skipped
+    private int buildAndUploadSnapshot(LocalDate date, int hour, int shard, int shards) throws IOException {
+
+        // 1. Load deltas for this hour, noting which names each 15-minute window holds
+        Map<Integer, Set<String>> windowNames = new HashMap<>();
+        Map<String, FileProto.FileData> deltas = loadDeltas(date, hour, windowNames);
+        if (deltas.isEmpty()) {
             log.info("⏭ No deltas found for {} hour {}, skipping snapshot build", date, hour);
+            if (hour == 23) {
+                writeCarriedCheckpoints(date, shard, shards);
+            }
+            return 0;
+        }
+
+        // 2. List previous snapshot
+        // Hours without deltas have no snapshot, so walk back to the latest one that exists.
+        // Only the bases of patched deltas are downloaded; full replacements need nothing from it, and
+        // the rest is carried forward below with a server-side copy that never passes through this process.
+        Map<String, String> previousKeys = new HashMap<>();
+        Optional<LocalDateTime> previous = previousSnapshotHour(date.atTime(hour, 0));
+        if (previous.isPresent()) {
+            LocalDateTime base = previous.get();
+            previousKeys.putAll(listSnapshotKeys(base.toLocalDate(), base.getHour(), shard, shards));
+        } else {
+            log.warn("No snapshot within {} before {} hour {}, building from deltas only",
+                    snapshotProperties.getChainLookback(), date, hour);
+        }
+
+        // 3. Apply deltas to the files they touch
+        // Used map to overwrite by file name
+        // Patched files are rebuilt here, so snapshots and checkpoints only hold full copies
+        deltas.keySet().removeIf(fileName -> !inShard(fileName, shard, shards));
+        Map<String, FileProto.FileData> changedFiles = listAndDownloadFiles(deltas.entrySet().stream()
+                .filter(delta -> delta.getValue().hasPatch())
+                .map(delta -> previousKeys.get(delta.getKey()))
+                .filter(Objects::nonNull)
+                .toList());
+        deltaPatcher.applyAll(changedFiles, deltas); // Overwrite or add
+
+        Map<String, String> unchangedKeys = new HashMap<>(previousKeys);
+        unchangedKeys.keySet().removeAll(changedFiles.keySet());
+
+        // Name index of each window, so filtered replays skip windows without a GET of their deltas
+        for (int minute = 0; minute < 60; minute += 15) {
+            List<String> names = windowNames.getOrDefault(minute, Set.of()).stream()
+                    .filter(fileName -> inShard(fileName, shard, shards))
+                    .toList();
+            nameIndex.write(NameIndex.deltaWindowPrefix(date, hour, minute), shard, shards, names);
+        }
+
+        // 4. Upload new snapshot to /snapshots/{hour}/filename, copying unchanged files
+        int filesWritten = uploadSnapshot(date, hour, shard, shards, changedFiles, unchangedKeys);
+
+        // 5. Refresh the checkpoint levels replay reads from
+        // Normally derived from the previous checkpoints; without them the full state has to be read
+        if (!writeCheckpointsIncrementally(date, hour, shard, shards, previous, changedFiles)) {
+            Map<String, FileProto.FileData> state = listAndDownloadFiles(List.copyOf(unchangedKeys.values()));
+            state.putAll(changedFiles);
+            writeCheckpoints(date, hour, shard, shards, state);
+        }
+        return filesWritten;
+    }
+
+    // The hourly checkpoint of the previous built hour plus this hour's changes, compared with the
+    // daily checkpoint, is the same set writeCheckpoints derives from the full state.
+    // False, with nothing written, when a checkpoint this relies on does not exist.
+    private boolean writeCheckpointsIncrementally(LocalDate date, int hour, int shard, int shards,
+                                                  Optional<LocalDateTime> previous,
+                                                  Map<String, FileProto.FileData> changedFiles) throws IOException {
+        if (previous.isEmpty()) return false;
+        String shardPack = String.format("shard-%d-of-%d%s", shard, shards, DeltaPacker.PACK_SUFFIX);
+
+        Optional<Map<String, FileProto.FileData>> daily = loadPack(dailyCheckpointPrefix(date) + shardPack);
+        if (daily.isEmpty()) return false;
+
+        Map<String, FileProto.FileData> hourly = new HashMap<>();
+        LocalDateTime base = previous.get();
+        if (base.toLocalDate().equals(date)) {
+            Optional<Map<String, FileProto.FileData>> previousHourly = loadPack(hourlyCheckpointPrefix(date, base.getHour()) + shardPack);
+            if (previousHourly.isEmpty()) return false;
+            hourly.putAll(previousHourly.get());
+        } else if (!base.equals(date.minusDays(1).atTime(23, 0))) {
+            return false; // the daily checkpoint is only the previous state when that was last night's hour 23
+        }
+
+        for (Map.Entry<String, FileProto.FileData> entry : changedFiles.entrySet()) {
+            if (entry.getValue().equals(daily.get().get(entry.getKey()))) {
+                hourly.remove(entry.getKey());
+            } else {
+                hourly.put(entry.getKey(), entry.getValue());
+            }
+        }
+        putPack(hourlyCheckpointPrefix(date, hour) + shardPack, List.copyOf(hourly.values()));
+        nameIndex.write(NameIndex.hourlyCheckpointPrefix(date, hour), shard, shards, hourly.keySet());
+
+        if (hour == 23) {
+            Map<String, FileProto.FileData> state = new HashMap<>(daily.get());
+            state.putAll(hourly);
+            putPack(dailyCheckpointPrefix(date.plusDays(1)) + shardPack, List.copyOf(state.values()));
+            nameIndex.write(NameIndex.dailyCheckpointPrefix(date.plusDays(1)), shard, shards, state.keySet());
+        }
+        return true;
+    }
+
+    // Checkpoints of an hour 23 without deltas: the state is the previous snapshot's, carried into
+    // the next day's daily checkpoint so replays of that day still start from one
+    private void writeCarriedCheckpoints(LocalDate date, int shard, int shards) throws IOException {
+        Optional<LocalDateTime> previous = previousSnapshotHour(date.atTime(23, 0));
+        if (previous.isEmpty()) {
+            log.info("No snapshot within {} before {} hour 23, no daily checkpoint to carry",
+                    snapshotProperties.getChainLookback(), date);
             return;
         }
+        if (!writeCheckpointsIncrementally(date, 23, shard, shards, previous, Map.of())) {
+            LocalDateTime base = previous.get();
+            writeCheckpoints(date, 23, shard, shards, loadSnapshot(base.toLocalDate(), base.getHour(), shard, shards));
+        }
+    }
 
-        String datePrefix = date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-        String hourStr = String.format("%02d", hour);
+    // Files of one pack by name, empty when the pack does not exist
+    private Optional<Map<String, FileProto.FileData>> loadPack(String key) throws IOException {
+        try {
+            Map<String, FileProto.FileData> files = new HashMap<>();
+            protobufService.deserializePack(readObject(key)).forEach(f -> files.put(f.getFileName(), f));
+            return Optional.of(files);
+        } catch (ObjectNotFoundException e) {
+            return Optional.empty();
+        }
+    }
 
-        // 1. Load previous snapshot
-        Map<String, FileProto.FileData> snapshotFiles = new HashMap<>();
-        if (hour != 0) {
-            snapshotFiles.putAll(loadSnapshot(date, hour - 1));
-        } else {
-            // If midnight, try previous day’s 23rd hour
-            snapshotFiles.putAll(loadSnapshot(date.minusDays(1), 23));
+    // Checkpoint levels under _meta/{date}/checkpoints/, one pack per shard at each level:
+    //   daily/          full state at the start of the day, written by the day before's hour 23
+    //   hourly/{HH}/    every file that differs from the daily checkpoint at the end of hour HH
+    // Replay of any instant then reads one daily pack, one hourly pack and that hour's 15-minute deltas.
+    void writeCheckpoints(LocalDate date, int hour, int shard, int shards, Map<String, FileProto.FileData> state) throws IOException {
+        String shardPack = String.format("shard-%d-of-%d%s", shard, shards, DeltaPacker.PACK_SUFFIX);
+        Map<String, FileProto.FileData> daily = loadCheckpoint(dailyCheckpointPrefix(date), shardPack, shard, shards);
+
+        // a missing daily checkpoint makes the hourly one a full copy, which readers handle the same way
+        List<FileProto.FileData> changed = state.entrySet().stream()
+                .filter(e -> !e.getValue().equals(daily.get(e.getKey())))
+                .map(Map.Entry::getValue)
+                .toList();
+        putPack(hourlyCheckpointPrefix(date, hour) + shardPack, changed);
+        nameIndex.write(NameIndex.hourlyCheckpointPrefix(date, hour), shard, shards,
+                changed.stream().map(FileProto.FileData::getFileName).toList());
+
+        if (hour == 23) {
+            putPack(dailyCheckpointPrefix(date.plusDays(1)) + shardPack, List.copyOf(state.values()));
+            nameIndex.write(NameIndex.dailyCheckpointPrefix(date.plusDays(1)), shard, shards, state.keySet());
         }
+    }
 
-        // 2. Load deltas for this hour
-        Map<String, FileProto.FileData> deltas = loadDeltas(date, hour);
+    public static String dailyCheckpointPrefix(LocalDate date) {
+        return MetaKeys.datePrefix(date) + "checkpoints/daily/";
+    }
 
-        // 3. Apply deltas to snapshot
-        // Updates the snapshot with new or changed files from the deltas
-        // Used map to overwrite by file name
-        for (Map.Entry<String, FileProto.FileData> entry : deltas.entrySet()) {
-            snapshotFiles.put(entry.getKey(), entry.getValue()); // Overwrite or add
+    // parent of every hourly checkpoint of the day
+    public static String hourlyCheckpointRoot(LocalDate date) {
+        return MetaKeys.datePrefix(date) + "checkpoints/hourly/";
+    }
+
+    public static String hourlyCheckpointPrefix(LocalDate date, int hour) {
+        return hourlyCheckpointRoot(date) + String.format("%02d/", hour);
+    }
+
+    // This shard's pack when it exists, otherwise whatever a different shard count left, filtered to this shard
+    private Map<String, FileProto.FileData> loadCheckpoint(String prefix, String shardPack, int shard, int shards) {
+        List<String> keys = listObjects(prefix).stream()
+                .map(StoredObject::getKey)
+                .toList();
+        if (keys.contains(prefix + shardPack)) {
+            return listAndDownloadFiles(List.of(prefix + shardPack));
         }
 
-        // 4. Upload new snapshot to /snapshots/{hour}/filename
+        Map<String, FileProto.FileData> files = listAndDownloadFiles(keys);
+        files.keySet().removeIf(fileName -> !inShard(fileName, shard, shards));
+        return files;
+    }
+
+    private void putPack(String key, List<FileProto.FileData> files) throws IOException {
+        byte[] body = protobufService.serializePack(files);
+        storageMetrics.record("put", key, () -> storageBackend.put(key, body, "application/x-protobuf"));
+        storageMetrics.bytesOut("put", key, body.length);
+        listingCache.invalidate(key);
+    }
+
+    int uploadSnapshot(LocalDate date, int hour, int shard, int shards, Map<String, FileProto.FileData> snapshotFiles) {
+        return uploadSnapshot(date, hour, shard, shards, snapshotFiles, Map.of());
+    }
+
+    // snapshotFiles are PUT, copiedKeys (file name -> key of its unchanged copy) are server-side copies;
+    // all of them run in parallel on the storage I/O executor
+    private int uploadSnapshot(LocalDate date, int hour, int shard, int shards,
+                               Map<String, FileProto.FileData> snapshotFiles, Map<String, String> copiedKeys) {
+        String datePrefix = date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        String hourStr = String.format("%02d", hour);
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
         for (Map.Entry<String, FileProto.FileData> entry : snapshotFiles.entrySet()) {
-            String fileName = entry.getKey();
+            String snapshotKey = String.format("%s/snapshots/%s/%s", datePrefix, hourStr, entry.getKey());
             FileProto.FileData fileData = entry.getValue();
+            writes.add(storageIoExecutor.submit(() -> {
+                byte[] body = fileData.toByteArray();
+                storageMetrics.record("put", snapshotKey,
+                        () -> storageBackend.put(snapshotKey, body, "application/x-protobuf"));
+                storageMetrics.bytesOut("put", snapshotKey, body.length);
+                return null;
+            }));
+        }
+        for (Map.Entry<String, String> entry : copiedKeys.entrySet()) {
+            String snapshotKey = String.format("%s/snapshots/%s/%s", datePrefix, hourStr, entry.getKey());
+            String sourceKey = entry.getValue();
+            writes.add(storageIoExecutor.submit(() -> {
+                storageMetrics.record("copy", snapshotKey, () -> storageBackend.copy(sourceKey, snapshotKey));
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+        Set<String> names = new HashSet<>(snapshotFiles.keySet());
+        names.addAll(copiedKeys.keySet());
+        nameIndex.write(NameIndex.snapshotPrefix(date, hour), shard, shards, names);
+        // readers cache listings of past hours, so the new snapshot files must replace them
+        listingCache.invalidate(String.format("%s/snapshots/%s/", datePrefix, hourStr));
+        return writes.size();
+    }
+
+    // Latest hour strictly before the given one with a committed snapshot, looking back at most chainLookback.
+    // Hours without deltas are passed over; one with deltas but no committed snapshot stops the walk,
+    // since building on top of it would leave its changes out of every later snapshot.
+    Optional<LocalDateTime> previousSnapshotHour(LocalDateTime hour) {
+        LocalDateTime limit = hour.minus(snapshotProperties.getChainLookback());
+        for (LocalDateTime candidate = hour.minusHours(1); !candidate.isBefore(limit); candidate = candidate.minusHours(1)) {
+            LocalDate date = candidate.toLocalDate();
+            if (hasSnapshot(date, candidate.getHour())) {
+                return Optional.of(candidate);
+            }
+            if (hasDeltas(date, candidate.getHour()) && !isCommitted(date, candidate.getHour())) {
+                throw new IllegalStateException(String.format(
+                        "Snapshot for %s hour %d is not committed, build or backfill it first", date, candidate.getHour()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    // A committed hour that holds snapshot files
+    boolean hasSnapshot(LocalDate date, int hour) {
+        return isCommitted(date, hour)
+                && hasObjects(String.format("%s/snapshots/%02d/", date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour));
+    }
+
+    // Every shard of the hour is uploaded. Hours without any marker count when they hold snapshot files:
+    // that is how hours built before commit markers existed, and snapshots uploaded directly, look.
+    boolean isCommitted(LocalDate date, int hour) {
+        Set<String> markers = listMarkers(snapshotMetaPrefix(date, hour));
+        if (markers.contains(COMMIT_MARKER)) return true;
+        return markers.isEmpty()
+                && hasObjects(String.format("%s/snapshots/%02d/", date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour));
+    }
 
-            String snapshotKey = String.format("%s/snapshots/%s/%s", datePrefix, hourStr, fileName);
+    boolean hasDeltas(LocalDate date, int hour) {
+        return hasObjects(String.format("%s/delta/%02d/", date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour));
+    }
 
-            PutObjectRequest putRequest = PutObjectRequest.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .key(snapshotKey)
-                    .contentType("application/x-protobuf")
-                    .build();
+    // Drops the checkpoint packs and name indexes a different shard count left for an hour that has been
+    // rebuilt with `shards` shards, so readers never combine a stale layout with the current one
+    void removeOtherLayouts(LocalDate date, int hour, int shards) {
+        String layoutSuffix = String.format("-of-%d%s", shards, DeltaPacker.PACK_SUFFIX);
+        List<String> checkpointPrefixes = new ArrayList<>(List.of(hourlyCheckpointPrefix(date, hour)));
+        List<String> indexPrefixes = new ArrayList<>(List.of(
+                NameIndex.snapshotPrefix(date, hour), NameIndex.hourlyCheckpointPrefix(date, hour)));
+        for (int minute = 0; minute < 60; minute += 15) {
+            indexPrefixes.add(NameIndex.deltaWindowPrefix(date, hour, minute));
+        }
+        if (hour == 23) {
+            checkpointPrefixes.add(dailyCheckpointPrefix(date.plusDays(1)));
+            indexPrefixes.add(NameIndex.dailyCheckpointPrefix(date.plusDays(1)));
+        }
 
-            s3Client.putObject(putRequest, RequestBody.fromBytes(fileData.toByteArray()));
+        for (String prefix : checkpointPrefixes) {
+            listObjects(prefix).stream()
+                    .map(StoredObject::getKey)
+                    .filter(key -> !key.endsWith(layoutSuffix))
+                    .forEach(this::delete);
+            listingCache.invalidate(prefix);
         }
+        indexPrefixes.forEach(prefix -> nameIndex.deleteOtherLayouts(prefix, shards));
+    }
+
+    // Drops snapshot files of the hour whose names the rebuilt state does not hold
+    void removeStaleSnapshotFiles(LocalDate date, int hour, Set<String> names) {
+        listSnapshotKeys(date, hour, 0, 1).forEach((name, key) -> {
+            if (!names.contains(name)) delete(key);
+        });
+        listingCache.invalidate(String.format("%s/snapshots/%02d/", date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour));
+    }
+
+    private void delete(String key) {
+        storageMetrics.record("delete", key, () -> storageBackend.delete(key));
+    }
+
+    // Marks an hour rebuilt outside the leased schedule as complete, so scheduled runs skip it
+    void markCommitted(LocalDate date, int hour) {
+        putMarker(snapshotMetaPrefix(date, hour) + COMMIT_MARKER, snapshotProperties.getNodeId());
+    }
+
+    private void putMarker(String key, String content) {
+        storageBackend.put(key, content.getBytes(StandardCharsets.UTF_8), "text/plain");
+        listingCache.invalidate(key);
+    }
+
+    private boolean hasObjects(String prefix) {
+        return !storageMetrics.record("list", prefix,
+                () -> storageBackend.list(prefix, null, 1)).getObjects().isEmpty();
+    }
+
+    Map<String, FileProto.FileData> loadSnapshot(LocalDate date, int hour) {
+        return loadSnapshot(date, hour, 0, 1);
+    }
+
+    private Map<String, FileProto.FileData> loadSnapshot(LocalDate date, int hour, int shard, int shards) {
+        return listAndDownloadFiles(List.copyOf(listSnapshotKeys(date, hour, shard, shards).values()));
     }
 
-    private Map<String, FileProto.FileData> loadSnapshot(LocalDate date, int hour) {
+    // file name -> key of this shard's files in one snapshot hour
+    private Map<String, String> listSnapshotKeys(LocalDate date, int hour, int shard, int shards) {
         String prefix = String.format("%s/snapshots/%02d/",
                 date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")),
                 hour);
 
-        return listAndDownloadFilesByPrefix(prefix);
+        // snapshot keys end with the file name, so other shards' files are never downloaded
+        return listObjects(prefix).stream()
+                .map(StoredObject::getKey)
+                .filter(key -> inShard(key.substring(prefix.length()), shard, shards))
+                .collect(Collectors.toMap(key -> key.substring(prefix.length()), key -> key));
     }
 
-    private Map<String, FileProto.FileData> loadDeltas(LocalDate date, int hour) {
+    Map<String, FileProto.FileData> loadDeltas(LocalDate date, int hour) {
+        return loadDeltas(date, hour, new HashMap<>());
+    }
+
+    // windowNames collects the file names found in each window, keyed by its first minute
+    private Map<String, FileProto.FileData> loadDeltas(LocalDate date, int hour, Map<Integer, Set<String>> windowNames) {
         String basePrefix = String.format("%s/delta/%02d/",
                 date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")),
                 hour);
 
-        ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                .bucket(awsProperties.getS3().getBucketName())
-                .prefix(basePrefix)
-                .build());
-
         // Collect all delta files from all 15-min folders
-        List<String> keys = response.contents().stream()
-                .filter(o -> !o.key().endsWith("/"))
-                .map(S3Object::key)
+        List<String> keys = listObjects(basePrefix).stream()
+                .map(StoredObject::getKey)
                 .collect(Collectors.toList());
 
-        return listAndDownloadFiles(keys);
+        return listAndDownloadFiles(keys, (key, file) -> windowNames
+                .computeIfAbsent(Integer.parseInt(key.substring(basePrefix.length(), basePrefix.length() + 2)), m -> new HashSet<>())
+                .add(file.getFileName()));
     }
 
-    private Map<String, FileProto.FileData> listAndDownloadFilesByPrefix(String prefix) {
-        ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                .bucket(awsProperties.getS3().getBucketName())
-                .prefix(prefix)
-                .build());
+    private Map<String, FileProto.FileData> listAndDownloadFiles(List<String> keys) {
+        return listAndDownloadFiles(keys, (key, file) -> { });
+    }
 
-        List<String> keys = response.contents().stream()
-                .filter(o -> !o.key().endsWith("/"))
-                .map(S3Object::key)
-                .collect(Collectors.toList());
+    // onFile sees every decoded file with the key it came from, including each entry of a pack
+    private Map<String, FileProto.FileData> listAndDownloadFiles(List<String> keys,
+                                                                BiConsumer<String, FileProto.FileData> onFile) {
+        // fetch in parallel, apply in listing order so later windows still win
+        List<CompletableFuture<byte[]>> bodies = keys.stream()
+                .map(key -> storageIoExecutor.submit(() -> readObject(key)))
+                .toList();
 
-        return listAndDownloadFiles(keys);
-    }
+        LatestVersions result = new LatestVersions();
 
-    private Map<String, FileProto.FileData> listAndDownloadFiles(List<String> keys) {
-        Map<String, FileProto.FileData> result = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            try {
+                byte[] body = awaitBody(bodies.get(i));
 
-        for (String key : keys) {
-            try (ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(GetObjectRequest.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .key(key)
-                    .build())) {
+                if (key.endsWith(DeltaPacker.PACK_SUFFIX)) {
+                    protobufService.deserializePack(body).forEach(f -> {
+                        result.add(key, f);
+                        onFile.accept(key, f);
+                    });
+                    continue;
+                }
 
-                FileProto.FileData fileData = protobufService.deserializeFile(s3Object.readAllBytes());
-                result.put(fileData.getFileName(), fileData);
+                FileProto.FileData fileData = protobufService.deserializeFile(body);
+                result.add(key, fileData);
+                onFile.accept(key, fileData);
             } catch (IOException e) {
                 log.warn("Skipping corrupted or unreadable delta/snapshot file: {}", key, e);
             }
         }
 
-        return result;
+        return result.files();
+    }
+
+    private byte[] readObject(String key) throws IOException {
+        byte[] body = storageMetrics.recordIo("get", key, () -> {
+            try (InputStream in = storageBackend.get(key)) {
+                return in.readAllBytes();
+            }
+        });
+        storageMetrics.bytesIn("get", key, body.length);
+        return body;
+    }
+
+    private byte[] awaitBody(CompletableFuture<byte[]> body) throws IOException {
+        try {
+            return body.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
+    }
+
+    private List<StoredObject> listObjects(String prefix) {
+        return storageMetrics.record("list", prefix, () -> storageBackend.listAll(prefix));
     }
 }
@@ -0,0 +1,76 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.config.StorageProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.*;
+
+// Runs the blocking storage calls that services fan out (downloads, uploads, copies).
+// With spring.threads.virtual.enabled every task gets its own virtual thread and a semaphore
+// limits concurrent storage calls; otherwise a platform pool of that size is the limit.
+// A task submitted from a task already running here runs inline on the submitting thread:
+// queuing it behind (or waiting for a permit held by) its own parent could deadlock the pool.
+@Service
+@Slf4j
+public class StorageIoExecutor {
+
+    private static final ThreadLocal<Boolean> IN_TASK = ThreadLocal.withInitial(() -> false);
+
+    private final ExecutorService executor;
+    // null with platform threads, the pool size already bounds them
+    private final Semaphore permits;
+
+    public StorageIoExecutor(StorageProperties storageProperties,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        int maxConcurrency = storageProperties.getIo().getMaxConcurrency();
+        this.permits = virtualThreads ? new Semaphore(maxConcurrency) : null;
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("storage-io-", 0).factory())
+                : Executors.newFixedThreadPool(maxConcurrency, Thread.ofPlatform().name("storage-io-", 0).daemon().factory());
+        log.info("Storage I/O executor: {} threads, {} concurrent calls", virtualThreads ? "virtual" : "platform", maxConcurrency);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (IN_TASK.get()) {
+            run(task, result);
+            return result;
+        }
+        executor.execute(() -> {
+            try {
+                if (permits != null) permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+                return;
+            }
+            IN_TASK.set(true);
+            try {
+                run(task, result);
+            } finally {
+                IN_TASK.set(false);
+                if (permits != null) permits.release();
+            }
+        });
+        return result;
+    }
+
+    // Whatever the task throws completes the future, so a caller never waits on one that failed.
+    // Errors are rethrown as well, for the thread's uncaught exception handler.
+    private static <T> void run(Callable<T> task, CompletableFuture<T> result) {
+        try {
+            result.complete(task.call());
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+            if (e instanceof Error error) throw error;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
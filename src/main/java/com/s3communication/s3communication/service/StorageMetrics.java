@@ -0,0 +1,163 @@
+package com.s3communication.s3communication.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Micrometer meters for storage calls, exported through /actuator/prometheus.
+// Keys are tagged by area (snapshots, delta, recordings...) and by whether their time window is still
+// open, rather than the full prefix, so the tag cardinality stays bounded while slow areas remain visible.
+// A single slow prefix inside an area is not told apart; that needs a trace of the request.
+// Meters are registered once per tag combination and reused, not rebuilt on every call.
+@Service
+public class StorageMetrics {
+
+    // every key maps onto one of these or "other", whatever the caller passes in
+    private static final Set<String> AREAS = Set.of("delta", "snapshots", "recordings", "checkpoints");
+    private static final String OTHER_AREA = "other";
+    // window tag of keys without a date
+    private static final String NO_WINDOW = "none";
+
+    private final MeterRegistry registry;
+
+    private final Map<MeterKey, Timer> operationTimers = new ConcurrentHashMap<>();
+    private final Map<MeterKey, DistributionSummary> byteSummaries = new ConcurrentHashMap<>();
+    private final Map<String, Timer> snapshotBuildTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> playbackWriterTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary replayObjects;
+    private final Counter snapshotFilesWritten;
+
+    private record MeterKey(String first, String second, String third, String fourth) {
+    }
+
+    public StorageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.replayObjects = DistributionSummary.builder("storage.replay.objects")
+                .description("Objects fetched to reconstruct one replay")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.snapshotFilesWritten = registry.counter("storage.snapshot.files.written");
+    }
+
+    @FunctionalInterface
+    public interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    // Times a storage operation (list, get, put, delete, presign...) against the given key or prefix
+    public <T> T record(String operation, String key, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "error";
+        try {
+            T result = call.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(operationTimer(operation, key, outcome));
+        }
+    }
+
+    public void record(String operation, String key, Runnable call) {
+        record(operation, key, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public <T> T recordIo(String operation, String key, IoCall<T> call) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "error";
+        try {
+            T result = call.call();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(operationTimer(operation, key, outcome));
+        }
+    }
+
+    public void bytesIn(String operation, String key, long bytes) {
+        bytes("in", operation, key).record(bytes);
+    }
+
+    public void bytesOut(String operation, String key, long bytes) {
+        bytes("out", operation, key).record(bytes);
+    }
+
+    public void objectsPerReplay(int objects) {
+        replayObjects.record(objects);
+    }
+
+    public Timer.Sample startSnapshotBuild() {
+        return Timer.start(registry);
+    }
+
+    public void snapshotBuilt(Timer.Sample sample, int filesWritten, String outcome) {
+        sample.stop(snapshotBuildTimers.computeIfAbsent(outcome, o -> Timer.builder("storage.snapshot.build")
+                .description("Duration of one snapshot build")
+                .tag("outcome", o)
+                .publishPercentileHistogram()
+                .register(registry)));
+        snapshotFilesWritten.increment(filesWritten);
+    }
+
+    // phase is "flush" or "rotation"
+    public void playbackWriter(String phase, long nanos) {
+        playbackWriterTimers.computeIfAbsent(phase, p -> Timer.builder("playback.writer")
+                        .tag("phase", p)
+                        .publishPercentileHistogram()
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer operationTimer(String operation, String key, String outcome) {
+        return operationTimers.computeIfAbsent(new MeterKey(operation, areaOf(key), windowOf(key), outcome),
+                k -> Timer.builder("storage.operation")
+                        .description("Latency of storage calls")
+                        .tag("operation", k.first())
+                        .tag("area", k.second())
+                        .tag("window", k.third())
+                        .tag("outcome", k.fourth())
+                        .publishPercentileHistogram()
+                        .register(registry));
+    }
+
+    private DistributionSummary bytes(String direction, String operation, String key) {
+        return byteSummaries.computeIfAbsent(new MeterKey(direction, operation, areaOf(key), windowOf(key)),
+                k -> DistributionSummary.builder("storage.bytes")
+                        .baseUnit("bytes")
+                        .tag("direction", k.first())
+                        .tag("operation", k.second())
+                        .tag("area", k.third())
+                        .tag("window", k.fourth())
+                        .register(registry));
+    }
+
+    // The first folder naming a known area: yyyy/MM/dd/snapshots/HH/file -> snapshots,
+    // recordings/x.rec -> recordings; anything else (exports, markers, indexes...) -> other
+    static String areaOf(String key) {
+        if (key == null) return OTHER_AREA;
+        String[] parts = key.split("/");
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (AREAS.contains(parts[i])) return parts[i];
+        }
+        return OTHER_AREA;
+    }
+
+    // open while the key's day, hour or 15-minute window is still running, closed after; none without a date
+    static String windowOf(String key) {
+        TimeWindow window = key != null ? TimeWindow.of(key) : null;
+        if (window == null) return NO_WINDOW;
+        return window.isClosed(Duration.ZERO) ? "closed" : "open";
+    }
+}
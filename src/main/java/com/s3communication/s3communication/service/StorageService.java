@@ -1,29 +1,45 @@
 package com.s3communication.s3communication.service;
 
-import com.s3communication.s3communication.config.AwsProperties;
+import com.s3communication.s3communication.DTO.ContentSlice;
+import com.s3communication.s3communication.DTO.ObjectStream;
 import com.s3communication.s3communication.DTO.ReplayDataResponse;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.DTO.UploadResult;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.enums.ArchiveFormat;
 import com.s3communication.s3communication.enums.FileType;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.exceptions.RangeNotSatisfiableException;
 import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.interfaces.StorageBackend;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -32,87 +48,356 @@ import java.util.zip.ZipOutputStream;
 @Slf4j
 public class StorageService {
 
-    private final S3Client s3Client;
-    private final S3Presigner s3Presigner;
-    private final AwsProperties awsProperties;
+    private final StorageBackend storageBackend;
     private final ProtobufService protobufService;
+    private final StorageMetrics storageMetrics;
+    private final DeltaPacker deltaPacker;
+    private final StorageIoExecutor storageIoExecutor;
+    private final DeltaPatcher deltaPatcher;
+    private final NameIndex nameIndex;
+    private final BufferPool bufferPool;
+    private final StorageProperties storageProperties;
+    private final ListingCache listingCache;
+    private final SnapshotProperties snapshotProperties;
 
-    public List<String> uploadFiles(List<MultipartFile> files, FileType type) {
-        List<String> uploadedKeys = new ArrayList<>();
+    // concurrent identical reads share one storage round trip. Keys start with the listing cache generation
+    // of what the read covers, so a call made after a local write to it never joins a read that started before
+    private final SingleFlight<List<Object>, byte[]> objectReads = new SingleFlight<>();
+    private final SingleFlight<List<Object>, List<StoredObject>> listings = new SingleFlight<>();
+    private final SingleFlight<List<Object>, ReplayDataResponse> replayDataRequests = new SingleFlight<>();
+    private final SingleFlight<List<Object>, Map<String, FileProto.FileData>> replayRequests = new SingleFlight<>();
 
-        for (MultipartFile file : files) {
-            try {
-                String filename = Paths.get(Objects.requireNonNull(file.getOriginalFilename())).getFileName().toString();
-                LocalDateTime now = LocalDateTime.now();
+    // how much of a pack is fetched to read its index; larger indexes cost one more ranged GET
+    private static final int PACK_HEAD_BYTES = 64 * 1024;
+    // enough of a FileData to reach its content field for any sane file name
+    private static final int ENVELOPE_HEAD_BYTES = 4 * 1024;
+    // files fetched ahead of the one being zipped, bounds the memory a large prefix zip holds
+    private static final int ZIP_READ_AHEAD = 16;
+
+    // ETags of immutable objects never change, so they are answered without a HEAD
+    private static final int CLOSED_ETAG_CACHE_SIZE = 10_000;
+    private final Map<String, String> closedETags = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CLOSED_ETAG_CACHE_SIZE;
+                }
+            });
+    private static final String SNAPSHOTS_FOLDER = "/snapshots/";
+    // {yyyy/MM/dd}/delta/{HH}/ at the start of a key or prefix
+    private static final Pattern DELTA_HOUR = Pattern.compile("^(\\d{4}/\\d{2}/\\d{2})/delta/(\\d{2})/");
+    // zip entries outside any window get a fixed time so the same files always zip to the same bytes
+    private static final LocalDateTime ZIP_EPOCH = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    // Files of a batch are uploaded concurrently; each one reports its own success or failure
+    public List<UploadResult> uploadFiles(List<MultipartFile> files, FileType type) {
+        LocalDateTime now = LocalDateTime.now();
 
-                String datePath = now.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-                String hour = now.format(DateTimeFormatter.ofPattern("HH"));
-                String minute = roundToNearest15Minutes(now.toLocalTime()).format(DateTimeFormatter.ofPattern("mm"));
+        List<CompletableFuture<String>> pending = files.stream()
+                .map(file -> uploadFile(file, type, now).thenApply(key -> {
+                    listingCache.invalidate(key); // the next listing of its folders must show the new file
+                    return key;
+                }))
+                .toList();
+
+        List<UploadResult> results = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            String originalName = files.get(i).getOriginalFilename();
+            try {
+                results.add(new UploadResult(originalName, pending.get(i).join(), true, null));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.warn("Failed to upload file: {}", originalName, cause);
+                results.add(new UploadResult(originalName, null, false, cause.getMessage()));
+            }
+        }
+        return results;
+    }
 
-                // Build path for snapshot or delta
-                String fullKey = switch (type) {
-                    case SNAPSHOT -> String.format("%s/snapshots/%s/%s", datePath, hour, filename);
-                    case DELTA -> String.format("%s/delta/%s/%s/%s", datePath, hour, minute, filename);
-                };
+    private CompletableFuture<String> uploadFile(MultipartFile file, FileType type, LocalDateTime now) {
+        try {
+            String filename = Paths.get(Objects.requireNonNull(file.getOriginalFilename())).getFileName().toString();
 
-                // Serialize using protobuf
-                byte[] serialized = protobufService.serializeFile(file);
+            String datePath = now.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+            String hour = now.format(DateTimeFormatter.ofPattern("HH"));
+            String minute = roundToNearest15Minutes(now.toLocalTime()).format(DateTimeFormatter.ofPattern("mm"));
 
-                PutObjectRequest request = PutObjectRequest.builder()
-                        .bucket(awsProperties.getS3().getBucketName())
-                        .key(fullKey)
-                        .contentType("application/x-protobuf")
-                        .build();
+            // Build path for snapshot or delta
+            String fullKey = switch (type) {
+                case SNAPSHOT -> String.format("%s/snapshots/%s/%s", datePath, hour, filename);
+                case DELTA -> String.format("%s/delta/%s/%s/%s", datePath, hour, minute, filename);
+            };
 
-                s3Client.putObject(request, RequestBody.fromBytes(serialized));
-                uploadedKeys.add(fullKey);
+            // Large deltas may be stored as a patch against the previous version
+            if (type == FileType.DELTA && deltaPatcher.isEligible(file.getSize())) {
+                FileProto.FileData fileData = protobufService.toFileData(file);
+                return storageIoExecutor.submit(() -> uploadPatchable(fullKey, fileData));
+            }
 
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to upload one of the files", e);
+            // Small deltas are coalesced into one packed object per window,
+            // the key completes once the pack is stored
+            if (type == FileType.DELTA && deltaPacker.isEnabled()) {
+                String windowPrefix = String.format("%s/delta/%s/%s/", datePath, hour, minute);
+                return deltaPacker.add(windowPrefix, protobufService.toFileData(file));
             }
+
+            return storageIoExecutor.submit(() -> {
+                // Stream the protobuf envelope: header bytes, the file content as it is read, then the trailer
+                byte[] header = protobufService.envelopeHeader(file.getOriginalFilename(), file.getSize());
+                byte[] trailer = protobufService.envelopeTrailer(protobufService.nextUploadSequence());
+                long length = header.length + file.getSize() + trailer.length;
+                try (InputStream body = new SequenceInputStream(Collections.enumeration(List.of(
+                        new ByteArrayInputStream(header), file.getInputStream(), new ByteArrayInputStream(trailer))))) {
+                    storageMetrics.record("put", fullKey,
+                            () -> storageBackend.put(fullKey, body, length, "application/x-protobuf"));
+                }
+                storageMetrics.bytesOut("put", fullKey, length);
+                return fullKey;
+            });
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private String uploadPatchable(String fullKey, FileProto.FileData fileData) throws IOException {
+        FileProto.FileData stored = deltaPatcher.encode(fileData);
+        String key = stored.hasPatch() ? fullKey + DeltaPatcher.PATCH_SUFFIX : fullKey;
+
+        // serialized once, straight into an off-heap buffer the SDK sends without copying
+        int size = stored.getSerializedSize();
+        ByteBuffer body = bufferPool.acquireDirect(size);
+        try {
+            protobufService.writeFile(stored, body);
+            body.flip();
+            storageMetrics.record("put", key, () -> storageBackend.put(key, body, "application/x-protobuf"));
+        } finally {
+            bufferPool.releaseDirect(body);
         }
+        storageMetrics.bytesOut("put", key, size);
 
-        return uploadedKeys;
+        if (!stored.hasPatch()) {
+            deltaPatcher.rememberBase(fileData);
+        }
+        return key;
     }
 
     public byte[] downloadFile(String key) {
+        return readFileData(key).getContent().toByteArray();
+    }
+
+    private FileProto.FileData readFileData(String key) {
         try {
-            GetObjectRequest request = GetObjectRequest.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .key(key)
-                    .build();
-
-            try (ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(request)) {
-                FileProto.FileData protoData = protobufService.deserializeFile(s3Object.readAllBytes());
-                return protoData.getContent().toByteArray();
-            }
+            FileProto.FileData protoData = isPackedKey(key)
+                    ? readPackedEntry(key)
+                    : protobufService.deserializeFile(readObject(key));
+            return deltaPatcher.resolve(protoData, null);
 
         } catch (IOException e) {
             throw new RuntimeException("Failed to download file", e);
         }
     }
 
+    // Content for streaming to a response without copies: the object (or pack entry) is read into a
+    // pooled buffer and parsed with aliasing, so the returned view points straight into that buffer.
+    // The caller must close it once the bytes are written.
+    public PooledContent openContent(String key) {
+        BufferPool.PooledBuffer buffer = null;
+        try {
+            if (key.endsWith(DeltaPatcher.PATCH_SUFFIX)) {
+                return new PooledContent(readFileData(key).getContent().asReadOnlyByteBuffer(), bufferPool, null);
+            }
+
+            String objectKey = key;
+            long start = 0;
+            long end = Long.MAX_VALUE;
+            int sizeHint = 0;
+            if (isPackedKey(key)) {
+                objectKey = key.substring(0, key.indexOf(DeltaPacker.ENTRY_SEPARATOR));
+                ProtobufService.PackHeader header = readPackHeader(objectKey);
+                FileProto.PackEntry entry = findPackEntry(key, header.index());
+                start = header.dataStart() + entry.getOffset();
+                end = start + entry.getLength() - 1;
+                sizeHint = (int) entry.getLength();
+            }
+
+            String readKey = objectKey;
+            long from = start;
+            long to = end;
+            int hint = sizeHint;
+            buffer = storageMetrics.recordIo("get", readKey, () -> {
+                if (to != Long.MAX_VALUE) {
+                    try (InputStream in = storageBackend.getRange(readKey, from, to)) {
+                        return bufferPool.readFully(in, hint);
+                    }
+                }
+                // the length comes with the GET, so the buffer is taken once at the right size
+                ObjectStream object = storageBackend.getWithLength(readKey);
+                try (InputStream in = object.getBody()) {
+                    return bufferPool.readFully(in, (int) Math.min(object.getLength(), Integer.MAX_VALUE - 8));
+                }
+            });
+            storageMetrics.bytesIn("get", readKey, buffer.length());
+
+            FileProto.FileData fileData = protobufService.deserializeFile(buffer.array(), 0, buffer.length());
+            return new PooledContent(fileData.getContent().asReadOnlyByteBuffer(), bufferPool, buffer.array());
+        } catch (IOException | RuntimeException e) {
+            if (buffer != null) bufferPool.release(buffer.array());
+            if (e instanceof RuntimeException runtime) throw runtime;
+            throw new RuntimeException("Failed to download file", e);
+        }
+    }
+
+    // Reads only the requested bytes of a file's content: a small ranged GET locates the content inside
+    // the protobuf envelope (after the pack index for packed keys), a second one fetches the range.
+    // Patched files have no stored content to seek in, they are rebuilt and sliced.
+    public ContentSlice downloadRange(String key, HttpRange range) {
+        try {
+            ContentLocation location = locateContent(key);
+            if (location == null) {
+                byte[] content = downloadFile(key);
+                long[] bounds = rangeBounds(range, content.length);
+                InputStream body = new ByteArrayInputStream(content, (int) bounds[0], (int) (bounds[1] - bounds[0] + 1));
+                return new ContentSlice(body, bounds[0], bounds[1], content.length);
+            }
+
+            long[] bounds = rangeBounds(range, location.length());
+            long from = location.offset() + bounds[0];
+            long to = location.offset() + bounds[1];
+            InputStream body = storageMetrics.record("get", location.objectKey(),
+                    () -> storageBackend.getRange(location.objectKey(), from, to));
+            storageMetrics.bytesIn("get", location.objectKey(), to - from + 1);
+            return new ContentSlice(body, bounds[0], bounds[1], location.length());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to download file range", e);
+        }
+    }
+
+    // objectKey and absolute offset of a file's content bytes
+    private record ContentLocation(String objectKey, long offset, long length) {
+    }
+
+    private ContentLocation locateContent(String key) throws IOException {
+        if (key.endsWith(DeltaPatcher.PATCH_SUFFIX)) return null;
+
+        String objectKey = key;
+        long envelopeStart = 0;
+        long envelopeLength = ENVELOPE_HEAD_BYTES;
+        if (isPackedKey(key)) {
+            objectKey = key.substring(0, key.indexOf(DeltaPacker.ENTRY_SEPARATOR));
+            ProtobufService.PackHeader header = readPackHeader(objectKey);
+            FileProto.PackEntry match = findPackEntry(key, header.index());
+            envelopeStart = header.dataStart() + match.getOffset();
+            envelopeLength = Math.min(match.getLength(), ENVELOPE_HEAD_BYTES);
+        }
+
+        ProtobufService.ContentPosition position = protobufService.readContentPosition(
+                readRange(objectKey, envelopeStart, envelopeStart + envelopeLength - 1));
+        return position == null ? null
+                : new ContentLocation(objectKey, envelopeStart + position.offset(), position.length());
+    }
+
+    // {start, endInclusive} of range within content of the given length
+    private long[] rangeBounds(HttpRange range, long length) {
+        try {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (length == 0 || start > end) {
+                throw new RangeNotSatisfiableException(length);
+            }
+            return new long[]{start, end};
+        } catch (IllegalArgumentException e) {
+            throw new RangeNotSatisfiableException(length);
+        }
+    }
+
+    // ETag of a file, taken from its stored object (the pack for packed entries). Weak when the backend
+    // cannot vouch for the bytes, and then never cached: it could repeat for a rewrite of an immutable key
+    public String eTag(String key) {
+        String objectKey = isPackedKey(key) ? key.substring(0, key.indexOf(DeltaPacker.ENTRY_SEPARATOR)) : key;
+        String cached = closedETags.get(objectKey);
+        if (cached != null) return cached;
+
+        StoredObject object = storageMetrics.record("head", objectKey, () -> storageBackend.head(objectKey));
+        String eTag = object.getETag().startsWith("\"") || isWeak(object.getETag())
+                ? object.getETag() : "\"" + object.getETag() + "\"";
+        if (!isWeak(eTag) && isImmutable(objectKey)) {
+            closedETags.put(objectKey, eTag);
+        }
+        return eTag;
+    }
+
+    // ETag for the zip of a prefix: a digest of every listed key and its ETag, weak if any of those is
+    public String prefixETag(String prefix) {
+        String normalized = prefix.endsWith("/") ? prefix : prefix + "/";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            boolean weak = false;
+            for (StoredObject object : listUserObjects(normalized)) {
+                digest.update((object.getKey() + "\n" + object.getETag() + "\n").getBytes(StandardCharsets.UTF_8));
+                weak |= isWeak(object.getETag());
+            }
+            return (weak ? "W/" : "") + "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isWeak(String eTag) {
+        return eTag.startsWith("W/");
+    }
+
+    // Immutable files can be cached for long, everything else is revalidated with its ETag
+    public CacheControl cacheControl(String keyOrPrefix) {
+        return isImmutable(keyOrPrefix)
+                ? CacheControl.maxAge(storageProperties.getHttpCaching().getClosedMaxAge()).cachePublic().immutable()
+                : CacheControl.noCache();
+    }
+
+    // Delta files of a closed window, or of a closed delta hour, once that hour's snapshot is committed:
+    // nothing is written to them any more. Snapshots, and whole days, are never immutable since a
+    // backfill may rebuild a committed hour at any time.
+    public boolean isImmutable(String keyOrPrefix) {
+        Matcher deltaHour = DELTA_HOUR.matcher(keyOrPrefix);
+        TimeWindow window = TimeWindow.of(keyOrPrefix);
+        if (!deltaHour.find() || window == null || !window.isClosed(storageProperties.getHttpCaching().getClosedAfter())) {
+            return false;
+        }
+        LocalDate date = LocalDate.parse(deltaHour.group(1), DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        return isCommitted(snapshotMarkers(date), Integer.parseInt(deltaHour.group(2)));
+    }
+
+    // entries are stamped with their window start rather than the current time, so zips are reproducible
+    private ZipEntry zipEntry(String name, String key) {
+        ZipEntry entry = new ZipEntry(name);
+        TimeWindow window = TimeWindow.of(key);
+        entry.setTimeLocal(window != null ? window.start() : ZIP_EPOCH);
+        return entry;
+    }
+
     public String deleteFile(String key) {
+        if (MetaKeys.isInternal(key)) {
+            return "Error deleting: " + key + " is managed by the service";
+        }
         try {
-            s3Client.deleteObject(DeleteObjectRequest.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .key(key)
-                    .build());
+            storageMetrics.record("delete", key, () -> storageBackend.delete(key));
+            listingCache.invalidate(key);
+            closedETags.remove(key);
             return "Deleted: " + key;
-        } catch (S3Exception e) {
-            return "Error deleting: " + e.awsErrorDetails().errorMessage();
+        } catch (RuntimeException e) {
+            return "Error deleting: " + e.getMessage();
         }
     }
 
     public byte[] downloadAndZipFiles(List<String> keys) {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
              ZipOutputStream zos = new ZipOutputStream(baos)) {
-            // iterate over all keys and downloads and deserializes each file
+            // each file is read into a pooled buffer that goes back to the pool once its entry is written
             for (String key : keys) {
-                byte[] fileBytes = downloadFile(key);
-                zos.putNextEntry(new ZipEntry(Paths.get(key).getFileName().toString()));
-                zos.write(fileBytes);
-                zos.closeEntry();
+                try (PooledContent content = openContent(key)) {
+                    zos.putNextEntry(zipEntry(stripPatchSuffix(Paths.get(key).getFileName().toString()), key));
+                    content.writeTo(zos);
+                    zos.closeEntry();
+                }
             }
 
             zos.finish();
@@ -123,58 +408,83 @@ public class StorageService {
     }
 
     public byte[] downloadFilesByPrefixAsZip(String prefix) {
-        String normalized = prefix.endsWith("/") ? prefix : prefix + "/";
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            writePrefixZip(prefix, baos);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to zip files with structure", e);
+        }
+    }
 
-        ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                .bucket(awsProperties.getS3().getBucketName())
-                .prefix(normalized)
-                .build());
+    // Zips everything under prefix into out, which is finished but left open.
+    // Files are read up to ZIP_READ_AHEAD ahead on the I/O executor while entries are written in key order,
+    // each into a pooled buffer released once its entry is written.
+    public void writePrefixZip(String prefix, OutputStream out) throws IOException {
+        String normalized = prefix.endsWith("/") ? prefix : prefix + "/";
 
-        List<String> keys = response.contents().stream()
-                .map(S3Object::key)
-                .filter(k -> !k.endsWith("/")) // Ignore folder placeholders
+        List<String> keys = listUserObjects(normalized).stream()
+                .map(StoredObject::getKey)
+                .flatMap(k -> expandPackedKeys(k).stream())
                 .toList();
 
-        return downloadAndZipFilesWithPaths(keys, normalized);
-    }
-
-    private byte[] downloadAndZipFilesWithPaths(List<String> keys, String basePrefix) {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             ZipOutputStream zos = new ZipOutputStream(baos)) {
-
+        ZipOutputStream zos = new ZipOutputStream(out);
+        ArrayDeque<CompletableFuture<PooledContent>> reads = new ArrayDeque<>();
+        int next = 0;
+        try {
             for (String key : keys) {
-                byte[] fileBytes = downloadFile(key);
+                while (next < keys.size() && reads.size() < ZIP_READ_AHEAD) {
+                    String readKey = keys.get(next++);
+                    reads.add(storageIoExecutor.submit(() -> openContent(readKey)));
+                }
 
-                // Preserve folder structure by making ZIP entry relative to base prefix
-                String zipEntryPath = key.substring(basePrefix.length());
+                // Preserve folder structure by making ZIP entry relative to base prefix,
+                // packed entries appear in their window folder as if uploaded one by one
+                String zipEntryPath = stripPatchSuffix(key.substring(normalized.length()).replaceFirst("[^/]+\\.pack!/", ""));
 
-                zos.putNextEntry(new ZipEntry(zipEntryPath));
-                zos.write(fileBytes);
-                zos.closeEntry();
+                try (PooledContent content = awaitContent(reads.poll())) {
+                    zos.putNextEntry(zipEntry(zipEntryPath, key));
+                    content.writeTo(zos);
+                    zos.closeEntry();
+                }
             }
-
             zos.finish();
-            return baos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to zip files with structure", e);
+        } finally {
+            // a failed zip still returns the buffers read ahead, including reads that finish later
+            reads.forEach(read -> read.thenAccept(PooledContent::close));
         }
     }
 
+    private PooledContent awaitContent(CompletableFuture<PooledContent> read) throws IOException {
+        try {
+            return read.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
+    }
+
+    // a patched version is named after the file it rebuilds
+    private String stripPatchSuffix(String name) {
+        return name.endsWith(DeltaPatcher.PATCH_SUFFIX)
+                ? name.substring(0, name.length() - DeltaPatcher.PATCH_SUFFIX.length())
+                : name;
+    }
+
+    // Packs are listed as the files inside them, with the pack's upload time and each entry's stored size.
+    // Ordered by upload time, so of two versions of one name in a window the later one comes last.
     public List<Map<String, Object>> listFileMetadataByPrefix(String prefix) {
         String normalized = prefix.endsWith("/") ? prefix : prefix + "/";
 
-        return s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                        .bucket(awsProperties.getS3().getBucketName())
-                        .prefix(normalized)
-                        .build())
-                .contents().stream()
-                .filter(obj -> !obj.key().endsWith("/"))
+        return listUserObjects(normalized).stream()
+                .flatMap(obj -> expandPackedObjects(obj).stream())
+                .sorted(Comparator.comparing(StoredObject::getLastModified).thenComparing(StoredObject::getKey))
                 .map(obj -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("fileName", Paths.get(obj.key()).getFileName().toString());
-                    map.put("s3Key", obj.key());
-                    map.put("size", obj.size());
-                    map.put("lastModified", obj.lastModified().atZone(ZoneId.systemDefault()).toString());
+                    map.put("fileName", Paths.get(obj.getKey()).getFileName().toString());
+                    map.put("s3Key", obj.getKey());
+                    map.put("size", obj.getSize());
+                    map.put("lastModified", obj.getLastModified().atZone(ZoneId.systemDefault()).toString());
                     return map;
                 })
                 .toList();
@@ -183,6 +493,11 @@ public class StorageService {
     // Returns a DTO for replay data segmented by time
     // without snapshot and delta logic
     public ReplayDataResponse getReplayData(LocalDate date, int startHour, int endHour) {
+        return replayDataRequests.execute(List.of(replayGeneration(date), date, startHour, endHour),
+                () -> buildReplayData(date, startHour, endHour));
+    }
+
+    private ReplayDataResponse buildReplayData(LocalDate date, int startHour, int endHour) {
         List<String> staticData = getStaticPresignedUrls(date);
         Map<LocalDateTime, List<String>> dynamicData = new TreeMap<>();
 
@@ -197,13 +512,12 @@ public class StorageService {
 
             String bucketPrefix = String.format("%s/delta/%s/%s/", datePrefix, hour, minute);
 
-            ListObjectsV2Response response = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .prefix(bucketPrefix)
-                    .build());
+            List<String> keys = listObjects(bucketPrefix).stream()
+                    .flatMap(o -> expandPackedKeys(o.getKey()).stream())
+                    .toList();
 
-            for (S3Object obj : response.contents()) {
-                Matcher matcher = Pattern.compile("(\\d{4})-").matcher(Paths.get(obj.key()).getFileName().toString());
+            for (String key : keys) {
+                Matcher matcher = Pattern.compile("(\\d{4})-").matcher(Paths.get(key).getFileName().toString());
                 if (matcher.find()) {
                     String timeStr = matcher.group(1);
                     LocalDateTime timestamp = date.atTime(
@@ -212,7 +526,7 @@ public class StorageService {
                     );
 
                     dynamicData.computeIfAbsent(timestamp, t -> new ArrayList<>())
-                            .add(generatePresignedUrl(obj.key()));
+                            .add(generatePresignedUrl(key));
                 }
             }
         }
@@ -220,58 +534,307 @@ public class StorageService {
         return new ReplayDataResponse(staticData, dynamicData);
     }
 
+    // The state getReplay returns for the window holding hour:minute, as file name -> the key its content
+    // is read from with openContent. Nothing but locations is kept, so it stays small whatever the state.
+    // files: exact names or globs to keep, null or empty for every file.
+    public Map<String, String> locateReplay(LocalDate date, int hour, int minute, List<String> files) {
+        return reconstructReplay(date, hour, 0, hour, minute, FileNameFilter.of(files), sourceLocator);
+    }
+
+    // Writes located files as one archive in file name order, every entry stamped with instant, so the
+    // same state always produces the same bytes. Contents are read ZIP_READ_AHEAD files ahead into pooled
+    // buffers while entries are written, so memory does not grow with the state. out is finished but left open.
+    public void writeArchive(Map<String, String> sources, ArchiveFormat format, LocalDateTime instant,
+                             OutputStream out) throws IOException {
+        List<String> names = sources.keySet().stream().sorted().toList();
+
+        ZipOutputStream zos = format == ArchiveFormat.ZIP ? new ZipOutputStream(out) : null;
+        TarWriter tar = format == ArchiveFormat.TAR ? new TarWriter(out) : null;
+        long modified = instant.atZone(ZoneId.systemDefault()).toEpochSecond();
+        ArrayDeque<CompletableFuture<PooledContent>> reads = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (String name : names) {
+                while (next < names.size() && reads.size() < ZIP_READ_AHEAD) {
+                    String source = sources.get(names.get(next++));
+                    reads.add(storageIoExecutor.submit(() -> openContent(source)));
+                }
+                try (PooledContent content = awaitContent(reads.poll())) {
+                    if (zos != null) {
+                        ZipEntry entry = new ZipEntry(name);
+                        entry.setTimeLocal(instant);
+                        zos.putNextEntry(entry);
+                        content.writeTo(zos);
+                        zos.closeEntry();
+                    } else {
+                        tar.putEntry(name, content.length(), modified);
+                        content.writeTo(tar.entryStream());
+                    }
+                }
+            }
+            if (zos != null) {
+                zos.finish();
+            } else {
+                tar.finish();
+            }
+        } finally {
+            reads.forEach(read -> read.thenAccept(PooledContent::close));
+        }
+    }
+
     public Map<String, FileProto.FileData> getReplay(LocalDate date, int startHour, int startMinute, int endHour, int endMinute) {
-        Map<String, FileProto.FileData> reconstructedData = new HashMap<>();
+        return getReplay(date, startHour, startMinute, endHour, endMinute, null);
+    }
+
+    // The state at the end of the 15-minute window holding endHour:endMinute. The start only has to
+    // lie at or before the end: every change up to the end counts, whenever it was made.
+    // files: exact names or globs to keep, null or empty for every file.
+    // The result may be shared by concurrent callers, so it is read-only
+    public Map<String, FileProto.FileData> getReplay(LocalDate date, int startHour, int startMinute, int endHour, int endMinute,
+                                                     List<String> files) {
+        FileNameFilter filter = FileNameFilter.of(files);
+        List<Object> requestKey = List.of(replayGeneration(date), date, startHour, startMinute, endHour, endMinute,
+                filter == null ? List.of() : filter.patterns());
+        return replayRequests.execute(requestKey,
+                () -> Collections.unmodifiableMap(reconstructReplay(date, startHour, startMinute, endHour, endMinute, filter, fileReader)));
+    }
+
+    // A replay of date reads that day and, through the snapshot chain, the days up to chainLookback before it
+    private long replayGeneration(LocalDate date) {
+        List<String> days = new ArrayList<>();
+        LocalDate first = date.atStartOfDay().minus(snapshotProperties.getChainLookback()).toLocalDate();
+        for (LocalDate day = first; !day.isAfter(date); day = day.plusDays(1)) {
+            days.add(day.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) + "/");
+        }
+        return listingCache.generation(days);
+    }
+
+    // How a replay turns the objects it lists into state and applies later changes onto it
+    private interface ReplayReader<V> {
+        Map<String, V> read(List<String> keys, FileNameFilter filter);
+
+        void apply(Map<String, V> state, Map<String, V> changes);
+    }
+
+    // whole files, patched files rebuilt
+    private final ReplayReader<FileProto.FileData> fileReader = new ReplayReader<>() {
+        @Override
+        public Map<String, FileProto.FileData> read(List<String> keys, FileNameFilter filter) {
+            return readLatest(keys, filter).files();
+        }
 
-        // Load base snapshot at start hour
-        reconstructedData.putAll(loadSnapshot(date, startHour));
+        @Override
+        public void apply(Map<String, FileProto.FileData> state, Map<String, FileProto.FileData> changes) {
+            deltaPatcher.applyAll(state, changes);
+        }
+    };
+
+    // only the key each file's latest version can be read from with openContent
+    private final ReplayReader<String> sourceLocator = new ReplayReader<>() {
+        @Override
+        public Map<String, String> read(List<String> keys, FileNameFilter filter) {
+            return locateFiles(keys, filter);
+        }
+
+        @Override
+        public void apply(Map<String, String> state, Map<String, String> changes) {
+            state.putAll(changes);
+        }
+    };
 
-        // Iterate from start to end in 15-minute intervals
+    // filter null replays every file; otherwise windows, snapshots and checkpoint packs whose name index
+    // rules the names out are skipped, and only matching objects and pack entries are fetched
+    private <V> Map<String, V> reconstructReplay(LocalDate date, int startHour, int startMinute, int endHour, int endMinute,
+                                                 FileNameFilter filter, ReplayReader<V> reader) {
         LocalDateTime start = date.atTime(startHour, (startMinute / 15) * 15);
         LocalDateTime end = date.atTime(endHour, (endMinute / 15) * 15);
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("Replay range starts after it ends: " + start + " > " + end);
+        }
+
+        Optional<Map<String, V>> fromCheckpoints = reconstructFromCheckpoints(end, filter, reader);
+        if (fromCheckpoints.isPresent()) {
+            return fromCheckpoints.get();
+        }
 
-        for (LocalDateTime current = start; !current.isAfter(end); current = current.plusMinutes(15)) {
-            reconstructedData.putAll(loadDeltaFiles(current)); // Apply deltas
+        // Days built before checkpoints existed: the latest snapshot before the end hour, which holds every
+        // change up to the end of its hour, plus the delta windows after it. The end hour's own snapshot
+        // cannot be used, it already holds the windows after the end.
+        Map<String, V> reconstructedData = new HashMap<>();
+        int objectsFetched = 0;
+        LocalDateTime firstDeltaHour = end.withMinute(0).minus(snapshotProperties.getChainLookback());
+        Optional<LocalDateTime> snapshotHour = latestSnapshotHourBefore(end);
+        if (snapshotHour.isPresent()) {
+            LocalDateTime hour = snapshotHour.get();
+            Map<String, V> snapshot = loadSnapshot(hour.toLocalDate(), hour.getHour(), filter, reader);
+            reconstructedData.putAll(snapshot);
+            objectsFetched += snapshot.size();
+            firstDeltaHour = hour.plusHours(1);
         }
+        objectsFetched += applyDeltas(reconstructedData, firstDeltaHour, end, filter, reader);
 
+        storageMetrics.objectsPerReplay(objectsFetched);
         return reconstructedData;
     }
 
-    private Map<String, FileProto.FileData> loadSnapshot(LocalDate date, int hour) {
+    // Latest hour before end's hour, at most chainLookback back, whose snapshot holds files and can be read
+    private Optional<LocalDateTime> latestSnapshotHourBefore(LocalDateTime end) {
+        LocalDateTime endHour = end.withMinute(0);
+        LocalDateTime limit = endHour.minus(snapshotProperties.getChainLookback());
+        Map<LocalDate, Set<Integer>> readableHours = new HashMap<>();
+        for (LocalDateTime candidate = endHour.minusHours(1); !candidate.isBefore(limit); candidate = candidate.minusHours(1)) {
+            if (readableHours.computeIfAbsent(candidate.toLocalDate(), this::readableSnapshotHours).contains(candidate.getHour())) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    // Hours of the day holding snapshot files that can be read, see isSnapshotReadable
+    private Set<Integer> readableSnapshotHours(LocalDate date) {
+        String prefix = date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) + "/snapshots/";
+        Map<Integer, Set<String>> markers = snapshotMarkers(date);
+        return listObjects(prefix).stream()
+                .map(o -> twoDigitFolder(o.getKey(), prefix.length()))
+                .filter(hour -> isSnapshotReadable(markers, hour))
+                .collect(Collectors.toSet());
+    }
+
+    // State at the end of the window containing `end`:
+    // daily checkpoint + latest hourly checkpoint before that hour + deltas after it.
+    // In steady state that is two packs and the current hour's delta windows, whatever the history length.
+    // Empty when the day has no checkpoints yet.
+    private <V> Optional<Map<String, V>> reconstructFromCheckpoints(LocalDateTime end, FileNameFilter filter,
+                                                                    ReplayReader<V> reader) {
+        LocalDate date = end.toLocalDate();
+        String hourlyRoot = SnapshotBuilderService.hourlyCheckpointRoot(date);
+
+        // only committed hours: shards of an hour still building may have written part of its checkpoint
+        Map<Integer, Set<String>> markers = snapshotMarkers(date);
+        OptionalInt checkpointHour = listObjects(hourlyRoot).stream()
+                .map(o -> o.getKey().substring(hourlyRoot.length(), hourlyRoot.length() + 2))
+                .mapToInt(Integer::parseInt)
+                .filter(h -> h < end.getHour() && isCommitted(markers, h))
+                .max();
+
+        List<String> dailyKeys = listObjects(SnapshotBuilderService.dailyCheckpointPrefix(date)).stream()
+                .map(StoredObject::getKey)
+                .toList();
+        if (dailyKeys.isEmpty() && checkpointHour.isEmpty()) {
+            return Optional.empty();
+        }
+        // the daily checkpoint is written by the day before's hour 23 and only complete once that commits
+        if (!dailyKeys.isEmpty() && !isCommitted(snapshotMarkers(date.minusDays(1)), 23)) {
+            return Optional.empty();
+        }
+
+        Map<String, V> daily = mayContain(NameIndex.dailyCheckpointPrefix(date), filter)
+                ? reader.read(dailyKeys, filter) : Map.of();
+        Map<String, V> reconstructedData = new HashMap<>(daily);
+        int objectsFetched = daily.size();
+        int firstDeltaHour = 0;
+        if (checkpointHour.isPresent()) {
+            int hour = checkpointHour.getAsInt();
+            Map<String, V> hourly = mayContain(NameIndex.hourlyCheckpointPrefix(date, hour), filter)
+                    ? reader.read(listKeys(SnapshotBuilderService.hourlyCheckpointPrefix(date, hour)), filter) : Map.of();
+            reconstructedData.putAll(hourly);
+            objectsFetched += hourly.size();
+            firstDeltaHour = checkpointHour.getAsInt() + 1;
+        }
+
+        // whole hours not covered by a checkpoint: normally none, or the last hour when its build has not run yet
+        objectsFetched += applyDeltas(reconstructedData, date.atTime(firstDeltaHour, 0), end, filter, reader);
+
+        storageMetrics.objectsPerReplay(objectsFetched);
+        return Optional.of(reconstructedData);
+    }
+
+    // Applies the deltas of every whole hour from firstHour up to end's hour, across midnight, then the
+    // 15-minute windows of end's hour up to and including the end window. Returns the files applied.
+    private <V> int applyDeltas(Map<String, V> state, LocalDateTime firstHour, LocalDateTime end,
+                                FileNameFilter filter, ReplayReader<V> reader) {
+        int objectsFetched = 0;
+        LocalDateTime endHour = end.withMinute(0);
+        for (LocalDateTime hour = firstHour; hour.isBefore(endHour); hour = hour.plusHours(1)) {
+            if (filter != null) {
+                // window by window, so each window's name index can rule it out
+                for (int minute = 0; minute < 60; minute += 15) {
+                    Map<String, V> deltas = loadDeltaFiles(hour.withMinute(minute), filter, reader);
+                    reader.apply(state, deltas);
+                    objectsFetched += deltas.size();
+                }
+                continue;
+            }
+            Map<String, V> deltas = reader.read(listKeys(String.format("%s/delta/%02d/",
+                    hour.toLocalDate().format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour.getHour())), null);
+            reader.apply(state, deltas);
+            objectsFetched += deltas.size();
+        }
+
+        for (LocalDateTime current = endHour; !current.isAfter(end); current = current.plusMinutes(15)) {
+            Map<String, V> deltas = loadDeltaFiles(current, filter, reader);
+            reader.apply(state, deltas);
+            objectsFetched += deltas.size();
+        }
+        return objectsFetched;
+    }
+
+    private <V> Map<String, V> loadSnapshot(LocalDate date, int hour, FileNameFilter filter, ReplayReader<V> reader) {
+        if (!mayContain(NameIndex.snapshotPrefix(date, hour), filter)) return Map.of();
+
         String prefix = String.format("%s/snapshots/%02d/",
                 date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")), hour);
 
-        return listAndDownloadFiles(prefix);
+        return reader.read(listKeys(prefix), filter);
     }
 
-    private Map<String, FileProto.FileData> loadDeltaFiles(LocalDateTime timestamp) {
+    private <V> Map<String, V> loadDeltaFiles(LocalDateTime timestamp, FileNameFilter filter, ReplayReader<V> reader) {
+        int minute = (timestamp.getMinute() / 15) * 15;
+        if (!mayContain(NameIndex.deltaWindowPrefix(timestamp.toLocalDate(), timestamp.getHour(), minute), filter)) {
+            return Map.of();
+        }
+
         String prefix = String.format("%s/delta/%02d/%02d/",
                 timestamp.toLocalDate().format(DateTimeFormatter.ofPattern("yyyy/MM/dd")),
                 timestamp.getHour(),
-                (timestamp.getMinute() / 15) * 15);
+                minute);
 
-        return listAndDownloadFiles(prefix);
+        return reader.read(listKeys(prefix), filter);
     }
 
-    private Map<String, FileProto.FileData> listAndDownloadFiles(String prefix) {
-        ListObjectsV2Response listObjectsResponse = s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                .bucket(awsProperties.getS3().getBucketName())
-                .prefix(prefix)
-                .build());
+    // true without a filter, so unfiltered replays never read name indexes
+    private boolean mayContain(String indexPrefix, FileNameFilter filter) {
+        return filter == null || nameIndex.mightContain(indexPrefix, filter);
+    }
 
-        List<String> keys = listObjectsResponse.contents().stream()
-                .filter(o -> !o.key().endsWith("/"))
-                .map(S3Object::key)
+    private List<String> listKeys(String prefix) {
+        return listObjects(prefix).stream()
+                .map(StoredObject::getKey)
                 .toList();
+    }
 
-        Map<String, FileProto.FileData> files = new HashMap<>();
-        for (String key : keys) {
-            try (ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(GetObjectRequest.builder()
-                    .bucket(awsProperties.getS3().getBucketName())
-                    .key(key)
-                    .build())) {
-                FileProto.FileData fileData = protobufService.deserializeFile(s3Object.readAllBytes());
-                files.put(fileData.getFileName(), fileData);
+    private LatestVersions readLatest(List<String> keys, FileNameFilter filter) {
+        if (filter != null) {
+            return readMatchingFiles(keys, filter);
+        }
+
+        // fetch in parallel, apply in listing order so later windows still win
+        List<CompletableFuture<byte[]>> bodies = keys.stream()
+                .map(key -> storageIoExecutor.submit(() -> readObject(key)))
+                .toList();
+
+        LatestVersions files = new LatestVersions();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            try {
+                byte[] body = awaitBody(bodies.get(i));
+
+                if (key.endsWith(DeltaPacker.PACK_SUFFIX)) {
+                    protobufService.deserializePack(body).forEach(f -> files.add(key, f));
+                    continue;
+                }
+
+                files.add(key, protobufService.deserializeFile(body));
             } catch (IOException e) {
                 log.warn("Failed to load file: {}", key, e);
             }
@@ -279,33 +842,260 @@ public class StorageService {
         return files;
     }
 
-    public String generatePresignedUrl(String key) {
-        GetObjectRequest getRequest = GetObjectRequest.builder()
-                .bucket(awsProperties.getS3().getBucketName())
-                .key(key)
-                .build();
+    // Only objects whose key may hold a matching name are read; of a pack only the index and the
+    // matching entries are fetched with ranged GETs
+    private LatestVersions readMatchingFiles(List<String> keys, FileNameFilter filter) {
+        List<String> readKeys = new ArrayList<>();
+        List<CompletableFuture<List<FileProto.FileData>>> pending = new ArrayList<>();
+        for (String key : keys) {
+            if (key.endsWith(DeltaPacker.PACK_SUFFIX)) {
+                readKeys.add(key);
+                pending.add(storageIoExecutor.submit(() -> readMatchingPackEntries(key, filter)));
+            } else if (filter.mayMatchStoredName(stripPatchSuffix(Paths.get(key).getFileName().toString()))) {
+                readKeys.add(key);
+                pending.add(storageIoExecutor.submit(() -> List.of(protobufService.deserializeFile(readObject(key)))));
+            }
+        }
+
+        LatestVersions files = new LatestVersions();
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                for (FileProto.FileData file : pending.get(i).join()) {
+                    if (filter.matches(file.getFileName())) {
+                        files.add(readKeys.get(i), file);
+                    }
+                }
+            } catch (CompletionException e) {
+                log.warn("Failed to load file: {}", readKeys.get(i), e.getCause());
+            }
+        }
+        return files;
+    }
+
+    // Where each file's latest version lives, as keys openContent reads. Snapshot files and checkpoint
+    // entries are located from the listing and pack indexes without reading any content. Delta objects
+    // are read, since the upload sequence inside them decides between versions of one window, but only
+    // their keys are kept.
+    private Map<String, String> locateFiles(List<String> keys, FileNameFilter filter) {
+        List<String> deltaKeys = keys.stream().filter(key -> DELTA_HOUR.matcher(key).find()).toList();
+        Map<String, String> located = new HashMap<>(readLatest(deltaKeys, filter).sources());
+        for (String key : keys) {
+            if (DELTA_HOUR.matcher(key).find()) continue;
+            if (key.endsWith(DeltaPacker.PACK_SUFFIX)) {
+                try {
+                    // a name listed twice keeps its last entry, as openContent reads it
+                    for (FileProto.PackEntry entry : readPackHeader(key).index().getEntriesList()) {
+                        if (filter == null || filter.matches(entry.getFileName())) {
+                            located.put(entry.getFileName(), key + DeltaPacker.ENTRY_SEPARATOR + entry.getFileName());
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to read pack index: {}", key, e);
+                }
+                continue;
+            }
+            // snapshot keys end with the whole file name: {date}/snapshots/{HH}/{name}
+            String name = key.substring(key.indexOf(SNAPSHOTS_FOLDER) + SNAPSHOTS_FOLDER.length() + 3);
+            if (filter == null || filter.matches(name)) {
+                located.put(name, key);
+            }
+        }
+        return located;
+    }
 
-        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofMinutes(60))
-                .getObjectRequest(getRequest)
-                .build();
+    private List<FileProto.FileData> readMatchingPackEntries(String packKey, FileNameFilter filter) throws IOException {
+        ProtobufService.PackHeader header = readPackHeader(packKey);
+        List<FileProto.FileData> files = new ArrayList<>();
+        for (FileProto.PackEntry entry : header.index().getEntriesList()) {
+            if (!filter.matches(entry.getFileName())) continue;
+            long start = header.dataStart() + entry.getOffset();
+            files.add(protobufService.deserializeFile(readRange(packKey, start, start + entry.getLength() - 1)));
+        }
+        return files;
+    }
 
-        return s3Presigner.presignGetObject(presignRequest).url().toString();
+    public String generatePresignedUrl(String key) {
+        // a presigned URL cannot address one entry of a pack, and a patch needs its base applied,
+        // so those go through our download endpoint
+        if (isPackedKey(key) || key.endsWith(DeltaPatcher.PATCH_SUFFIX)) {
+            return "/files/download/" + key;
+        }
+        return storageMetrics.record("presign", key,
+                () -> storageBackend.presignGet(key, Duration.ofMinutes(60)));
     }
 
+    // Snapshot files of the hours that can be read, see isSnapshotReadable
     public List<String> getStaticPresignedUrls(LocalDate date) {
         String prefix = date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd")) + "/snapshots/";
+        Map<Integer, Set<String>> markers = snapshotMarkers(date);
+
+        return listObjects(prefix).stream()
+                .map(StoredObject::getKey)
+                .filter(key -> isSnapshotReadable(markers, twoDigitFolder(key, prefix.length())))
+                .map(this::generatePresignedUrl)
+                .toList();
+    }
+
+    // hour -> names of the markers and leases under _meta/{date}/snapshot-meta/{HH}/
+    private Map<Integer, Set<String>> snapshotMarkers(LocalDate date) {
+        String root = SnapshotBuilderService.snapshotMetaRoot(date);
+        Map<Integer, Set<String>> markers = new HashMap<>();
+        for (StoredObject object : listObjects(root)) {
+            int hour = twoDigitFolder(object.getKey(), root.length());
+            if (hour >= 0) {
+                markers.computeIfAbsent(hour, h -> new HashSet<>()).add(object.getKey().substring(root.length() + 3));
+            }
+        }
+        return markers;
+    }
+
+    private static boolean isCommitted(Map<Integer, Set<String>> markers, int hour) {
+        return markers.getOrDefault(hour, Set.of()).contains(SnapshotBuilderService.COMMIT_MARKER);
+    }
 
-        return s3Client.listObjectsV2(ListObjectsV2Request.builder()
-                        .bucket(awsProperties.getS3().getBucketName())
-                        .prefix(prefix)
-                        .build())
-                .contents().stream()
-                .filter(o -> !o.key().endsWith("/"))
-                .map(o -> generatePresignedUrl(o.key()))
+    // Committed, or without any marker: hours built before commit markers existed and snapshots
+    // uploaded directly. An hour whose build has started but not committed is never read.
+    private static boolean isSnapshotReadable(Map<Integer, Set<String>> markers, int hour) {
+        return hour >= 0 && (!markers.containsKey(hour) || isCommitted(markers, hour));
+    }
+
+    // The "HH/" folder at offset of key as a number, -1 when there is none
+    private static int twoDigitFolder(String key, int offset) {
+        if (key.length() < offset + 3 || key.charAt(offset + 2) != '/'
+                || !Character.isDigit(key.charAt(offset)) || !Character.isDigit(key.charAt(offset + 1))) {
+            return -1;
+        }
+        return Integer.parseInt(key.substring(offset, offset + 2));
+    }
+
+    private List<StoredObject> listObjects(String prefix) {
+        return listingCache.get(prefix, () -> listings.execute(List.of(listingCache.generation(prefix), prefix),
+                () -> storageMetrics.record("list", prefix, () -> storageBackend.listAll(prefix))));
+    }
+
+    // What a client asked for under prefix, never the service's own objects even when prefix reaches _meta/
+    private List<StoredObject> listUserObjects(String prefix) {
+        return listObjects(prefix).stream()
+                .filter(o -> !MetaKeys.isInternal(o.getKey()))
                 .toList();
     }
 
+    private byte[] awaitBody(CompletableFuture<byte[]> body) throws IOException {
+        try {
+            return body.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
+    }
+
+    private boolean isPackedKey(String key) {
+        return key.contains(DeltaPacker.ENTRY_SEPARATOR);
+    }
+
+    // A pack listed under a prefix stands for all the logical keys inside it
+    private List<String> expandPackedKeys(String key) {
+        if (!key.endsWith(DeltaPacker.PACK_SUFFIX)) {
+            return List.of(key);
+        }
+        try {
+            return readPackHeader(key).index().getEntriesList().stream()
+                    .map(e -> key + DeltaPacker.ENTRY_SEPARATOR + e.getFileName())
+                    .toList();
+        } catch (IOException e) {
+            log.warn("Failed to read pack index: {}", key, e);
+            return List.of();
+        }
+    }
+
+    // Same as expandPackedKeys, keeping the pack's metadata for each entry
+    private List<StoredObject> expandPackedObjects(StoredObject object) {
+        if (!object.getKey().endsWith(DeltaPacker.PACK_SUFFIX)) {
+            return List.of(object);
+        }
+        try {
+            return readPackHeader(object.getKey()).index().getEntriesList().stream()
+                    .map(e -> new StoredObject(object.getKey() + DeltaPacker.ENTRY_SEPARATOR + e.getFileName(),
+                            e.getLength(), object.getLastModified(), object.getETag()))
+                    .toList();
+        } catch (IOException e) {
+            log.warn("Failed to read pack index: {}", object.getKey(), e);
+            return List.of();
+        }
+    }
+
+    private ProtobufService.PackHeader readPackHeader(String packKey) throws IOException {
+        byte[] head = readRange(packKey, 0, PACK_HEAD_BYTES - 1);
+        ProtobufService.PackHeader header = protobufService.readPackHeader(head);
+        if (header == null) {
+            head = readRange(packKey, 0, protobufService.packHeaderSize(head) - 1);
+            header = protobufService.readPackHeader(head);
+        }
+        return header;
+    }
+
+    // Fetches one file out of a pack with two ranged GETs: the index, then the entry itself
+    private FileProto.FileData readPackedEntry(String logicalKey) throws IOException {
+        String packKey = logicalKey.substring(0, logicalKey.indexOf(DeltaPacker.ENTRY_SEPARATOR));
+        ProtobufService.PackHeader header = readPackHeader(packKey);
+        FileProto.PackEntry match = findPackEntry(logicalKey, header.index());
+
+        long start = header.dataStart() + match.getOffset();
+        return protobufService.deserializeFile(readRange(packKey, start, start + match.getLength() - 1));
+    }
+
+    private FileProto.PackEntry findPackEntry(String logicalKey, FileProto.PackIndex index) {
+        String fileName = logicalKey.substring(logicalKey.indexOf(DeltaPacker.ENTRY_SEPARATOR) + DeltaPacker.ENTRY_SEPARATOR.length());
+        FileProto.PackEntry match = null;
+        for (FileProto.PackEntry entry : index.getEntriesList()) {
+            if (entry.getFileName().equals(fileName)) {
+                match = entry; // last one wins, like a later upload of the same name
+            }
+        }
+        if (match == null) {
+            throw new ObjectNotFoundException(logicalKey, null);
+        }
+        return match;
+    }
+
+    private byte[] readRange(String key, long start, long endInclusive) throws IOException {
+        byte[] body = storageMetrics.recordIo("get", key, () -> {
+            try (InputStream in = storageBackend.getRange(key, start, endInclusive)) {
+                return in.readAllBytes();
+            }
+        });
+        storageMetrics.bytesIn("get", key, body.length);
+        return body;
+    }
+
+    // Whole objects for replay, snapshots and metadata come back as plain heap arrays, not pooled ones:
+    // concurrent callers share one read through objectReads, and the files parsed from it alias the
+    // array and live on in replay results, so no single request owns it and could release it
+    private byte[] readObject(String key) throws IOException {
+        try {
+            return objectReads.execute(List.of(listingCache.generation(key), key), () -> {
+                try {
+                    return fetchObject(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private byte[] fetchObject(String key) throws IOException {
+        byte[] body = storageMetrics.recordIo("get", key, () -> {
+            try (InputStream in = storageBackend.get(key)) {
+                return in.readAllBytes();
+            }
+        });
+        storageMetrics.bytesIn("get", key, body.length);
+        return body;
+    }
+
     // round to nearest 15 minutes
     private LocalTime roundToNearest15Minutes(LocalTime time) {
         int minute = (time.getMinute() / 15) * 15;
@@ -0,0 +1,124 @@
+package com.s3communication.s3communication.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Minimal ustar writer for regular files. Names longer than the header allows get a pax
+// extended header, which every current tar reads. Sizes must be known before the content is written.
+final class TarWriter {
+
+    private static final int BLOCK = 512;
+    private static final byte[] ZEROS = new byte[BLOCK];
+
+    private final OutputStream out;
+    private long remaining;
+    private long written;
+
+    TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    // Starts an entry; exactly size content bytes must follow through write before the next entry
+    void putEntry(String name, long size, long modifiedEpochSecond) throws IOException {
+        if (remaining != 0) throw new IllegalStateException("Previous entry is incomplete");
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            byte[] pax = paxRecord("path", name);
+            writeHeader("PaxHeader/" + Long.toHexString(name.hashCode() & 0xffffffffL), pax.length, modifiedEpochSecond, (byte) 'x');
+            out.write(pax);
+            pad(pax.length);
+        }
+        writeHeader(name, size, modifiedEpochSecond, (byte) '0');
+        remaining = size;
+        written = 0;
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (length > remaining) throw new IllegalStateException("Entry content is longer than its size");
+        out.write(data, offset, length);
+        remaining -= length;
+        written += length;
+        if (remaining == 0) pad(written);
+    }
+
+    // OutputStream view of the current entry, for writers such as ByteString.writeTo
+    OutputStream entryStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                TarWriter.this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                TarWriter.this.write(b, off, len);
+            }
+        };
+    }
+
+    // Two zero blocks mark the end of the archive
+    void finish() throws IOException {
+        if (remaining != 0) throw new IllegalStateException("Last entry is incomplete");
+        out.write(ZEROS);
+        out.write(ZEROS);
+        out.flush();
+    }
+
+    private void writeHeader(String name, long size, long modifiedEpochSecond, byte type) throws IOException {
+        byte[] header = new byte[BLOCK];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        // full name is in the pax record; the cut never splits a UTF-8 sequence
+        System.arraycopy(nameBytes, 0, header, 0, utf8Prefix(nameBytes, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, modifiedEpochSecond);
+        header[156] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        // checksum is computed with its own field read as spaces
+        for (int i = 148; i < 156; i++) header[i] = ' ';
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xff;
+        octal(header, 148, 7, checksum);
+        header[155] = ' ';
+
+        out.write(header);
+    }
+
+    // Bytes of utf8 that fit in limit without ending inside a multi-byte character
+    static int utf8Prefix(byte[] utf8, int limit) {
+        if (utf8.length <= limit) return utf8.length;
+        int end = limit;
+        while (end > 0 && (utf8[end] & 0xc0) == 0x80) {
+            end--; // utf8[end] continues the character before it, so the cut moves back to that character's start
+        }
+        return end;
+    }
+
+    private void pad(long length) throws IOException {
+        int tail = (int) (length % BLOCK);
+        if (tail != 0) out.write(ZEROS, 0, BLOCK - tail);
+    }
+
+    // zero padded octal digits followed by a NUL
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) throw new IllegalArgumentException("Value too large for tar header: " + value);
+        int start = offset + length - 1 - digits.length();
+        for (int i = offset; i < start; i++) header[i] = '0';
+        for (int i = 0; i < digits.length(); i++) header[start + i] = (byte) digits.charAt(i);
+        header[offset + length - 1] = 0;
+    }
+
+    // "<length> <key>=<value>\n" where length counts the whole record, including its own digits
+    private static byte[] paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + String.valueOf(body).length();
+        if (String.valueOf(length).length() != String.valueOf(body).length()) length++;
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
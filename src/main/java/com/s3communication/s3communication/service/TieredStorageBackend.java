@@ -0,0 +1,277 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.ObjectStream;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Writes land on a local hot tier and are acknowledged straight away; migrate() copies them
+// to the cold backend in the background and evicts them from the hot tier once older than maxAge.
+// Reads try the hot tier first, so recent deltas and snapshots never leave the machine.
+//
+// Single node only: until an object is spilled it exists on this machine alone, so another node
+// sharing the bucket (a snapshot builder or replay reader) cannot see it.
+@Slf4j
+public class TieredStorageBackend implements StorageBackend {
+
+    private final LocalStorageBackend hot;
+    private final StorageBackend cold;
+    private final Duration maxAge;
+    // survives restarts so spilled objects are not uploaded again; kept outside the hot root
+    private final Path stateFile;
+
+    // key -> content type of hot writes not spilled yet; a pass only visits these
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    // key -> lastModified of the hot copy that has been written to the cold tier
+    private final Map<String, Instant> migrated = new ConcurrentHashMap<>();
+
+    public TieredStorageBackend(LocalStorageBackend hot, StorageBackend cold, Duration maxAge, Path stateFile) {
+        this.hot = hot;
+        this.cold = cold;
+        this.maxAge = maxAge;
+        this.stateFile = stateFile;
+        recover();
+    }
+
+    @Override
+    public void put(String key, byte[] data, String contentType) {
+        hot.put(key, data, contentType);
+        markPending(key, contentType);
+    }
+
+    @Override
+    public void put(String key, Path file, String contentType) {
+        hot.put(key, file, contentType);
+        markPending(key, contentType);
+    }
+
+    @Override
+    public void put(String key, ByteBuffer data, String contentType) {
+        hot.put(key, data, contentType);
+        markPending(key, contentType);
+    }
+
+    @Override
+    public void put(String key, InputStream data, long contentLength, String contentType) {
+        hot.put(key, data, contentLength, contentType);
+        markPending(key, contentType);
+    }
+
+    @Override
+    public void upload(String key, String contentType, ContentWriter writer) {
+        hot.upload(key, contentType, writer);
+        markPending(key, contentType);
+    }
+
+    @Override
+    public InputStream get(String key) {
+        try {
+            return hot.get(key);
+        } catch (ObjectNotFoundException e) {
+            return cold.get(key);
+        }
+    }
+
+    @Override
+    public ObjectStream getWithLength(String key) {
+        try {
+            return hot.getWithLength(key);
+        } catch (ObjectNotFoundException e) {
+            return cold.getWithLength(key);
+        }
+    }
+
+    @Override
+    public StoredObject head(String key) {
+        try {
+            return hot.head(key);
+        } catch (ObjectNotFoundException e) {
+            return cold.head(key);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long endInclusive) {
+        try {
+            return hot.getRange(key, start, endInclusive);
+        } catch (ObjectNotFoundException e) {
+            return cold.getRange(key, start, endInclusive);
+        }
+    }
+
+    @Override
+    public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+        try {
+            return hot.transferTo(key, position, count, target);
+        } catch (ObjectNotFoundException e) {
+            return cold.transferTo(key, position, count, target);
+        }
+    }
+
+    // Continuation tokens of the two tiers cannot be combined, so a page is cut from the merged listing
+    // and the token is the last key of the page
+    @Override
+    public ObjectListing list(String prefix, String continuationToken, int maxKeys) {
+        List<StoredObject> all = listAll(prefix);
+        int from = 0;
+        if (continuationToken != null) {
+            while (from < all.size() && all.get(from).getKey().compareTo(continuationToken) <= 0) {
+                from++;
+            }
+        }
+        int to = Math.min(all.size(), from + maxKeys);
+        List<StoredObject> page = all.subList(from, to);
+        return new ObjectListing(page, to < all.size() ? page.get(page.size() - 1).getKey() : null);
+    }
+
+    // Hot copies shadow cold ones with the same key
+    @Override
+    public List<StoredObject> listAll(String prefix) {
+        TreeMap<String, StoredObject> merged = new TreeMap<>();
+        cold.listAll(prefix).forEach(o -> merged.put(o.getKey(), o));
+        hot.listAll(prefix).forEach(o -> merged.put(o.getKey(), o));
+        return new ArrayList<>(merged.values());
+    }
+
+    @Override
+    public void delete(String key) {
+        pending.remove(key);
+        migrated.remove(key);
+        hot.delete(key);
+        cold.delete(key);
+    }
+
+    @Override
+    public void copy(String sourceKey, String targetKey) {
+        if (hot.exists(sourceKey)) {
+            hot.copy(sourceKey, targetKey);
+            markPending(targetKey, pending.getOrDefault(sourceKey, contentTypeOf(targetKey)));
+        } else {
+            cold.copy(sourceKey, targetKey);
+        }
+    }
+
+    @Override
+    public String presignGet(String key, Duration expiry) {
+        return hot.exists(key) ? hot.presignGet(key, expiry) : cold.presignGet(key, expiry);
+    }
+
+    // One migration pass: spill the hot objects written since the last pass, then evict the ones
+    // that are both spilled and older than maxAge. Returns the number of objects spilled.
+    public int migrate() {
+        int spilled = 0;
+        boolean changed = false;
+
+        for (String key : new ArrayList<>(pending.keySet())) {
+            String contentType = pending.remove(key);
+            if (contentType == null) continue;
+            try {
+                // the version is taken before the read: a put landing in between is spilled again next pass
+                StoredObject object = hot.head(key);
+                try (InputStream in = hot.get(key)) {
+                    cold.put(key, in, object.getSize(), contentType);
+                }
+                migrated.put(key, object.getLastModified());
+                spilled++;
+                changed = true;
+            } catch (ObjectNotFoundException e) {
+                // deleted or evicted since it was written
+            } catch (IOException | RuntimeException e) {
+                pending.putIfAbsent(key, contentType);
+                log.warn("Failed to migrate {} to the cold tier, will retry on the next pass", key, e);
+            }
+        }
+
+        Instant evictBefore = Instant.now().minus(maxAge);
+        for (Map.Entry<String, Instant> entry : new ArrayList<>(migrated.entrySet())) {
+            String key = entry.getKey();
+            Instant version = entry.getValue();
+            if (!version.isBefore(evictBefore) || pending.containsKey(key)) continue;
+            try {
+                // only the exact version that was spilled goes; a newer put survives, even one racing this delete
+                if (hot.deleteIfUnchanged(key, version) || !hot.exists(key)) {
+                    changed |= migrated.remove(key, version);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to evict {} from the hot tier, will retry on the next pass", key, e);
+            }
+        }
+
+        if (changed) {
+            saveState();
+        }
+        return spilled;
+    }
+
+    // Loads what earlier runs spilled, then queues every hot object whose current version is not
+    // among them, which covers writes that were acknowledged but not spilled before a restart
+    private void recover() {
+        try {
+            if (Files.exists(stateFile)) {
+                for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        migrated.put(line.substring(tab + 1), Instant.parse(line.substring(0, tab)));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read hot tier state {}, the whole hot tier will be spilled again", stateFile, e);
+            migrated.clear();
+        }
+
+        Set<String> present = new HashSet<>();
+        for (StoredObject object : hot.listAll("")) {
+            present.add(object.getKey());
+            if (!object.getLastModified().equals(migrated.get(object.getKey()))) {
+                pending.put(object.getKey(), contentTypeOf(object.getKey()));
+            }
+        }
+        migrated.keySet().retainAll(present);
+    }
+
+    // one "lastModified<TAB>key" line per spilled object, replaced atomically
+    private void saveState() {
+        StringBuilder state = new StringBuilder();
+        migrated.forEach((key, version) -> state.append(version).append('\t').append(key).append('\n'));
+        try {
+            Files.createDirectories(stateFile.toAbsolutePath().getParent());
+            Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            Files.writeString(tmp, state, StandardCharsets.UTF_8);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save hot tier state " + stateFile, e);
+        }
+    }
+
+    private void markPending(String key, String contentType) {
+        migrated.remove(key);
+        pending.put(key, contentType);
+    }
+
+    // Content type for hot objects found on startup, whose put this process never saw;
+    // mirrors what the services store each kind of key as
+    static String contentTypeOf(String key) {
+        if (key.startsWith("recordings/")) return "application/octet-stream";
+        if (key.endsWith(".zip")) return "application/zip";
+        if (key.endsWith(".tar")) return "application/x-tar";
+        if (key.contains("snapshot-meta/")) return "text/plain";
+        return "application/x-protobuf";
+    }
+}
@@ -0,0 +1,52 @@
+package com.s3communication.s3communication.service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// The span of time an object or prefix belongs to, read from its key: {date}/... is the whole day,
+// a two-digit folder below the date is an hour, and delta/{HH}/{mm} is one 15-minute window
+record TimeWindow(LocalDateTime start, LocalDateTime end) {
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    // null when the key does not start with a date
+    static TimeWindow of(String keyOrPrefix) {
+        String[] parts = keyOrPrefix.split("/", -1);
+        if (parts.length < 3) return null;
+
+        LocalDate date;
+        try {
+            date = LocalDate.parse(parts[0] + "/" + parts[1] + "/" + parts[2], DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+
+        // only folders count, the last part is a file name (empty for a prefix)
+        for (int i = 3; i < parts.length - 1; i++) {
+            int hour = twoDigits(parts[i], 24);
+            if (hour < 0) continue;
+
+            LocalDateTime start = date.atTime(hour, 0);
+            int minute = "delta".equals(parts[i - 1]) && i + 1 < parts.length - 1 ? twoDigits(parts[i + 1], 60) : -1;
+            return minute < 0
+                    ? new TimeWindow(start, start.plusHours(1))
+                    : new TimeWindow(start.withMinute(minute), start.withMinute(minute).plusMinutes(15));
+        }
+        return new TimeWindow(date.atStartOfDay(), date.plusDays(1).atStartOfDay());
+    }
+
+    // Nothing is written to a window once it ended closedAfter ago
+    boolean isClosed(Duration closedAfter) {
+        return end.plus(closedAfter).isBefore(LocalDateTime.now());
+    }
+
+    // -1 unless part is exactly two digits below limit
+    private static int twoDigits(String part, int limit) {
+        if (part.length() != 2 || !Character.isDigit(part.charAt(0)) || !Character.isDigit(part.charAt(1))) return -1;
+        int value = Integer.parseInt(part);
+        return value < limit ? value : -1;
+    }
+}
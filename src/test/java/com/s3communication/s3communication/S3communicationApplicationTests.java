@@ -3,7 +3,7 @@ package com.s3communication.s3communication;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "snapshot.lock-store=memory")
 class S3communicationApplicationTests {
 
 	@Test
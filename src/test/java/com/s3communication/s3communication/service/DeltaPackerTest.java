@@ -0,0 +1,95 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeltaPackerTest {
+
+	private static final String WINDOW = "2024/05/01/delta/10/15/";
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final ProtobufService protobufService = new ProtobufService();
+	private final StorageProperties storageProperties = new StorageProperties();
+	private final StorageIoExecutor storageIoExecutor = new StorageIoExecutor(storageProperties, false);
+	private DeltaPacker deltaPacker;
+
+	@AfterEach
+	void tearDown() {
+		if (deltaPacker != null) deltaPacker.flushAll();
+		storageIoExecutor.shutdown();
+	}
+
+	@Test
+	void filesOfAWindowAreWrittenAsOnePackAfterMaxDelay() throws Exception {
+		storageProperties.getDeltaPacking().setMaxDelay(Duration.ofMillis(20));
+		deltaPacker = newPacker();
+
+		CompletableFuture<String> first = deltaPacker.add(WINDOW, file("a.json", "first"));
+		CompletableFuture<String> second = deltaPacker.add(WINDOW, file("b.json", "second"));
+
+		String firstKey = first.get(5, TimeUnit.SECONDS);
+		String packKey = firstKey.substring(0, firstKey.indexOf(DeltaPacker.ENTRY_SEPARATOR));
+		assertThat(packKey).startsWith(WINDOW).endsWith(DeltaPacker.PACK_SUFFIX);
+		assertThat(firstKey).isEqualTo(packKey + DeltaPacker.ENTRY_SEPARATOR + "a.json");
+		assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(packKey + DeltaPacker.ENTRY_SEPARATOR + "b.json");
+
+		assertThat(readPack(packKey)).extracting(FileProto.FileData::getFileName).containsExactly("a.json", "b.json");
+	}
+
+	@Test
+	void fullPackIsWrittenByTheCallerThatFilledIt() throws Exception {
+		storageProperties.getDeltaPacking().setMaxDelay(Duration.ofHours(1));
+		storageProperties.getDeltaPacking().setMaxBytes(1);
+		deltaPacker = newPacker();
+
+		CompletableFuture<String> key = deltaPacker.add(WINDOW, file("a.json", "content"));
+
+		assertThat(key).isDone();
+		String packKey = key.get().substring(0, key.get().indexOf(DeltaPacker.ENTRY_SEPARATOR));
+		assertThat(readPack(packKey)).containsExactly(file("a.json", "content"));
+	}
+
+	@Test
+	void windowsArePackedSeparately() throws Exception {
+		storageProperties.getDeltaPacking().setMaxDelay(Duration.ofHours(1));
+		deltaPacker = newPacker();
+
+		CompletableFuture<String> first = deltaPacker.add(WINDOW, file("a.json", "first"));
+		CompletableFuture<String> second = deltaPacker.add("2024/05/01/delta/10/30/", file("a.json", "second"));
+		deltaPacker.flushAll();
+
+		assertThat(first.get()).startsWith(WINDOW);
+		assertThat(second.get()).startsWith("2024/05/01/delta/10/30/");
+	}
+
+	private DeltaPacker newPacker() {
+		StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+		return new DeltaPacker(storageBackend, protobufService, storageMetrics, new BufferPool(), storageIoExecutor, storageProperties);
+	}
+
+	private List<FileProto.FileData> readPack(String packKey) throws Exception {
+		try (InputStream in = storageBackend.get(packKey)) {
+			return protobufService.deserializePack(in.readAllBytes());
+		}
+	}
+
+	private static FileProto.FileData file(String name, String content) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(content))
+				.build();
+	}
+}
@@ -0,0 +1,111 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeltaPatcherTest {
+
+	private static final String WINDOW = "2024/05/01/delta/10/15/";
+	private static final int BLOCK_SIZE = 64;
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final ProtobufService protobufService = new ProtobufService();
+	private final DeltaPatcher patcher = newPatcher();
+
+	@Test
+	void patchRebuildsTheTarget() throws Exception {
+		byte[] base = randomBytes(4096, 1);
+		byte[] target = edited(base);
+
+		List<FileProto.PatchOp> ops = DeltaPatcher.diff(base, target, BLOCK_SIZE);
+		FileProto.FilePatch patch = FileProto.FilePatch.newBuilder()
+				.setTargetLength(target.length)
+				.addAllOps(ops)
+				.build();
+
+		assertThat(DeltaPatcher.apply(base, patch).toByteArray()).isEqualTo(target);
+		assertThat(ops).anyMatch(op -> op.getLiteral().isEmpty());
+	}
+
+	@Test
+	void patchStillResolvesAfterItsSourceKeyIsOverwrittenOrDeleted() throws Exception {
+		FileProto.FileData v1 = file("a.bin", randomBytes(4096, 1));
+		storageBackend.put(WINDOW + "a.bin", v1.toByteArray(), "application/x-protobuf");
+		patcher.rememberBase(v1);
+
+		FileProto.FileData v2 = patcher.encode(file("a.bin", edited(v1.getContent().toByteArray())));
+		assertThat(v2.hasPatch()).isTrue();
+		assertThat(v2.getPatch().getBaseKey()).startsWith(DeltaPatcher.BASE_PREFIX);
+		assertThat(MetaKeys.isInternal(v2.getPatch().getBaseKey())).isTrue();
+
+		// the key the base was first uploaded to is reused, then removed
+		storageBackend.put(WINDOW + "a.bin", file("a.bin", randomBytes(4096, 2)).toByteArray(), "application/x-protobuf");
+		assertThat(patcher.resolve(v2, null).getContent().toByteArray()).isEqualTo(edited(v1.getContent().toByteArray()));
+		storageBackend.delete(WINDOW + "a.bin");
+		assertThat(patcher.resolve(v2, null).getContent().toByteArray()).isEqualTo(edited(v1.getContent().toByteArray()));
+	}
+
+	@Test
+	void fullUploadAfterAPatchInTheSameWindowWins() throws Exception {
+		FileProto.FileData v1 = file("a.bin", randomBytes(4096, 1));
+		patcher.rememberBase(v1);
+		FileProto.FileData v2 = patcher.encode(file("a.bin", edited(v1.getContent().toByteArray())));
+		// unrelated content, so the patch would not be smaller and it is stored whole
+		FileProto.FileData v3 = patcher.encode(file("a.bin", randomBytes(4096, 3)));
+		assertThat(v2.hasPatch()).isTrue();
+		assertThat(v3.hasPatch()).isFalse();
+
+		// listing order: a.bin (v3) sorts before a.bin.patch (v2)
+		LatestVersions deltas = new LatestVersions();
+		deltas.add(WINDOW + "a.bin", v3);
+		deltas.add(WINDOW + "a.bin" + DeltaPatcher.PATCH_SUFFIX, v2);
+		Map<String, FileProto.FileData> state = new HashMap<>(Map.of("a.bin", v1));
+		patcher.applyAll(state, deltas.files());
+
+		assertThat(state.get("a.bin").getContent()).isEqualTo(v3.getContent());
+	}
+
+	private FileProto.FileData file(String name, byte[] content) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFrom(content))
+				.setUploadSequence(protobufService.nextUploadSequence())
+				.build();
+	}
+
+	// base with a few bytes changed in the middle and some appended
+	private static byte[] edited(byte[] base) {
+		byte[] target = Arrays.copyOf(base, base.length + 100);
+		for (int i = 2000; i < 2010; i++) {
+			target[i] ^= 0x5a;
+		}
+		return target;
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	private DeltaPatcher newPatcher() {
+		StorageProperties storageProperties = new StorageProperties();
+		storageProperties.getDeltaPatching().setEnabled(true);
+		storageProperties.getDeltaPatching().setMinFileBytes(0);
+		storageProperties.getDeltaPatching().setBlockSize(BLOCK_SIZE);
+		return new DeltaPatcher(storageBackend, protobufService,
+				new StorageMetrics(new SimpleMeterRegistry()), storageProperties);
+	}
+}
@@ -0,0 +1,67 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ExportJob;
+import com.s3communication.s3communication.config.ExportProperties;
+import com.s3communication.s3communication.enums.ExportState;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class ExportServiceTest {
+
+	private final StorageService storageService = mock(StorageService.class);
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final ExportService exportService = new ExportService(storageService, storageBackend, new ExportProperties());
+
+	@AfterEach
+	void tearDown() {
+		exportService.shutdown();
+	}
+
+	@Test
+	void completedJobHasItsArchiveAndAUrl() throws Exception {
+		doAnswer(invocation -> {
+			invocation.getArgument(1, OutputStream.class).write(new byte[]{1, 2, 3});
+			return null;
+		}).when(storageService).writePrefixZip(anyString(), any());
+
+		ExportJob job = awaitFinished(exportService.submitPrefixZip("2024/05/01/").getId());
+
+		assertThat(job.getState()).isEqualTo(ExportState.COMPLETED);
+		assertThat(job.getBytesWritten()).isEqualTo(3);
+		assertThat(job.getDownloadUrl()).isEqualTo("memory://" + job.getObjectKey());
+		assertThat(storageBackend.contains(job.getObjectKey())).isTrue();
+	}
+
+	@Test
+	void errorFailsTheJobInsteadOfLeavingItRunning() throws Exception {
+		doThrow(new OutOfMemoryError()).when(storageService).writePrefixZip(anyString(), any());
+
+		ExportJob job = awaitFinished(exportService.submitPrefixZip("2024/05/01/").getId());
+
+		assertThat(job.getState()).isEqualTo(ExportState.FAILED);
+		assertThat(job.getFinishedAt()).isNotNull();
+		assertThat(job.getError()).contains("OutOfMemoryError");
+	}
+
+	private ExportJob awaitFinished(String id) throws InterruptedException {
+		Instant deadline = Instant.now().plus(Duration.ofSeconds(5));
+		ExportJob job = exportService.getJob(id);
+		while (job.getFinishedAt() == null && Instant.now().isBefore(deadline)) {
+			Thread.sleep(10);
+			job = exportService.getJob(id);
+		}
+		return job;
+	}
+}
@@ -0,0 +1,57 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatestVersionsTest {
+
+	private static final String WINDOW = "2024/05/01/delta/10/15/";
+
+	@Test
+	void laterUploadInTheSameWindowWinsWhateverTheKeyOrder() {
+		LatestVersions versions = new LatestVersions();
+		// name.patch sorts after name, but here the full copy was uploaded last
+		versions.add(WINDOW + "a.bin", file("a.bin", "full", 20));
+		versions.add(WINDOW + "a.bin.patch", file("a.bin", "patched", 10));
+
+		assertThat(versions.files().get("a.bin").getContent().toStringUtf8()).isEqualTo("full");
+	}
+
+	@Test
+	void packAndSingleUploadAreComparedByUploadOrder() {
+		LatestVersions versions = new LatestVersions();
+		versions.add(WINDOW + "1714557300000-abcd1234.pack", file("a.json", "packed", 30));
+		versions.add(WINDOW + "a.json", file("a.json", "single", 5));
+
+		assertThat(versions.files().get("a.json").getContent().toStringUtf8()).isEqualTo("packed");
+	}
+
+	@Test
+	void laterWindowAlwaysWins() {
+		LatestVersions versions = new LatestVersions();
+		versions.add(WINDOW + "a.json", file("a.json", "10:15", 50));
+		versions.add("2024/05/01/delta/10/30/a.json", file("a.json", "10:30", 40));
+
+		assertThat(versions.files().get("a.json").getContent().toStringUtf8()).isEqualTo("10:30");
+	}
+
+	@Test
+	void unsequencedFilesKeepListingOrder() {
+		LatestVersions versions = new LatestVersions();
+		versions.add(WINDOW + "1714557300000-abcd1234.pack", file("a.json", "packed", 0));
+		versions.add(WINDOW + "a.json", file("a.json", "single", 0));
+
+		assertThat(versions.files().get("a.json").getContent().toStringUtf8()).isEqualTo("single");
+	}
+
+	private static FileProto.FileData file(String name, String content, long sequence) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(content))
+				.setUploadSequence(sequence)
+				.build();
+	}
+}
@@ -0,0 +1,131 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.config.StorageProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ListingCacheTest {
+
+	private static final String CLOSED_WINDOW = "2024/05/01/delta/10/15/";
+
+	private final StorageProperties storageProperties = new StorageProperties();
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	void closedWindowIsServedFromTheCache() {
+		ListingCache cache = new ListingCache(storageProperties);
+
+		cache.get(CLOSED_WINDOW, this::load);
+		cache.get(CLOSED_WINDOW, this::load);
+
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void closedWindowListingExpiresAfterTheClosedTtl() throws Exception {
+		storageProperties.getListingCache().setClosedTtl(Duration.ofMillis(50));
+		ListingCache cache = new ListingCache(storageProperties);
+
+		cache.get(CLOSED_WINDOW, this::load);
+		cache.get(CLOSED_WINDOW, this::load);
+		assertThat(loads).hasValue(1);
+
+		Thread.sleep(100);
+		cache.get(CLOSED_WINDOW, this::load);
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	void invalidationDropsTheListingsOfTheKeyAndBumpsTheGeneration() {
+		ListingCache cache = new ListingCache(storageProperties);
+		cache.get(CLOSED_WINDOW, this::load);
+		cache.get("2024/05/01/delta/10/30/", this::load);
+		long generation = cache.generation(CLOSED_WINDOW);
+
+		cache.invalidate(CLOSED_WINDOW + "a.json");
+		cache.get(CLOSED_WINDOW, this::load);
+		cache.get("2024/05/01/delta/10/30/", this::load);
+
+		assertThat(loads).hasValue(3);
+		assertThat(cache.generation(CLOSED_WINDOW)).isGreaterThan(generation);
+	}
+
+	@Test
+	void writeMovesOnlyTheGenerationsOfOverlappingPrefixes() {
+		ListingCache cache = new ListingCache(storageProperties);
+		long window = cache.generation(CLOSED_WINDOW);
+		long day = cache.generation("2024/05/01/");
+		long key = cache.generation(CLOSED_WINDOW + "a.json");
+		long otherWindow = cache.generation("2024/05/01/delta/10/30/");
+		long otherDay = cache.generation("2024/05/02/");
+
+		cache.invalidate(CLOSED_WINDOW + "a.json");
+
+		assertThat(cache.generation(CLOSED_WINDOW)).isGreaterThan(window);
+		assertThat(cache.generation("2024/05/01/")).isGreaterThan(day);
+		assertThat(cache.generation("2024/05/")).isGreaterThan(day);
+		assertThat(cache.generation(CLOSED_WINDOW + "a.json")).isGreaterThan(key);
+		assertThat(cache.generation(CLOSED_WINDOW + "a")).isGreaterThan(key);
+		assertThat(cache.generation("2024/05/01/delta/10/30/")).isEqualTo(otherWindow);
+		assertThat(cache.generation("2024/05/02/")).isEqualTo(otherDay);
+		assertThat(cache.generation(List.of("2024/04/30/", "2024/05/01/"))).isGreaterThan(day);
+		assertThat(cache.generation(List.of("2024/05/02/", "2024/05/03/"))).isEqualTo(otherDay);
+	}
+
+	@Test
+	void generationsStillMoveAfterOldFoldersAreForgotten() {
+		ListingCache cache = new ListingCache(storageProperties);
+		cache.invalidate(CLOSED_WINDOW + "a.json");
+		long window = cache.generation(CLOSED_WINDOW);
+
+		// enough other folders to push CLOSED_WINDOW's write out
+		for (int i = 0; i < 5000; i++) {
+			cache.invalidate("2024/06/01/delta/" + i + "/a.json");
+		}
+
+		assertThat(cache.generation(CLOSED_WINDOW)).isGreaterThan(window);
+	}
+
+	@Test
+	void listingLoadedAcrossAnInvalidationIsNotKept() {
+		ListingCache cache = new ListingCache(storageProperties);
+
+		cache.get(CLOSED_WINDOW, () -> {
+			cache.invalidate(CLOSED_WINDOW + "a.json");
+			return load();
+		});
+		cache.get(CLOSED_WINDOW, this::load);
+
+		assertThat(loads).hasValue(2);
+	}
+
+	@Test
+	void writeToAnOpenWindowKeepsAClosedWindowCached() {
+		ListingCache cache = new ListingCache(storageProperties);
+		String openWindow = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd/'delta'/HH/'00'/"));
+
+		// the open window is written while the closed one loads, and again after it is cached
+		cache.get(CLOSED_WINDOW, () -> {
+			cache.invalidate(openWindow + "b.json");
+			return load();
+		});
+		cache.invalidate(openWindow + "c.json");
+		cache.get(CLOSED_WINDOW, this::load);
+
+		assertThat(loads).hasValue(1);
+	}
+
+	private List<StoredObject> load() {
+		loads.incrementAndGet();
+		return List.of(new StoredObject(CLOSED_WINDOW + "a.json", 1, Instant.EPOCH, "etag"));
+	}
+}
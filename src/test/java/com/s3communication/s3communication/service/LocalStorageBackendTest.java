@@ -0,0 +1,119 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.StoredObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalStorageBackendTest {
+
+	@TempDir
+	Path root;
+
+	@Test
+	void listsInKeyOrderAcrossDirectoriesAndFiles() {
+		LocalStorageBackend backend = new LocalStorageBackend(root);
+		// '.' < '/' < '0', so a.txt sorts before everything under a/ and a0 after it
+		for (String key : List.of("a0", "a/x", "a.txt", "a/b/c", "b/y")) {
+			backend.put(key, key.getBytes(StandardCharsets.UTF_8), "text/plain");
+		}
+
+		assertThat(keys(backend.listAll(""))).containsExactly("a.txt", "a/b/c", "a/x", "a0", "b/y");
+		assertThat(keys(backend.listAll("a"))).containsExactly("a.txt", "a/b/c", "a/x", "a0");
+		assertThat(keys(backend.listAll("a/"))).containsExactly("a/b/c", "a/x");
+		assertThat(keys(backend.listAll("a/b"))).containsExactly("a/b/c");
+		assertThat(keys(backend.listAll("missing/"))).isEmpty();
+	}
+
+	@Test
+	void pagesFollowTheContinuationToken() {
+		LocalStorageBackend backend = new LocalStorageBackend(root);
+		List<String> expected = new ArrayList<>();
+		for (int hour = 0; hour < 3; hour++) {
+			for (int file = 0; file < 4; file++) {
+				String key = String.format("2024/05/01/delta/%02d/00/f%d", hour, file);
+				backend.put(key, new byte[]{1}, "application/x-protobuf");
+				expected.add(key);
+			}
+		}
+
+		List<String> listed = new ArrayList<>();
+		String token = null;
+		int pages = 0;
+		do {
+			ObjectListing page = backend.list("2024/05/01/", token, 5);
+			assertThat(page.getObjects()).hasSizeLessThanOrEqualTo(5);
+			listed.addAll(keys(page.getObjects()));
+			token = page.getNextContinuationToken();
+			pages++;
+		} while (token != null);
+
+		assertThat(listed).isEqualTo(expected);
+		assertThat(pages).isEqualTo(3);
+	}
+
+	@Test
+	void deleteIfUnchangedKeepsANewerVersion() throws IOException {
+		LocalStorageBackend backend = new LocalStorageBackend(root);
+		backend.put("k", "old".getBytes(StandardCharsets.UTF_8), "text/plain");
+		Instant spilled = backend.head("k").getLastModified();
+
+		backend.put("k", "new".getBytes(StandardCharsets.UTF_8), "text/plain");
+		Files.setLastModifiedTime(root.resolve("k"), FileTime.from(spilled.plusSeconds(1)));
+
+		assertThat(backend.deleteIfUnchanged("k", spilled)).isFalse();
+		try (InputStream in = backend.get("k")) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("new");
+		}
+		assertThat(keys(backend.listAll(""))).containsExactly("k");
+
+		assertThat(backend.deleteIfUnchanged("k", spilled.plusSeconds(1))).isTrue();
+		assertThat(backend.exists("k")).isFalse();
+	}
+
+	@Test
+	void eTagFollowsTheContentNotTheModificationTime() throws IOException {
+		LocalStorageBackend backend = new LocalStorageBackend(root);
+		backend.put("k", "aaa".getBytes(StandardCharsets.UTF_8), "text/plain");
+		StoredObject first = backend.head("k");
+
+		// same size, same mtime: only the content differs
+		backend.upload("k", "text/plain", out -> out.write("bbb".getBytes(StandardCharsets.UTF_8)));
+		Files.setLastModifiedTime(root.resolve("k"), FileTime.from(first.getLastModified()));
+		StoredObject second = backend.head("k");
+
+		assertThat(first.getETag()).isEqualTo("\"47bce5c74f589f4867dbd57e9ca9f808\""); // MD5 of aaa
+		assertThat(second.getETag()).isNotEqualTo(first.getETag());
+
+		backend.put("k", new ByteArrayInputStream("aaa".getBytes(StandardCharsets.UTF_8)), 3, "text/plain");
+		assertThat(backend.head("k").getETag()).isEqualTo(first.getETag());
+		backend.copy("k", "copy");
+		assertThat(backend.head("copy").getETag()).isEqualTo(first.getETag());
+		assertThat(backend.listAll("").get(0).getETag()).isEqualTo(first.getETag());
+	}
+
+	@Test
+	void fileWithoutADigestGetsAWeakETag() throws IOException {
+		LocalStorageBackend backend = new LocalStorageBackend(root);
+		Files.write(root.resolve("k"), "aaa".getBytes(StandardCharsets.UTF_8));
+
+		assertThat(backend.head("k").getETag()).startsWith("W/\"");
+	}
+
+	private static List<String> keys(List<StoredObject> objects) {
+		return objects.stream().map(StoredObject::getKey).toList();
+	}
+}
@@ -0,0 +1,94 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NameIndexTest {
+
+	private static final String PREFIX = NameIndex.snapshotPrefix(LocalDate.of(2024, 5, 1), 10);
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final NameIndex nameIndex = new NameIndex(storageBackend, new StorageMetrics(new SimpleMeterRegistry()));
+
+	@Test
+	void completeIndexRulesOutMissingNames() {
+		nameIndex.write(PREFIX, 0, 2, List.of("a.json"));
+		nameIndex.write(PREFIX, 1, 2, List.of("b.json"));
+
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("a.json")))).isTrue();
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("b.json")))).isTrue();
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("c.json")))).isFalse();
+	}
+
+	@Test
+	void nameInTheLastPathSegmentIsFound() {
+		nameIndex.write(PREFIX, 0, 1, List.of("dir/a.json"));
+
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("a.json")))).isTrue();
+	}
+
+	@Test
+	void staleLayoutNeverHidesANameTheCurrentOneHas() {
+		// an old single-shard build that did not have new.json, next to the rebuilt 2-shard layout
+		nameIndex.write(PREFIX, 0, 1, List.of("old.json"));
+		nameIndex.write(PREFIX, 0, 2, List.of("new.json"));
+		nameIndex.write(PREFIX, 1, 2, List.of("other.json"));
+
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("new.json")))).isTrue();
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("old.json")))).isTrue();
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("missing.json")))).isFalse();
+	}
+
+	@Test
+	void partialLayoutRulesNothingOut() {
+		nameIndex.write(PREFIX, 0, 1, List.of("old.json"));
+		// rebuild in progress: one of three shards written
+		nameIndex.write(PREFIX, 0, 3, List.of("new.json"));
+
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("missing.json")))).isTrue();
+	}
+
+	@Test
+	void missingIndexAndGlobsRuleNothingOut() {
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("a.json")))).isTrue();
+
+		nameIndex.write(PREFIX, 0, 1, List.of("a.json"));
+		assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of("z*.json")))).isTrue();
+	}
+
+	@Test
+	void noFalseNegativesAcrossManyNames() {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			names.add("file-" + i + ".json");
+		}
+		for (int shard = 0; shard < 4; shard++) {
+			int current = shard;
+			nameIndex.write(PREFIX, shard, 4, names.stream().filter(n -> SnapshotBuilderService.inShard(n, current, 4)).toList());
+		}
+
+		for (String name : names) {
+			assertThat(nameIndex.mightContain(PREFIX, FileNameFilter.of(List.of(name)))).as(name).isTrue();
+		}
+	}
+
+	@Test
+	void otherLayoutsAreDeleted() {
+		nameIndex.write(PREFIX, 0, 1, List.of("a.json"));
+		nameIndex.write(PREFIX, 0, 2, List.of("a.json"));
+		nameIndex.write(PREFIX, 1, 2, List.of("b.json"));
+
+		nameIndex.deleteOtherLayouts(PREFIX, 2);
+
+		assertThat(storageBackend.contains(PREFIX + "shard-0-of-1" + NameIndex.BLOOM_SUFFIX)).isFalse();
+		assertThat(storageBackend.contains(PREFIX + "shard-0-of-2" + NameIndex.BLOOM_SUFFIX)).isTrue();
+		assertThat(storageBackend.contains(PREFIX + "shard-1-of-2" + NameIndex.BLOOM_SUFFIX)).isTrue();
+	}
+}
@@ -0,0 +1,86 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProtobufServiceTest {
+
+	private final ProtobufService protobufService = new ProtobufService();
+
+	@Test
+	void streamedEnvelopeIsTheSameEncodingAsTheMessage() throws Exception {
+		byte[] content = "hello world".getBytes(StandardCharsets.UTF_8);
+		long sequence = protobufService.nextUploadSequence();
+
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		streamed.write(protobufService.envelopeHeader("a.json", content.length));
+		streamed.write(content);
+		streamed.write(protobufService.envelopeTrailer(sequence));
+
+		FileProto.FileData expected = FileProto.FileData.newBuilder()
+				.setFileName("a.json")
+				.setContent(ByteString.copyFrom(content))
+				.setUploadSequence(sequence)
+				.build();
+		assertThat(streamed.toByteArray()).isEqualTo(expected.toByteArray());
+
+		ProtobufService.ContentPosition position = protobufService.readContentPosition(streamed.toByteArray());
+		assertThat(position.length()).isEqualTo(content.length);
+		assertThat(new String(streamed.toByteArray(), (int) position.offset(), content.length, StandardCharsets.UTF_8))
+				.isEqualTo("hello world");
+	}
+
+	@Test
+	void uploadSequenceIncreasesOnEveryCall() throws Exception {
+		long first = protobufService.toFileData(new MockMultipartFile("f", "a.json", null, new byte[1])).getUploadSequence();
+		long second = protobufService.nextUploadSequence();
+		long third = protobufService.nextUploadSequence();
+
+		assertThat(first).isPositive();
+		assertThat(second).isGreaterThan(first);
+		assertThat(third).isGreaterThan(second);
+	}
+
+	@Test
+	void packEntriesAreAddressableFromTheIndex() throws Exception {
+		List<FileProto.FileData> files = List.of(file("a.json", "first"), file("b.json", "second, longer"), file("a.json", "third"));
+		byte[] pack = protobufService.serializePack(files);
+
+		assertThat(pack).hasSize(protobufService.packSize(protobufService.packIndex(files)));
+		assertThat(protobufService.deserializePack(pack)).containsExactlyElementsOf(files);
+
+		ProtobufService.PackHeader header = protobufService.readPackHeader(pack);
+		for (int i = 0; i < files.size(); i++) {
+			FileProto.PackEntry entry = header.index().getEntries(i);
+			assertThat(entry.getFileName()).isEqualTo(files.get(i).getFileName());
+			int start = (int) (header.dataStart() + entry.getOffset());
+			assertThat(protobufService.deserializeFile(pack, start, (int) entry.getLength())).isEqualTo(files.get(i));
+		}
+	}
+
+	@Test
+	void packHeaderNeedsTheWholeIndex() throws Exception {
+		byte[] pack = protobufService.serializePack(List.of(file("a.json", "x"), file("b.json", "y")));
+		int headerSize = (int) protobufService.readPackHeader(pack).dataStart();
+
+		byte[] truncated = Arrays.copyOf(pack, headerSize - 1);
+		assertThat(protobufService.readPackHeader(truncated)).isNull();
+		assertThat(protobufService.packHeaderSize(truncated)).isEqualTo(headerSize);
+	}
+
+	private static FileProto.FileData file(String name, String content) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(content))
+				.build();
+	}
+}
@@ -0,0 +1,131 @@
+package com.s3communication.s3communication.service;
+
+import ai.replay.io.protobuf.DataChunk;
+import ai.replay.io.session.RecordingSession;
+import com.s3communication.s3communication.config.PlaybackProperties;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3PlaybackWriterTest {
+
+	private static final int PRODUCERS = 4;
+
+	@TempDir
+	Path spoolDir;
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+
+	@RepeatedTest(20)
+	void everyAcceptedChunkIsUploadedWhenCloseRacesWithWrites() throws Exception {
+		S3PlaybackWriter writer = newWriter(8);
+		writer.startRecordingSession();
+		ExecutorService producerPool = Executors.newFixedThreadPool(PRODUCERS);
+		CountDownLatch started = new CountDownLatch(PRODUCERS);
+		try {
+			List<Future<Integer>> producers = new ArrayList<>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				String streamId = "producer-" + p;
+				producers.add(producerPool.submit(() -> {
+					int accepted = 0;
+					started.countDown();
+					try {
+						while (true) {
+							writer.write(chunk(streamId, accepted));
+							accepted++;
+						}
+					} catch (IOException closed) {
+						return accepted;
+					}
+				}));
+			}
+			started.await();
+			Thread.sleep(5);
+			writer.finishAndCloseStreams();
+
+			Map<String, Integer> accepted = new HashMap<>();
+			for (int p = 0; p < PRODUCERS; p++) {
+				accepted.put("producer-" + p, producers.get(p).get(5, TimeUnit.SECONDS));
+			}
+
+			// each producer's chunks are all there, in the order it wrote them
+			Map<String, Integer> uploaded = new HashMap<>();
+			for (DataChunk chunk : uploadedChunks(writer)) {
+				int expected = uploaded.getOrDefault(chunk.getStreamId(), 0);
+				assertThat(chunk.getTimestamp()).isEqualTo(expected);
+				uploaded.put(chunk.getStreamId(), expected + 1);
+			}
+			accepted.values().removeIf(count -> count == 0);
+			assertThat(uploaded).isEqualTo(accepted);
+		} finally {
+			producerPool.shutdownNow();
+		}
+	}
+
+	@Test
+	void writeAfterCloseFails() throws Exception {
+		S3PlaybackWriter writer = newWriter(8);
+		writer.startRecordingSession();
+		writer.write(chunk("a", 0));
+		writer.finishAndCloseStreams();
+
+		assertThatThrownBy(() -> writer.write(chunk("a", 1)))
+				.isInstanceOf(IOException.class)
+				.hasMessageContaining("closed");
+		assertThat(uploadedChunks(writer)).hasSize(1);
+	}
+
+	private List<DataChunk> uploadedChunks(S3PlaybackWriter writer) throws IOException {
+		List<DataChunk> chunks = new ArrayList<>();
+		for (String key : new TreeMap<>(writer.getRecordingFileMap()).values()) {
+			try (InputStream in = storageBackend.get(key)) {
+				DataChunk chunk;
+				while ((chunk = DataChunk.parseDelimitedFrom(in)) != null) {
+					chunks.add(chunk);
+				}
+			}
+		}
+		return chunks;
+	}
+
+	private S3PlaybackWriter newWriter(int queueCapacity) {
+		return new S3PlaybackWriter(new TestSession("session-" + System.nanoTime()), storageBackend,
+				Duration.ofMillis(10), Duration.ofHours(1), queueCapacity, spoolDir,
+				new PlaybackProperties.Durability(), new StorageMetrics(new SimpleMeterRegistry()));
+	}
+
+	private static DataChunk chunk(String streamId, long sequence) {
+		return DataChunk.newBuilder()
+				.setStreamId(streamId)
+				.setTimestamp(sequence)
+				.build();
+	}
+
+	private record TestSession(String getSessionId, Instant getStartTime) implements RecordingSession {
+
+		TestSession(String sessionId) {
+			this(sessionId, Instant.now());
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.s3communication.s3communication.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class S3StorageBackendTest {
+
+	private final S3Client s3Client = mock(S3Client.class);
+	private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+	private final S3StorageBackend backend = new S3StorageBackend(s3Client, s3AsyncClient, mock(S3Presigner.class), "bucket");
+
+	@Test
+	void bufferPutSendsTheRemainingBytesOfADirectBuffer() throws Exception {
+		when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+				.thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+		byte[] bytes = "skip-payload".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer data = ByteBuffer.allocateDirect(bytes.length);
+		data.put(bytes).flip().position(5);
+
+		backend.put("a/b.bin", data, "application/x-protobuf");
+
+		ArgumentCaptor<PutObjectRequest> request = ArgumentCaptor.forClass(PutObjectRequest.class);
+		ArgumentCaptor<AsyncRequestBody> body = ArgumentCaptor.forClass(AsyncRequestBody.class);
+		verify(s3AsyncClient).putObject(request.capture(), body.capture());
+		assertThat(request.getValue().bucket()).isEqualTo("bucket");
+		assertThat(request.getValue().key()).isEqualTo("a/b.bin");
+		assertThat(request.getValue().contentType()).isEqualTo("application/x-protobuf");
+		assertThat(body.getValue().contentLength()).contains(7L);
+		assertThat(new String(read(body.getValue()), StandardCharsets.UTF_8)).isEqualTo("payload");
+		// the caller's buffer is left as it was, it goes back to the pool after put returns
+		assertThat(data.position()).isEqualTo(5);
+		verifyNoInteractions(s3Client);
+	}
+
+	@Test
+	void failedBufferPutThrowsTheSdkException() {
+		S3Exception denied = (S3Exception) S3Exception.builder().statusCode(403).message("denied").build();
+		when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+				.thenReturn(CompletableFuture.failedFuture(denied));
+
+		assertThatThrownBy(() -> backend.put("a/b.bin", ByteBuffer.allocate(4), "application/x-protobuf"))
+				.isSameAs(denied);
+	}
+
+	@Test
+	void uploadFailingWithAnErrorAbortsTheMultipartUpload() {
+		when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+				.thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+		OutOfMemoryError failure = new OutOfMemoryError("Java heap space");
+
+		assertThatThrownBy(() -> backend.upload("a/b.zip", "application/zip", out -> {
+			out.write(1);
+			throw failure;
+		})).isSameAs(failure);
+
+		ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+		verify(s3Client).abortMultipartUpload(abort.capture());
+		assertThat(abort.getValue().key()).isEqualTo("a/b.zip");
+		assertThat(abort.getValue().uploadId()).isEqualTo("upload-1");
+		verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+	}
+
+	private static byte[] read(AsyncRequestBody body) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.subscribe(buffer -> {
+			byte[] chunk = new byte[buffer.remaining()];
+			buffer.get(chunk);
+			out.write(chunk, 0, chunk.length);
+		}).get();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,88 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.DTO.BackfillStatus;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.enums.BackfillState;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotBackfillServiceTest {
+
+	private static final LocalDate DATE = LocalDate.of(2024, 5, 1);
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final ProtobufService protobufService = new ProtobufService();
+	private final StorageProperties storageProperties = new StorageProperties();
+	private final StorageIoExecutor storageIoExecutor = new StorageIoExecutor(storageProperties, false);
+	private final InMemoryLockStore lockStore = new InMemoryLockStore();
+	private final SnapshotProperties snapshotProperties = new SnapshotProperties();
+	private final StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+	private final DeltaPatcher deltaPatcher = new DeltaPatcher(storageBackend, protobufService, storageMetrics, storageProperties);
+	private final SnapshotBuilderService builder = new SnapshotBuilderService(storageBackend, protobufService, storageMetrics,
+			storageIoExecutor, lockStore, snapshotProperties, deltaPatcher,
+			new NameIndex(storageBackend, storageMetrics), new ListingCache(storageProperties));
+	private final SnapshotBackfillService backfill = new SnapshotBackfillService(builder, snapshotProperties, lockStore, deltaPatcher);
+
+	@AfterEach
+	void tearDown() {
+		backfill.shutdown();
+		storageIoExecutor.shutdown();
+	}
+
+	@Test
+	void rebuildUsesTheConfiguredShardsAndReplacesTheOldLayout() throws Exception {
+		snapshotProperties.setShards(2);
+		put("2024/05/01/delta/10/00/a.json", "a.json");
+		put("2024/05/01/delta/10/15/b.json", "b.json");
+		// left by an earlier single-shard build of the hour that never committed
+		storageBackend.put(SnapshotBuilderService.snapshotMetaRoot(DATE) + "10/shard-0-of-1.started", new byte[0], "text/plain");
+		put("2024/05/01/snapshots/10/gone.json", "gone.json");
+		String oldPack = SnapshotBuilderService.hourlyCheckpointPrefix(DATE, 10) + "shard-0-of-1.pack";
+		storageBackend.put(oldPack, protobufService.serializePack(List.of(file("gone.json"))), "application/x-protobuf");
+		String oldIndex = NameIndex.snapshotPrefix(DATE, 10) + "shard-0-of-1" + NameIndex.BLOOM_SUFFIX;
+		new NameIndex(storageBackend, storageMetrics).write(NameIndex.snapshotPrefix(DATE, 10), 0, 1, List.of("gone.json"));
+
+		BackfillStatus status = await(backfill.start(DATE.atTime(10, 0), DATE.atTime(10, 0)));
+
+		assertThat(status.getState()).isEqualTo(BackfillState.COMPLETED);
+		assertThat(status.getHoursBuilt()).isEqualTo(1);
+		assertThat(builder.isCommitted(DATE, 10)).isTrue();
+		assertThat(builder.loadSnapshot(DATE, 10)).containsOnlyKeys("a.json", "b.json");
+		for (int shard = 0; shard < 2; shard++) {
+			assertThat(storageBackend.contains(SnapshotBuilderService.hourlyCheckpointPrefix(DATE, 10) + "shard-" + shard + "-of-2.pack")).isTrue();
+			assertThat(storageBackend.contains(NameIndex.snapshotPrefix(DATE, 10) + "shard-" + shard + "-of-2" + NameIndex.BLOOM_SUFFIX)).isTrue();
+		}
+		assertThat(storageBackend.contains(oldPack)).isFalse();
+		assertThat(storageBackend.contains(oldIndex)).isFalse();
+	}
+
+	private BackfillStatus await(BackfillStatus started) throws InterruptedException {
+		BackfillStatus status = started;
+		for (int i = 0; i < 500 && status.getState() == BackfillState.RUNNING; i++) {
+			Thread.sleep(10);
+			status = backfill.getStatus();
+		}
+		return status;
+	}
+
+	private void put(String key, String name) {
+		storageBackend.put(key, file(name).toByteArray(), "application/x-protobuf");
+	}
+
+	private static FileProto.FileData file(String name) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(name))
+				.build();
+	}
+}
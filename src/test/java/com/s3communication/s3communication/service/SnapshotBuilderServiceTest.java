@@ -0,0 +1,214 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SnapshotBuilderServiceTest {
+
+	private static final LocalDate DATE = LocalDate.of(2024, 5, 1);
+
+	private final List<String> reads = new CopyOnWriteArrayList<>();
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend() {
+		@Override
+		public InputStream get(String key) {
+			reads.add(key);
+			return super.get(key);
+		}
+	};
+	private final ProtobufService protobufService = new ProtobufService();
+	private final StorageProperties storageProperties = new StorageProperties();
+	private final StorageIoExecutor storageIoExecutor = new StorageIoExecutor(storageProperties, false);
+	private final InMemoryLockStore lockStore = new InMemoryLockStore();
+	private final SnapshotProperties snapshotProperties = new SnapshotProperties();
+	private final SnapshotBuilderService builder = newBuilder();
+
+	@AfterEach
+	void tearDown() {
+		storageIoExecutor.shutdown();
+	}
+
+	@Test
+	void hourCommitsOnceEveryShardIsDone() throws Exception {
+		snapshotProperties.setShards(3);
+		for (int i = 0; i < 20; i++) {
+			putDelta(DATE, 10, 0, "file-" + i + ".json", "v1");
+		}
+
+		builder.buildLeasedSnapshot(DATE, 10);
+
+		String meta = SnapshotBuilderService.snapshotMetaRoot(DATE) + "10/";
+		for (int shard = 0; shard < 3; shard++) {
+			assertThat(storageBackend.contains(meta + "shard-" + shard + "-of-3.done")).isTrue();
+		}
+		assertThat(storageBackend.contains(meta + SnapshotBuilderService.COMMIT_MARKER)).isTrue();
+		assertThat(builder.hasSnapshot(DATE, 10)).isTrue();
+		assertThat(builder.loadSnapshot(DATE, 10)).hasSize(20);
+	}
+
+	@Test
+	void shardLeasedElsewhereKeepsTheHourUncommitted() throws Exception {
+		snapshotProperties.setShards(2);
+		putDelta(DATE, 10, 0, "a.json", "v1");
+		putDelta(DATE, 10, 15, "b.json", "v1");
+		String meta = SnapshotBuilderService.snapshotMetaRoot(DATE) + "10/";
+		lockStore.tryAcquire(meta + "shard-1-of-2.lease", "other-node", Duration.ofHours(1));
+
+		builder.buildLeasedSnapshot(DATE, 10);
+
+		assertThat(storageBackend.contains(meta + "shard-0-of-2.done")).isTrue();
+		assertThat(storageBackend.contains(meta + SnapshotBuilderService.COMMIT_MARKER)).isFalse();
+		assertThat(builder.isCommitted(DATE, 10)).isFalse();
+		assertThat(builder.hasSnapshot(DATE, 10)).isFalse();
+	}
+
+	@Test
+	void nextHourRefusesToBuildOnAnUncommittedHour() throws Exception {
+		putDelta(DATE, 10, 0, "a.json", "v1");
+		putDelta(DATE, 11, 0, "a.json", "v2");
+		// a build that died after its shard started uploading
+		storageBackend.put(SnapshotBuilderService.snapshotMetaRoot(DATE) + "10/shard-0-of-1.started", new byte[0], "text/plain");
+		putSnapshot(DATE, 10, "a.json", "v1");
+
+		assertThat(builder.isCommitted(DATE, 10)).isFalse();
+		assertThatThrownBy(() -> builder.previousSnapshotHour(DATE.atTime(11, 0)))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("hour 10");
+	}
+
+	@Test
+	void hoursWithoutDeltasArePassedOverInTheChain() throws Exception {
+		putDelta(DATE, 8, 0, "a.json", "v1");
+		builder.buildLeasedSnapshot(DATE, 8);
+
+		assertThat(builder.previousSnapshotHour(DATE.atTime(11, 0))).contains(DATE.atTime(8, 0));
+	}
+
+	@Test
+	void quietHour23StillWritesTheNextDailyCheckpoint() throws Exception {
+		putDelta(DATE, 22, 0, "a.json", "v1");
+		builder.buildLeasedSnapshot(DATE, 22);
+
+		builder.buildLeasedSnapshot(DATE, 23);
+
+		assertThat(builder.isCommitted(DATE, 23)).isTrue();
+		assertThat(builder.hasSnapshot(DATE, 23)).isFalse();
+		assertThat(storageBackend.contains(
+				SnapshotBuilderService.dailyCheckpointPrefix(DATE.plusDays(1)) + "shard-0-of-1.pack")).isTrue();
+	}
+
+	@Test
+	void fullReplacementsDoNotDownloadThePreviousVersion() throws Exception {
+		putSnapshot(DATE, 10, "a.json", "v1");
+		putSnapshot(DATE, 10, "b.json", "v1");
+		putDelta(DATE, 11, 0, "a.json", "v2");
+
+		builder.buildLeasedSnapshot(DATE, 11);
+
+		assertThat(reads).doesNotContain(datePath(DATE) + "/snapshots/10/a.json");
+		assertThat(builder.loadSnapshot(DATE, 11)).containsOnlyKeys("a.json", "b.json");
+		assertThat(builder.loadSnapshot(DATE, 11).get("a.json").getContent().toStringUtf8()).isEqualTo("v2");
+	}
+
+	@Test
+	void snapshotWithoutMarkersCountsAsCommitted() {
+		putSnapshot(DATE, 9, "a.json", "v1");
+
+		assertThat(builder.isCommitted(DATE, 9)).isTrue();
+		assertThat(builder.hasSnapshot(DATE, 9)).isTrue();
+	}
+
+	@Test
+	void scheduledRunRetriesAnHourOnceItsLeaseExpires() throws Exception {
+		LocalDateTime previous = LocalDateTime.now(ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS).minusHours(1);
+		LocalDate date = previous.toLocalDate();
+		int hour = previous.getHour();
+		putDelta(date, hour, 0, "a.json", "v1");
+		String lease = SnapshotBuilderService.snapshotMetaRoot(date) + String.format("%02d/shard-0-of-1.lease", hour);
+		lockStore.tryAcquire(lease, "dead-node", Duration.ofMillis(50));
+
+		builder.runScheduledBuilds();
+		assertThat(builder.isCommitted(date, hour)).isFalse();
+
+		Thread.sleep(100);
+		builder.runScheduledBuilds();
+		assertThat(builder.isCommitted(date, hour)).isTrue();
+		assertThat(builder.loadSnapshot(date, hour)).containsOnlyKeys("a.json");
+	}
+
+	@Test
+	void scheduledRunBuildsOlderGapsFirst() throws Exception {
+		LocalDateTime previous = LocalDateTime.now(ZoneId.systemDefault()).truncatedTo(ChronoUnit.HOURS).minusHours(1);
+		LocalDateTime older = previous.minusHours(2);
+		putDelta(older.toLocalDate(), older.getHour(), 0, "a.json", "v1");
+		putDelta(previous.toLocalDate(), previous.getHour(), 0, "b.json", "v1");
+
+		builder.runScheduledBuilds();
+
+		assertThat(builder.isCommitted(older.toLocalDate(), older.getHour())).isTrue();
+		assertThat(builder.isCommitted(previous.toLocalDate(), previous.getHour())).isTrue();
+		// the later hour was built on the older one
+		assertThat(builder.loadSnapshot(previous.toLocalDate(), previous.getHour())).containsOnlyKeys("a.json", "b.json");
+	}
+
+	@Test
+	void everyNameBelongsToExactlyOneShard() {
+		for (int i = 0; i < 1000; i++) {
+			String name = "file-" + i + ".json";
+			int owners = 0;
+			for (int shard = 0; shard < 4; shard++) {
+				if (SnapshotBuilderService.inShard(name, shard, 4)) owners++;
+			}
+			assertThat(owners).as(name).isEqualTo(1);
+			assertThat(SnapshotBuilderService.inShard(name, 0, 1)).isTrue();
+		}
+	}
+
+	private void putDelta(LocalDate date, int hour, int minute, String name, String content) {
+		storageBackend.put(String.format("%s/delta/%02d/%02d/%s", datePath(date), hour, minute, name),
+				file(name, content).toByteArray(), "application/x-protobuf");
+	}
+
+	private void putSnapshot(LocalDate date, int hour, String name, String content) {
+		storageBackend.put(String.format("%s/snapshots/%02d/%s", datePath(date), hour, name),
+				file(name, content).toByteArray(), "application/x-protobuf");
+	}
+
+	private static String datePath(LocalDate date) {
+		return date.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+	}
+
+	private static FileProto.FileData file(String name, String content) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(content))
+				.build();
+	}
+
+	private SnapshotBuilderService newBuilder() {
+		StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+		return new SnapshotBuilderService(storageBackend, protobufService, storageMetrics, storageIoExecutor,
+				lockStore, snapshotProperties,
+				new DeltaPatcher(storageBackend, protobufService, storageMetrics, storageProperties),
+				new NameIndex(storageBackend, storageMetrics),
+				new ListingCache(storageProperties));
+	}
+}
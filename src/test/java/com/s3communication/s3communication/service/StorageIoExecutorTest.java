@@ -0,0 +1,79 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.config.StorageProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorageIoExecutorTest {
+
+	private StorageIoExecutor executor;
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void errorCompletesTheFuture(boolean virtualThreads) {
+		executor = newExecutor(1, virtualThreads);
+
+		CompletableFuture<Object> failed = executor.submit(() -> {
+			throw new StackOverflowError("deep");
+		});
+
+		assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(StackOverflowError.class);
+		// the pool keeps serving tasks afterwards
+		assertThat(executor.submit(() -> "ok").join()).isEqualTo("ok");
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void nestedSubmitDoesNotWaitForItsParentsSlot(boolean virtualThreads) throws Exception {
+		executor = newExecutor(1, virtualThreads);
+
+		CompletableFuture<String> outer = executor.submit(() -> executor.submit(() -> "inner").join());
+
+		assertThat(outer.get(5, TimeUnit.SECONDS)).isEqualTo("inner");
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void concurrencyIsBoundedByMaxConcurrency(boolean virtualThreads) throws Exception {
+		executor = newExecutor(2, virtualThreads);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<?>[] tasks = new CompletableFuture<?>[6];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = executor.submit(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				release.await(50, TimeUnit.MILLISECONDS);
+				running.decrementAndGet();
+				return null;
+			});
+		}
+		CompletableFuture.allOf(tasks).get(5, TimeUnit.SECONDS);
+
+		assertThat(maxRunning.get()).isBetween(1, 2);
+	}
+
+	private static StorageIoExecutor newExecutor(int maxConcurrency, boolean virtualThreads) {
+		StorageProperties storageProperties = new StorageProperties();
+		storageProperties.getIo().setMaxConcurrency(maxConcurrency);
+		return new StorageIoExecutor(storageProperties, virtualThreads);
+	}
+}
@@ -0,0 +1,67 @@
+package com.s3communication.s3communication.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageMetricsTest {
+
+	@Test
+	void areaIsOneOfAFixedSet() {
+		assertThat(StorageMetrics.areaOf("2024/05/01/delta/10/15/a.json")).isEqualTo("delta");
+		assertThat(StorageMetrics.areaOf("2024/05/01/snapshots/10/a.json")).isEqualTo("snapshots");
+		assertThat(StorageMetrics.areaOf("recordings/s1_1.rec")).isEqualTo("recordings");
+		assertThat(StorageMetrics.areaOf("2024/05/01/checkpoints/daily/")).isEqualTo("checkpoints");
+		assertThat(StorageMetrics.areaOf("2024/05/01/a-file-named-by-a-client")).isEqualTo("other");
+		assertThat(StorageMetrics.areaOf("exports/abc.zip")).isEqualTo("other");
+		assertThat(StorageMetrics.areaOf("delta")).isEqualTo("other");
+		assertThat(StorageMetrics.areaOf("")).isEqualTo("other");
+		assertThat(StorageMetrics.areaOf(null)).isEqualTo("other");
+	}
+
+	@Test
+	void windowIsOpenClosedOrNone() {
+		String openWindow = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd/'delta'/HH/"));
+		assertThat(StorageMetrics.windowOf(openWindow + "a.json")).isEqualTo("open");
+		assertThat(StorageMetrics.windowOf("2024/05/01/delta/10/15/a.json")).isEqualTo("closed");
+		assertThat(StorageMetrics.windowOf("2024/05/01/snapshots/10/")).isEqualTo("closed");
+		assertThat(StorageMetrics.windowOf("recordings/s1_1.rec")).isEqualTo("none");
+		assertThat(StorageMetrics.windowOf(null)).isEqualTo("none");
+	}
+
+	@Test
+	void windowSplitsAnAreaIntoOpenAndClosedMeters() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		StorageMetrics metrics = new StorageMetrics(registry);
+		String openWindow = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd/'delta'/HH/"));
+
+		for (int day = 1; day <= 28; day++) {
+			metrics.record("list", String.format("2024/05/%02d/delta/10/", day), () -> null);
+		}
+		metrics.record("list", openWindow, () -> null);
+
+		assertThat(registry.find("storage.operation").tag("area", "delta").timers()).hasSize(2);
+		assertThat(registry.find("storage.operation").tag("window", "closed").timer().count()).isEqualTo(28);
+		assertThat(registry.find("storage.operation").tag("window", "open").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void arbitraryKeysDoNotGrowTheMeterCount() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		StorageMetrics metrics = new StorageMetrics(registry);
+
+		for (int i = 0; i < 100; i++) {
+			String key = "client-" + i + "/file-" + i;
+			metrics.record("get", key, () -> null);
+			metrics.bytesIn("get", key, 10);
+		}
+
+		assertThat(registry.find("storage.operation").timers()).hasSize(1);
+		assertThat(registry.find("storage.operation").timer().count()).isEqualTo(100);
+		assertThat(registry.find("storage.bytes").summaries()).hasSize(1);
+	}
+}
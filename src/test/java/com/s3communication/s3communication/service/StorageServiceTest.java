@@ -0,0 +1,301 @@
+package com.s3communication.s3communication.service;
+
+import com.google.protobuf.ByteString;
+import com.s3communication.protobuf.FileProto;
+import com.s3communication.s3communication.DTO.ContentSlice;
+import com.s3communication.s3communication.config.SnapshotProperties;
+import com.s3communication.s3communication.config.StorageProperties;
+import com.s3communication.s3communication.enums.ArchiveFormat;
+import com.s3communication.s3communication.exceptions.RangeNotSatisfiableException;
+import com.s3communication.s3communication.support.InMemoryStorageBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorageServiceTest {
+
+	private static final String WINDOW = "2024/05/01/delta/10/15/";
+	private static final LocalDate DATE = LocalDate.of(2024, 5, 1);
+
+	private final InMemoryStorageBackend storageBackend = new InMemoryStorageBackend();
+	private final ProtobufService protobufService = new ProtobufService();
+	private final StorageProperties storageProperties = new StorageProperties();
+	private final StorageIoExecutor storageIoExecutor = new StorageIoExecutor(storageProperties, false);
+	// capacities asked of the buffer pool, in order
+	private final List<Integer> acquisitions = new CopyOnWriteArrayList<>();
+	private final StorageService storageService = newStorageService();
+
+	@AfterEach
+	void tearDown() {
+		storageIoExecutor.shutdown();
+	}
+
+	@Test
+	void metadataListingExpandsPacksInUploadOrder() throws Exception {
+		storageBackend.put(WINDOW + "a.json", file("a.json", "single").toByteArray(), "application/x-protobuf");
+		// sorts before a.json by key, but was uploaded after it
+		String packKey = WINDOW + "1714557300000-abcd1234.pack";
+		storageBackend.put(packKey, protobufService.serializePack(List.of(file("a.json", "packed"), file("b.json", "b"))),
+				"application/x-protobuf");
+
+		List<Map<String, Object>> listing = storageService.listFileMetadataByPrefix(WINDOW);
+
+		assertThat(listing).extracting(m -> m.get("s3Key")).containsExactly(
+				WINDOW + "a.json",
+				packKey + DeltaPacker.ENTRY_SEPARATOR + "a.json",
+				packKey + DeltaPacker.ENTRY_SEPARATOR + "b.json");
+		assertThat(listing).extracting(m -> m.get("fileName")).containsExactly("a.json", "a.json", "b.json");
+		assertThat(storageService.downloadFile((String) listing.get(1).get("s3Key"))).asString().isEqualTo("packed");
+	}
+
+	@Test
+	void serviceObjectsStayOutOfUserListingsAndZips() throws Exception {
+		storageBackend.put(WINDOW + "a.json", file("a.json", "a").toByteArray(), "application/x-protobuf");
+		new NameIndex(storageBackend, new StorageMetrics(new SimpleMeterRegistry()))
+				.write(NameIndex.deltaWindowPrefix(LocalDate.of(2024, 5, 1), 10, 15), 0, 1, List.of("a.json"));
+		storageBackend.put(SnapshotBuilderService.dailyCheckpointPrefix(LocalDate.of(2024, 5, 1)) + "shard-0-of-1.pack",
+				protobufService.serializePack(List.of(file("a.json", "a"))), "application/x-protobuf");
+
+		assertThat(storageService.listFileMetadataByPrefix("2024/05/01")).extracting(m -> m.get("s3Key"))
+				.containsExactly(WINDOW + "a.json");
+		assertThat(zipEntryNames("2024/05/01")).containsExactly("delta/10/15/a.json");
+		assertThat(zipEntryNames(MetaKeys.ROOT)).isEmpty();
+		assertThat(storageService.listFileMetadataByPrefix(MetaKeys.ROOT)).isEmpty();
+
+		String checkpoint = SnapshotBuilderService.dailyCheckpointPrefix(LocalDate.of(2024, 5, 1)) + "shard-0-of-1.pack";
+		assertThat(storageService.deleteFile(checkpoint)).startsWith("Error deleting");
+		assertThat(storageBackend.contains(checkpoint)).isTrue();
+	}
+
+	@Test
+	void replayWithoutCheckpointsStopsAtTheEndWindow() {
+		putSnapshot(9, "a.json", "v1");
+		putDelta(10, 0, "a.json", "v2");
+		putDelta(10, 30, "a.json", "v3");
+		putDelta(10, 30, "b.json", "v1");
+		// hour 10's snapshot already holds the 10:30 window
+		putSnapshot(10, "a.json", "v3");
+		putSnapshot(10, "b.json", "v1");
+
+		Map<String, FileProto.FileData> replay = storageService.getReplay(DATE, 10, 0, 10, 20);
+
+		assertThat(replay).containsOnlyKeys("a.json");
+		assertThat(replay.get("a.json").getContent().toStringUtf8()).isEqualTo("v2");
+	}
+
+	@Test
+	void replayWithoutCheckpointsAppliesHoursAfterTheLatestSnapshot() {
+		putSnapshot(8, "a.json", "v1");
+		putDelta(9, 45, "b.json", "v1");
+		putDelta(10, 0, "a.json", "v2");
+
+		Map<String, FileProto.FileData> replay = storageService.getReplay(DATE, 10, 0, 10, 0);
+
+		assertThat(replay).containsOnlyKeys("a.json", "b.json");
+		assertThat(replay.get("a.json").getContent().toStringUtf8()).isEqualTo("v2");
+	}
+
+	@Test
+	void replayArchiveStreamsTheSameStateAsTheReplay() throws Exception {
+		storageBackend.put(SnapshotBuilderService.dailyCheckpointPrefix(DATE) + "shard-0-of-1.pack",
+				protobufService.serializePack(List.of(file("a.json", "v1"), file("b.json", "v1"))), "application/x-protobuf");
+		storageBackend.put(SnapshotBuilderService.snapshotMetaRoot(DATE.minusDays(1)) + "23/" + SnapshotBuilderService.COMMIT_MARKER,
+				new byte[0], "text/plain");
+		putDelta(10, 0, "a.json", "v2");
+		putDelta(10, 30, "b.json", "v2");
+
+		Map<String, String> sources = storageService.locateReplay(DATE, 10, 15, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storageService.writeArchive(sources, ArchiveFormat.ZIP, DATE.atTime(10, 15), out);
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		assertThat(entries).containsExactly(Map.entry("a.json", "v2"), Map.entry("b.json", "v1"));
+		assertThat(storageService.getReplay(DATE, 10, 0, 10, 15)).containsOnlyKeys(entries.keySet());
+	}
+
+	@Test
+	void replayRejectsAStartAfterTheEnd() {
+		assertThatThrownBy(() -> storageService.getReplay(DATE, 11, 0, 10, 45))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void rangeIsResolvedAgainstTheContentLength() throws Exception {
+		String key = WINDOW + "r.txt";
+		storageBackend.put(key, file("r.txt", "0123456789").toByteArray(), "application/x-protobuf");
+
+		ContentSlice slice = storageService.downloadRange(key, range("bytes=2-5"));
+		assertThat(slice.getBody()).asString(StandardCharsets.UTF_8).isEqualTo("2345");
+		assertThat(slice.getStart()).isEqualTo(2);
+		assertThat(slice.getEnd()).isEqualTo(5);
+		assertThat(slice.getTotalLength()).isEqualTo(10);
+
+		assertThat(slice(key, "bytes=-3")).isEqualTo("789");
+		assertThat(slice(key, "bytes=8-")).isEqualTo("89");
+		// an end past the content is cut to its last byte
+		assertThat(slice(key, "bytes=5-100")).isEqualTo("56789");
+		assertThat(slice(key, "bytes=0-0")).isEqualTo("0");
+	}
+
+	@Test
+	void rangeInsideAPackEntryReadsOnlyThatEntry() throws Exception {
+		String packKey = WINDOW + "1714557300000-abcd1234.pack";
+		storageBackend.put(packKey, protobufService.serializePack(List.of(file("a.txt", "aaaaaaaa"), file("b.txt", "0123456789"))),
+				"application/x-protobuf");
+		String key = packKey + DeltaPacker.ENTRY_SEPARATOR + "b.txt";
+
+		assertThat(slice(key, "bytes=3-6")).isEqualTo("3456");
+		assertThat(slice(key, "bytes=-2")).isEqualTo("89");
+	}
+
+	@Test
+	void rangeOutsideTheContentIsNotSatisfiable() {
+		String key = WINDOW + "r.txt";
+		storageBackend.put(key, file("r.txt", "0123456789").toByteArray(), "application/x-protobuf");
+		String empty = WINDOW + "empty.txt";
+		storageBackend.put(empty, file("empty.txt", "").toByteArray(), "application/x-protobuf");
+
+		assertThatThrownBy(() -> storageService.downloadRange(key, range("bytes=10-")))
+				.isInstanceOf(RangeNotSatisfiableException.class);
+		assertThatThrownBy(() -> storageService.downloadRange(key, range("bytes=20-30")))
+				.isInstanceOf(RangeNotSatisfiableException.class);
+		assertThatThrownBy(() -> storageService.downloadRange(empty, range("bytes=-1")))
+				.isInstanceOf(RangeNotSatisfiableException.class);
+	}
+
+	@Test
+	void wholeObjectIsReadIntoOneBufferOfItsLength() throws Exception {
+		// one object filling a pool size class exactly, one between two classes
+		for (int size : new int[]{128 * 1024, 200_000}) {
+			String key = WINDOW + size + ".bin";
+			FileProto.FileData file = fileOfSerializedSize(size + ".bin", size);
+			storageBackend.put(key, file.toByteArray(), "application/x-protobuf");
+			acquisitions.clear();
+
+			try (PooledContent content = storageService.openContent(key)) {
+				assertThat(content.length()).isEqualTo(file.getContent().size());
+			}
+			assertThat(acquisitions).containsExactly(size);
+		}
+	}
+
+	@Test
+	void deltasBecomeImmutableOnlyOnceTheirHourIsCommitted() {
+		String delta = WINDOW + "a.json";
+		putDelta(10, 15, "a.json", "v1");
+		assertThat(storageService.isImmutable(delta)).isFalse();
+		assertThat(storageService.cacheControl(delta).getHeaderValue()).isEqualTo("no-cache");
+
+		storageBackend.put(SnapshotBuilderService.snapshotMetaRoot(DATE) + "10/" + SnapshotBuilderService.COMMIT_MARKER,
+				new byte[0], "text/plain");
+		// a service without the marker listing cached above, as on another node
+		StorageService reader = newStorageService(new ListingCache(storageProperties));
+
+		assertThat(reader.isImmutable(delta)).isTrue();
+		assertThat(reader.isImmutable(WINDOW)).isTrue();
+		assertThat(reader.cacheControl(delta).getHeaderValue()).contains("immutable");
+		// a backfill may still rewrite a committed hour's snapshot
+		assertThat(reader.isImmutable(datePath() + "/snapshots/10/a.json")).isFalse();
+		assertThat(reader.isImmutable(datePath() + "/")).isFalse();
+	}
+
+	private void putDelta(int hour, int minute, String name, String content) {
+		storageBackend.put(String.format("%s/delta/%02d/%02d/%s", datePath(), hour, minute, name),
+				file(name, content).toByteArray(), "application/x-protobuf");
+	}
+
+	private void putSnapshot(int hour, String name, String content) {
+		storageBackend.put(String.format("%s/snapshots/%02d/%s", datePath(), hour, name),
+				file(name, content).toByteArray(), "application/x-protobuf");
+	}
+
+	private String slice(String key, String header) throws Exception {
+		try (InputStream body = storageService.downloadRange(key, range(header)).getBody()) {
+			return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static HttpRange range(String header) {
+		return HttpRange.parseRanges(header).get(0);
+	}
+
+	private static String datePath() {
+		return DATE.format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+	}
+
+	private List<String> zipEntryNames(String prefix) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storageService.writePrefixZip(prefix, out);
+		List<String> names = new ArrayList<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				names.add(entry.getName());
+			}
+		}
+		return names;
+	}
+
+	private StorageService newStorageService() {
+		return newStorageService(new ListingCache(storageProperties));
+	}
+
+	private StorageService newStorageService(ListingCache listingCache) {
+		StorageMetrics storageMetrics = new StorageMetrics(new SimpleMeterRegistry());
+		BufferPool bufferPool = new BufferPool() {
+			@Override
+			public byte[] acquire(int minCapacity) {
+				acquisitions.add(minCapacity);
+				return super.acquire(minCapacity);
+			}
+		};
+		return new StorageService(storageBackend, protobufService, storageMetrics,
+				new DeltaPacker(storageBackend, protobufService, storageMetrics, bufferPool, storageIoExecutor, storageProperties),
+				storageIoExecutor,
+				new DeltaPatcher(storageBackend, protobufService, storageMetrics, storageProperties),
+				new NameIndex(storageBackend, storageMetrics),
+				bufferPool,
+				storageProperties,
+				listingCache,
+				new SnapshotProperties());
+	}
+
+	private static FileProto.FileData fileOfSerializedSize(String name, int serializedSize) {
+		for (int length = serializedSize; ; length--) {
+			FileProto.FileData file = FileProto.FileData.newBuilder()
+					.setFileName(name)
+					.setContent(ByteString.copyFrom(new byte[length]))
+					.build();
+			if (file.getSerializedSize() == serializedSize) return file;
+		}
+	}
+
+	private static FileProto.FileData file(String name, String content) {
+		return FileProto.FileData.newBuilder()
+				.setFileName(name)
+				.setContent(ByteString.copyFromUtf8(content))
+				.build();
+	}
+}
@@ -0,0 +1,93 @@
+package com.s3communication.s3communication.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+
+class TarWriterTest {
+
+	private static final int BLOCK = 512;
+
+	@Test
+	void entryIsPaddedToWholeBlocksAndArchiveEndsWithTwoZeroBlocks() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TarWriter tar = new TarWriter(out);
+		byte[] content = "hello".getBytes(StandardCharsets.UTF_8);
+
+		tar.putEntry("a.txt", content.length, 0);
+		tar.entryStream().write(content);
+		tar.finish();
+
+		byte[] archive = out.toByteArray();
+		assertThat(archive).hasSize(4 * BLOCK);
+		assertThat(field(archive, 0, 100)).isEqualTo("a.txt");
+		assertThat(field(archive, 124, 12)).isEqualTo("00000000005");
+		assertThat(Arrays.copyOfRange(archive, BLOCK, BLOCK + content.length)).isEqualTo(content);
+		assertThat(Long.parseLong(field(archive, 148, 7), 8)).isEqualTo(checksum(archive, 0));
+		assertThat(Arrays.copyOfRange(archive, 2 * BLOCK, 4 * BLOCK)).containsOnly(0);
+	}
+
+	@Test
+	void longNameGetsAPaxRecordAndAHeaderNameCutOnACharacterBoundary() throws Exception {
+		// 99 ASCII bytes, then a 3-byte character that would straddle the 100-byte name field
+		String name = "d/".repeat(49) + "x" + "€" + ".txt";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TarWriter tar = new TarWriter(out);
+
+		tar.putEntry(name, 0, 0);
+		tar.finish();
+
+		byte[] archive = out.toByteArray();
+		assertThat((char) archive[156]).isEqualTo('x');
+		String pax = new String(archive, BLOCK, BLOCK, StandardCharsets.UTF_8);
+		assertThat(pax).contains(" path=" + name + "\n");
+
+		int header = 2 * BLOCK;
+		assertThat((char) archive[header + 156]).isEqualTo('0');
+		byte[] headerName = Arrays.copyOfRange(archive, header, header + 100);
+		assertThatCode(() -> strictUtf8(headerName)).doesNotThrowAnyException();
+		assertThat(field(archive, header, 100)).isEqualTo("d/".repeat(49) + "x");
+	}
+
+	@Test
+	void utf8PrefixNeverEndsInsideACharacter() {
+		byte[] utf8 = "ab€".getBytes(StandardCharsets.UTF_8); // 2 ASCII bytes, then 3 bytes
+
+		assertThat(TarWriter.utf8Prefix(utf8, 5)).isEqualTo(5);
+		assertThat(TarWriter.utf8Prefix(utf8, 4)).isEqualTo(2);
+		assertThat(TarWriter.utf8Prefix(utf8, 3)).isEqualTo(2);
+		assertThat(TarWriter.utf8Prefix(utf8, 2)).isEqualTo(2);
+	}
+
+	private static String field(byte[] archive, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && archive[end] != 0) end++;
+		return new String(archive, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	// the checksum field counts as eight spaces
+	private static long checksum(byte[] archive, int headerOffset) {
+		long sum = 0;
+		for (int i = 0; i < BLOCK; i++) {
+			sum += i >= 148 && i < 156 ? ' ' : archive[headerOffset + i] & 0xff;
+		}
+		return sum;
+	}
+
+	// decodes up to the first NUL, failing on a broken sequence instead of replacing it
+	private static void strictUtf8(byte[] bytes) throws CharacterCodingException {
+		int end = 0;
+		while (end < bytes.length && bytes[end] != 0) end++;
+		StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.decode(ByteBuffer.wrap(bytes, 0, end));
+	}
+}
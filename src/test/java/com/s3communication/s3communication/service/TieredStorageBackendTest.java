@@ -0,0 +1,80 @@
+package com.s3communication.s3communication.service;
+
+import com.s3communication.s3communication.interfaces.StorageBackend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TieredStorageBackendTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void onlyNewWritesAreSpilledAndRestartsDoNotRespill() {
+		LocalStorageBackend hot = new LocalStorageBackend(dir.resolve("hot"));
+		LocalStorageBackend cold = new LocalStorageBackend(dir.resolve("cold"));
+		TieredStorageBackend tiered = new TieredStorageBackend(hot, cold, Duration.ofHours(1), dir.resolve("state"));
+
+		tiered.put("2024/05/01/delta/10/00/a", bytes("a1"), "application/x-protobuf");
+		tiered.put("2024/05/01/delta/10/00/b", bytes("b1"), "application/x-protobuf");
+		assertThat(tiered.migrate()).isEqualTo(2);
+		assertThat(tiered.migrate()).isZero();
+
+		TieredStorageBackend restarted = new TieredStorageBackend(hot, cold, Duration.ofHours(1), dir.resolve("state"));
+		assertThat(restarted.migrate()).isZero();
+
+		restarted.put("2024/05/01/delta/10/00/a", bytes("a2"), "application/x-protobuf");
+		assertThat(restarted.migrate()).isEqualTo(1);
+		assertThat(read(cold, "2024/05/01/delta/10/00/a")).isEqualTo("a2");
+	}
+
+	@Test
+	void writesNotSpilledBeforeARestartAreSpilledAfterIt() {
+		LocalStorageBackend hot = new LocalStorageBackend(dir.resolve("hot"));
+		LocalStorageBackend cold = new LocalStorageBackend(dir.resolve("cold"));
+		new TieredStorageBackend(hot, cold, Duration.ofHours(1), dir.resolve("state"))
+				.put("recordings/s_1.rec", bytes("segment"), "application/octet-stream");
+
+		TieredStorageBackend restarted = new TieredStorageBackend(hot, cold, Duration.ofHours(1), dir.resolve("state"));
+		assertThat(restarted.migrate()).isEqualTo(1);
+		assertThat(cold.exists("recordings/s_1.rec")).isTrue();
+	}
+
+	@Test
+	void spilledVersionsPastMaxAgeAreEvicted() throws IOException {
+		LocalStorageBackend hot = new LocalStorageBackend(dir.resolve("hot"));
+		LocalStorageBackend cold = new LocalStorageBackend(dir.resolve("cold"));
+		TieredStorageBackend tiered = new TieredStorageBackend(hot, cold, Duration.ofHours(1), dir.resolve("state"));
+		String key = "2024/05/01/delta/10/00/a";
+
+		tiered.put(key, bytes("old"), "application/x-protobuf");
+		Files.setLastModifiedTime(dir.resolve("hot").resolve(key), FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+		assertThat(tiered.migrate()).isEqualTo(1);
+
+		assertThat(hot.exists(key)).isFalse();
+		assertThat(read(tiered, key)).isEqualTo("old");
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String read(StorageBackend backend, String key) {
+		try (InputStream in = backend.get(key)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.s3communication.s3communication.support;
+
+import com.s3communication.s3communication.DTO.ObjectListing;
+import com.s3communication.s3communication.DTO.ObjectStream;
+import com.s3communication.s3communication.DTO.StoredObject;
+import com.s3communication.s3communication.exceptions.ObjectNotFoundException;
+import com.s3communication.s3communication.interfaces.StorageBackend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Object source for tests and benchmarks: a sorted map, so prefix listing and pagination behave like S3.
+// Every put gets a later lastModified than the one before, so upload order is visible in listings.
+public class InMemoryStorageBackend implements StorageBackend {
+
+	private record Stored(byte[] data, Instant lastModified) {
+	}
+
+	private final ConcurrentSkipListMap<String, Stored> objects = new ConcurrentSkipListMap<>();
+	private Instant lastModified = Instant.EPOCH;
+
+	@Override
+	public void put(String key, byte[] data, String contentType) {
+		store(key, data);
+	}
+
+	@Override
+	public void put(String key, Path file, String contentType) {
+		try {
+			store(key, Files.readAllBytes(file));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void put(String key, ByteBuffer data, String contentType) {
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		store(key, bytes);
+	}
+
+	@Override
+	public void put(String key, InputStream data, long contentLength, String contentType) {
+		try {
+			store(key, data.readAllBytes());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public InputStream get(String key) {
+		return new ByteArrayInputStream(bytes(key));
+	}
+
+	@Override
+	public ObjectStream getWithLength(String key) {
+		byte[] data = bytes(key);
+		return new ObjectStream(new ByteArrayInputStream(data), data.length);
+	}
+
+	@Override
+	public void upload(String key, String contentType, ContentWriter writer) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			writer.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		store(key, out.toByteArray());
+	}
+
+	@Override
+	public StoredObject head(String key) {
+		Stored stored = stored(key);
+		return toStoredObject(key, stored);
+	}
+
+	@Override
+	public InputStream getRange(String key, long start, long endInclusive) {
+		byte[] data = bytes(key);
+		int from = (int) Math.min(start, data.length);
+		int to = (int) Math.min(endInclusive + 1, data.length);
+		return new ByteArrayInputStream(data, from, to - from);
+	}
+
+	@Override
+	public long transferTo(String key, long position, long count, WritableByteChannel target) throws IOException {
+		byte[] data = bytes(key);
+		int from = (int) Math.min(position, data.length);
+		int length = (int) Math.min(count, data.length - from);
+		ByteBuffer buffer = ByteBuffer.wrap(data, from, length);
+		long written = 0;
+		while (buffer.hasRemaining()) {
+			written += target.write(buffer);
+		}
+		return written;
+	}
+
+	@Override
+	public ObjectListing list(String prefix, String continuationToken, int maxKeys) {
+		NavigableMap<String, Stored> range = objects.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+		if (continuationToken != null) {
+			range = range.tailMap(continuationToken, false);
+		}
+		List<StoredObject> page = range.entrySet().stream()
+				.limit(maxKeys)
+				.map(e -> toStoredObject(e.getKey(), e.getValue()))
+				.toList();
+		String next = page.size() == maxKeys && range.size() > maxKeys ? page.get(maxKeys - 1).getKey() : null;
+		return new ObjectListing(page, next);
+	}
+
+	@Override
+	public void delete(String key) {
+		objects.remove(key);
+	}
+
+	@Override
+	public void copy(String sourceKey, String targetKey) {
+		store(targetKey, bytes(sourceKey));
+	}
+
+	@Override
+	public String presignGet(String key, Duration expiry) {
+		return "memory://" + key;
+	}
+
+	public boolean contains(String key) {
+		return objects.containsKey(key);
+	}
+
+	private synchronized void store(String key, byte[] data) {
+		Instant now = Instant.now();
+		lastModified = now.isAfter(lastModified) ? now : lastModified.plusNanos(1);
+		objects.put(key, new Stored(data, lastModified));
+	}
+
+	private static StoredObject toStoredObject(String key, Stored stored) {
+		return new StoredObject(key, stored.data().length, stored.lastModified(),
+				Integer.toHexString(System.identityHashCode(stored.data())));
+	}
+
+	private byte[] bytes(String key) {
+		return stored(key).data();
+	}
+
+	private Stored stored(String key) {
+		Stored stored = objects.get(key);
+		if (stored == null) {
+			throw new ObjectNotFoundException(key, null);
+		}
+		return stored;
+	}
+}